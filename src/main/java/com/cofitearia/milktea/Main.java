@@ -1,6 +1,24 @@
 package com.cofitearia.milktea;
 
 import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.models.InventoryItem;
+import com.cofitearia.milktea.services.BackupService;
+import com.cofitearia.milktea.services.BestsellerTracker;
+import com.cofitearia.milktea.services.ChangeFeed;
+import com.cofitearia.milktea.services.ExpiryScheduler;
+import com.cofitearia.milktea.services.ForecastService;
+import com.cofitearia.milktea.services.InventoryService;
+import com.cofitearia.milktea.services.LotService;
+import com.cofitearia.milktea.services.ReadReplica;
+import com.cofitearia.milktea.services.RecentCheckouts;
+import com.cofitearia.milktea.services.RecipeService;
+import com.cofitearia.milktea.services.RollupService;
+import com.cofitearia.milktea.services.SaleJournal;
+import com.cofitearia.milktea.services.SalesArchive;
+import com.cofitearia.milktea.services.SalesCube;
+import com.cofitearia.milktea.services.SalesHeatmap;
+import com.cofitearia.milktea.services.StockAlertService;
+import com.cofitearia.milktea.services.StockCompactionService;
 import com.cofitearia.milktea.utils.AccessibilityManager;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
@@ -9,6 +27,9 @@ import javafx.scene.image.Image;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Logger;
 
 /**
  * Main application class for Cofitearia Milktea Inventory and Sales Management System
@@ -21,19 +42,91 @@ import java.io.IOException;
  * - Automated reordering and alerts
  */
 public class Main extends Application {
+    private static final Logger logger = Logger.getLogger(Main.class.getName());
     
     private static Stage primaryStage;
     private static DatabaseManager databaseManager;
     private static AccessibilityManager accessibilityManager;
+    private static final StockAlertService stockAlertService = new StockAlertService();
+    private static final ExpiryScheduler expiryScheduler = new ExpiryScheduler();
+    private static final LotService lotService = new LotService();
+    private static final RecipeService recipeService = new RecipeService();
+    private static final ForecastService forecastService = new ForecastService();
+    private static final SalesCube salesCube = new SalesCube();
+    private static final BestsellerTracker bestsellerTracker = new BestsellerTracker();
+    private static final SalesHeatmap salesHeatmap = new SalesHeatmap();
+    private static final BackupService backupService = new BackupService();
+    private static final ReadReplica readReplica = new ReadReplica();
+    private static final SalesArchive salesArchive = new SalesArchive();
+    private static final StockCompactionService stockCompactionService = new StockCompactionService();
+    private static final ChangeFeed changeFeed = new ChangeFeed();
+    private static final SaleJournal saleJournal = new SaleJournal();
+    private static final RecentCheckouts recentCheckouts = new RecentCheckouts();
     
     @Override
     public void start(Stage stage) throws IOException {
         primaryStage = stage;
         
         // Initialize database
-        databaseManager = new DatabaseManager();
+        setDatabaseManager(new DatabaseManager());
         databaseManager.initializeDatabase();
         
+        // Databases from before the sales rollups get them built once from the raw sales
+        RollupService rollupService = new RollupService();
+        if (rollupService.needsRebuild()) {
+            rollupService.rebuild();
+        }
+        
+        // Configure the services from system settings
+        try {
+            applySettings(databaseManager.getConnection());
+        } catch (SQLException e) {
+            logger.severe("Error reading system settings; services keep their defaults: " + e.getMessage());
+        }
+        
+        // Seed stock alert levels so only new threshold crossings raise alerts
+        stockAlertService.prime(new InventoryService().getLowStockItems());
+        
+        // Plan expiry alerts for perishable stock
+        expiryScheduler.load(new InventoryService().getPerishableItems());
+        expiryScheduler.start();
+        
+        // Forecast demand for reorder suggestions; catches up in the background and rebuilds nightly
+        forecastService.start();
+        
+        // Load sale lines into the in-memory cube for ad-hoc pivots
+        salesCube.start();
+        
+        // Rank today's bestselling drinks from the sales already made
+        bestsellerTracker.loadToday();
+        
+        // Seed the dashboard heatmap with today's sales per quarter-hour
+        salesHeatmap.loadToday();
+        
+        // Confirm checkouts once they are on disk; sales left over from the last run are recorded first.
+        // Started once stock alerts are primed and the views above are seeded: replayed sales are
+        // published to them as they are recorded, and would otherwise be counted twice
+        if (Boolean.parseBoolean(databaseManager.getSystemSetting("sale_journal_enabled", "true"))) {
+            saleJournal.start();
+        }
+        
+        // Back up the database in the background while the shop keeps selling
+        backupService.start();
+        
+        // Serve reports from an in-memory copy so long queries stay off the live file
+        if (Boolean.parseBoolean(databaseManager.getSystemSetting("read_replica_enabled", "true"))) {
+            readReplica.start();
+        }
+        
+        // Move closed months of sales out of the main database into monthly archive files
+        salesArchive.start();
+        
+        // Fold old stock movements into daily totals and give the space back
+        stockCompactionService.start();
+        
+        // Pick up product, stock and settings changes made by other terminals sharing the database
+        changeFeed.start();
+        
         // Initialize accessibility manager
         accessibilityManager = new AccessibilityManager();
         accessibilityManager.initializeAccessibility();
@@ -66,6 +159,68 @@ public class Main extends Application {
         setupGlobalKeyboardShortcuts(scene);
     }
     
+    /**
+     * Pass the system settings to the services that use them; again whenever settings change
+     * Settings are read on the given connection, so the change feed can use its own. A value that is not
+     * a number, or that its service rejects, is logged and the service keeps the value it has.
+     */
+    public static void applySettings(Connection conn) throws SQLException {
+        Integer warningDays = intSetting(conn, "expiry_warning_days", InventoryItem.DEFAULT_EXPIRY_WARNING_DAYS);
+        // Changing the window re-plans every tracked item
+        if (warningDays != null && warningDays != expiryScheduler.getWarningDays()) {
+            applySetting("expiry_warning_days", () -> expiryScheduler.setWarningDays(warningDays));
+        }
+        Integer leadTimeDays = intSetting(conn, "reorder_lead_time_days", 3);
+        Integer reviewDays = intSetting(conn, "reorder_review_days", 7);
+        if (leadTimeDays != null && reviewDays != null) {
+            applySetting("reorder_lead_time_days and reorder_review_days",
+                    () -> forecastService.setPolicy(leadTimeDays, reviewDays));
+        }
+        Integer backupHours = intSetting(conn, "backup_interval_hours", 24);
+        Integer backupsKept = intSetting(conn, "backup_keep_count", 7);
+        if (backupHours != null && backupsKept != null) {
+            applySetting("backup_interval_hours and backup_keep_count",
+                    () -> backupService.setPolicy(backupHours, backupsKept));
+        }
+        Integer refreshSeconds = intSetting(conn, "read_replica_refresh_seconds", 60);
+        if (refreshSeconds != null) {
+            applySetting("read_replica_refresh_seconds", () -> readReplica.setRefreshSeconds(refreshSeconds));
+        }
+        Integer hotMonths = intSetting(conn, "sales_hot_months", 2);
+        if (hotMonths != null) {
+            applySetting("sales_hot_months", () -> salesArchive.setHotMonths(hotMonths));
+        }
+        Integer retentionDays = intSetting(conn, "stock_movement_retention_days", 90);
+        if (retentionDays != null) {
+            applySetting("stock_movement_retention_days", () -> stockCompactionService.setRetentionDays(retentionDays));
+        }
+        Integer pollMillis = intSetting(conn, "change_feed_poll_millis", 1000);
+        if (pollMillis != null) {
+            applySetting("change_feed_poll_millis", () -> changeFeed.setPollMillis(pollMillis));
+        }
+    }
+    
+    /**
+     * A whole-number setting, or null if its value is not one
+     */
+    private static Integer intSetting(Connection conn, String key, int defaultValue) throws SQLException {
+        String value = DatabaseManager.getSystemSetting(conn, key, String.valueOf(defaultValue));
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Ignoring system setting " + key + ": " + value + " is not a whole number");
+            return null;
+        }
+    }
+    
+    private static void applySetting(String keys, Runnable apply) {
+        try {
+            apply.run();
+        } catch (IllegalArgumentException e) {
+            logger.warning("Ignoring system setting " + keys + ": " + e.getMessage());
+        }
+    }
+    
     private void setupGlobalKeyboardShortcuts(Scene scene) {
         scene.setOnKeyPressed(event -> {
             // F1 - Help
@@ -114,12 +269,89 @@ public class Main extends Application {
         return databaseManager;
     }
     
+    /**
+     * Use a database without starting the JavaFX application, e.g. from command-line tools
+     */
+    public static void setDatabaseManager(DatabaseManager manager) {
+        databaseManager = manager;
+        // Drop compiled recipes on every committed write in this process, whichever screen or tool made it
+        recipeService.subscribe(manager.getRowChangeBus());
+    }
+    
     public static AccessibilityManager getAccessibilityManager() {
         return accessibilityManager;
     }
     
+    public static StockAlertService getStockAlertService() {
+        return stockAlertService;
+    }
+    
+    public static ExpiryScheduler getExpiryScheduler() {
+        return expiryScheduler;
+    }
+    
+    public static LotService getLotService() {
+        return lotService;
+    }
+    
+    public static RecipeService getRecipeService() {
+        return recipeService;
+    }
+    
+    public static ForecastService getForecastService() {
+        return forecastService;
+    }
+    
+    public static SalesCube getSalesCube() {
+        return salesCube;
+    }
+    
+    public static BestsellerTracker getBestsellerTracker() {
+        return bestsellerTracker;
+    }
+    
+    public static SalesHeatmap getSalesHeatmap() {
+        return salesHeatmap;
+    }
+    
+    public static BackupService getBackupService() {
+        return backupService;
+    }
+    
+    public static ReadReplica getReadReplica() {
+        return readReplica;
+    }
+    
+    public static SalesArchive getSalesArchive() {
+        return salesArchive;
+    }
+    
+    public static StockCompactionService getStockCompactionService() {
+        return stockCompactionService;
+    }
+    
+    public static ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+    
+    public static SaleJournal getSaleJournal() {
+        return saleJournal;
+    }
+    
+    public static RecentCheckouts getRecentCheckouts() {
+        return recentCheckouts;
+    }
+    
     @Override
     public void stop() {
+        saleJournal.shutdown();
+        expiryScheduler.shutdown();
+        forecastService.shutdown();
+        backupService.shutdown();
+        readReplica.shutdown();
+        salesArchive.shutdown();
+        stockCompactionService.shutdown();
+        changeFeed.shutdown();
         if (databaseManager != null) {
             databaseManager.closeConnection();
         }
@@ -1,20 +1,32 @@
 package com.cofitearia.milktea.controllers;
 
 import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.Bestseller;
+import com.cofitearia.milktea.models.ExpiryAlert;
+import com.cofitearia.milktea.models.SalesHeatmapBucket;
+import com.cofitearia.milktea.models.StockAlert;
 import com.cofitearia.milktea.models.User;
+import com.cofitearia.milktea.services.BestsellerTracker;
+import com.cofitearia.milktea.services.ExpiryScheduler;
+import com.cofitearia.milktea.services.SalesHeatmap;
+import com.cofitearia.milktea.services.StockAlertService;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.net.URL;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.ResourceBundle;
 import java.util.logging.Logger;
 import java.util.Timer;
@@ -26,6 +38,11 @@ import java.util.Timer;
 public class MainDashboardController implements Initializable {
     private static final Logger logger = Logger.getLogger(MainDashboardController.class.getName());
     
+    private static final int TOP_SELLERS = 5;
+    private static final int BESTSELLER_REFRESH_SECONDS = 15;
+    private static final int HEATMAP_ROWS = 60 / SalesHeatmap.BUCKET_MINUTES;
+    private static final double HEATMAP_CELL_SIZE = 16.0;
+    
     @FXML
     private BorderPane mainBorderPane;
     
@@ -47,6 +64,9 @@ public class MainDashboardController implements Initializable {
     @FXML
     private Label timeLabel;
     
+    @FXML
+    private Label statusLabel;
+    
     @FXML
     private Button inventoryButton;
     
@@ -65,8 +85,21 @@ public class MainDashboardController implements Initializable {
     @FXML
     private Button logoutButton;
     
+    @FXML
+    private ListView<Bestseller> lastHourBestsellersList;
+    
+    @FXML
+    private ListView<Bestseller> todayBestsellersList;
+    
+    @FXML
+    private GridPane salesHeatmapGrid;
+    
+    private final Region[] heatmapCells = new Region[SalesHeatmap.BUCKETS_PER_DAY];
+    private final Tooltip[] heatmapTooltips = new Tooltip[SalesHeatmap.BUCKETS_PER_DAY];
     private User currentUser;
     private Timer clockTimer;
+    private StockAlertService.StockAlertListener stockAlertListener;
+    private ExpiryScheduler.ExpiryListener expiryListener;
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
@@ -75,6 +108,11 @@ public class MainDashboardController implements Initializable {
         setupMenuBar();
         setupToolBar();
         startClock();
+        subscribeToStockAlerts();
+        subscribeToExpiryAlerts();
+        setupSalesHeatmap();
+        refreshBestsellers();
+        refreshSalesHeatmap();
         
         logger.info("Main dashboard controller initialized");
     }
@@ -103,6 +141,9 @@ public class MainDashboardController implements Initializable {
         usersButton.setAccessibleText("User Management - Click to manage system users and permissions");
         settingsButton.setAccessibleText("System Settings - Click to configure system preferences");
         logoutButton.setAccessibleText("Logout - Click to sign out of the system");
+        lastHourBestsellersList.setAccessibleText("Top selling drinks in the last hour");
+        todayBestsellersList.setAccessibleText("Top selling drinks today");
+        salesHeatmapGrid.setAccessibleText("Sales per 15 minutes today");
         
         // Set tooltips for additional help
         inventoryButton.setTooltip(new Tooltip("Manage inventory and stock levels"));
@@ -174,12 +215,14 @@ public class MainDashboardController implements Initializable {
         // View Menu
         Menu viewMenu = new Menu("_View");
         MenuItem refreshItem = new MenuItem("Refresh");
+        MenuItem expiringItem = new MenuItem("Expiring Items");
         MenuItem accessibilityItem = new MenuItem("Accessibility Settings");
         
         refreshItem.setOnAction(e -> refreshDashboard());
+        expiringItem.setOnAction(e -> showExpiringItems());
         accessibilityItem.setOnAction(e -> showAccessibilitySettings());
         
-        viewMenu.getItems().addAll(refreshItem, new SeparatorMenuItem(), accessibilityItem);
+        viewMenu.getItems().addAll(refreshItem, expiringItem, new SeparatorMenuItem(), accessibilityItem);
         
         // Help Menu
         Menu helpMenu = new Menu("_Help");
@@ -274,11 +317,142 @@ public class MainDashboardController implements Initializable {
                     LocalDateTime now = LocalDateTime.now();
                     String timeString = now.format(DateTimeFormatter.ofPattern("EEEE, MMMM dd, yyyy - HH:mm:ss"));
                     timeLabel.setText(timeString);
+                    if (now.getSecond() % BESTSELLER_REFRESH_SECONDS == 0) {
+                        refreshBestsellers();
+                        refreshSalesHeatmap();
+                    }
                 });
             }
         }, 0, 1000);
     }
     
+    /**
+     * Show the current top drinks from the live bestseller tracker
+     */
+    private void refreshBestsellers() {
+        BestsellerTracker tracker = Main.getBestsellerTracker();
+        lastHourBestsellersList.getItems().setAll(tracker.getTopSellers(BestsellerTracker.Window.LAST_HOUR, TOP_SELLERS));
+        todayBestsellersList.getItems().setAll(tracker.getTopSellers(BestsellerTracker.Window.TODAY, TOP_SELLERS));
+    }
+    
+    /**
+     * Lay out the heatmap: one column per hour, one row per quarter of the hour
+     */
+    private void setupSalesHeatmap() {
+        for (int hour = 0; hour < 24; hour++) {
+            Label hourLabel = new Label(String.valueOf(hour));
+            hourLabel.setStyle("-fx-font-size: 9px; -fx-text-fill: #666666;");
+            salesHeatmapGrid.add(hourLabel, hour + 1, 0);
+        }
+        for (int row = 0; row < HEATMAP_ROWS; row++) {
+            Label minuteLabel = new Label(String.format(":%02d", row * SalesHeatmap.BUCKET_MINUTES));
+            minuteLabel.setStyle("-fx-font-size: 9px; -fx-text-fill: #666666;");
+            salesHeatmapGrid.add(minuteLabel, 0, row + 1);
+        }
+        
+        for (int i = 0; i < heatmapCells.length; i++) {
+            Region cell = new Region();
+            cell.setPrefSize(HEATMAP_CELL_SIZE, HEATMAP_CELL_SIZE);
+            Tooltip tooltip = new Tooltip();
+            Tooltip.install(cell, tooltip);
+            heatmapCells[i] = cell;
+            heatmapTooltips[i] = tooltip;
+            salesHeatmapGrid.add(cell, i / HEATMAP_ROWS + 1, i % HEATMAP_ROWS + 1);
+        }
+    }
+    
+    /**
+     * Shade each quarter-hour of today by its revenue against the busiest one so far
+     */
+    private void refreshSalesHeatmap() {
+        List<SalesHeatmapBucket> buckets = Main.getSalesHeatmap().getToday();
+        
+        BigDecimal busiest = BigDecimal.ZERO;
+        SalesHeatmapBucket busiestBucket = null;
+        for (SalesHeatmapBucket bucket : buckets) {
+            if (bucket.getRevenue().compareTo(busiest) > 0) {
+                busiest = bucket.getRevenue();
+                busiestBucket = bucket;
+            }
+        }
+        
+        for (int i = 0; i < heatmapCells.length; i++) {
+            SalesHeatmapBucket bucket = buckets.get(i);
+            double intensity = busiest.signum() == 0 ? 0
+                    : bucket.getRevenue().doubleValue() / busiest.doubleValue();
+            String color = bucket.getTransactions() == 0 ? "#f0f0f0"
+                    : String.format("rgba(76, 175, 80, %.2f)", 0.15 + 0.85 * intensity);
+            heatmapCells[i].setStyle("-fx-background-color: " + color + "; -fx-background-radius: 2;");
+            heatmapTooltips[i].setText(bucket.toString());
+        }
+        
+        salesHeatmapGrid.setAccessibleText(busiestBucket == null
+                ? "Sales per 15 minutes today: no sales yet"
+                : "Sales per 15 minutes today, busiest " + busiestBucket);
+    }
+    
+    /**
+     * Show stock alerts in the status bar as soon as they are published
+     */
+    private void subscribeToStockAlerts() {
+        stockAlertListener = alert -> javafx.application.Platform.runLater(() -> showStockAlert(alert));
+        Main.getStockAlertService().addListener(stockAlertListener);
+    }
+    
+    private void showStockAlert(StockAlert alert) {
+        // Stop listening once this dashboard is no longer on screen
+        if (statusLabel.getScene() == null || statusLabel.getScene().getWindow() == null) {
+            Main.getStockAlertService().removeListener(stockAlertListener);
+            return;
+        }
+        
+        statusLabel.setText(alert.getAnnouncementText());
+        statusLabel.setTextFill(javafx.scene.paint.Paint.valueOf(switch (alert.getLevel()) {
+            case CRITICAL -> "#F44336";
+            case LOW -> "#FF9800";
+            case NORMAL -> "#666666";
+        }));
+        
+        if (alert.isEscalation()) {
+            Main.getAccessibilityManager().announceText(alert.getAnnouncementText());
+        }
+    }
+    
+    /**
+     * Show expiry alerts in the status bar when items start expiring or expire
+     */
+    private void subscribeToExpiryAlerts() {
+        expiryListener = alert -> javafx.application.Platform.runLater(() -> showExpiryAlert(alert));
+        Main.getExpiryScheduler().addListener(expiryListener);
+    }
+    
+    private void showExpiryAlert(ExpiryAlert alert) {
+        if (statusLabel.getScene() == null || statusLabel.getScene().getWindow() == null) {
+            Main.getExpiryScheduler().removeListener(expiryListener);
+            return;
+        }
+        
+        statusLabel.setText(alert.getAnnouncementText());
+        statusLabel.setTextFill(javafx.scene.paint.Paint.valueOf(
+                alert.getStage() == ExpiryAlert.Stage.EXPIRED ? "#F44336" : "#FF9800"));
+        Main.getAccessibilityManager().announceText(alert.getAnnouncementText());
+    }
+    
+    @FXML
+    private void showExpiringItems() {
+        StringBuilder content = new StringBuilder();
+        for (ExpiryAlert item : Main.getExpiryScheduler().getExpiringItems()) {
+            content.append(item.getStage().getDisplayName()).append(": ")
+                   .append(item.getAnnouncementText()).append("\n");
+        }
+        
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Expiring Items");
+        alert.setHeaderText("Items expiring within " + Main.getExpiryScheduler().getWarningDays() + " days");
+        alert.setContentText(content.length() > 0 ? content.toString() : "No items are expiring soon.");
+        alert.showAndWait();
+    }
+    
     // Navigation Methods
     
     @FXML
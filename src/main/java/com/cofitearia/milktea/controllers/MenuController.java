@@ -1,7 +1,10 @@
 package com.cofitearia.milktea.controllers;
 
 import com.cofitearia.milktea.models.Product;
+import com.cofitearia.milktea.models.Sale;
+import com.cofitearia.milktea.models.SaleItem;
 import com.cofitearia.milktea.services.ProductService;
+import com.cofitearia.milktea.services.SalesService;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.geometry.Pos;
@@ -23,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.UUID;
 import java.util.logging.Logger;
 
 public class MenuController implements Initializable {
@@ -77,12 +81,16 @@ public class MenuController implements Initializable {
     private VBox cartPanel;
     
     private ProductService productService;
+    private SalesService salesService;
     private Button currentSelectedCategory;
     private Map<Product, Integer> cart = new HashMap<>();
+    // Identifies the checkout of the current cart, so pressing Checkout again records it only once
+    private String checkoutKey;
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         productService = new ProductService();
+        salesService = new SalesService();
         currentSelectedCategory = bestSellerBtn;
         loadProducts("Best Seller");
         updateCartSummary();
@@ -278,6 +286,9 @@ public class MenuController implements Initializable {
     }
     
     private void updateCartSummary() {
+        // A changed cart is a new checkout
+        checkoutKey = null;
+        
         BigDecimal subtotal = BigDecimal.ZERO;
         
         for (Map.Entry<Product, Integer> entry : cart.entrySet()) {
@@ -304,6 +315,25 @@ public class MenuController implements Initializable {
             return;
         }
         
+        Sale sale = new Sale(null);
+        for (Map.Entry<Product, Integer> entry : cart.entrySet()) {
+            sale.addItem(new SaleItem(entry.getKey(), entry.getValue(), entry.getKey().getPrice()));
+        }
+        sale.setTax(sale.getSubtotal().multiply(new BigDecimal("0.12")));
+        if (checkoutKey == null) {
+            checkoutKey = UUID.randomUUID().toString();
+        }
+        sale.setIdempotencyKey(checkoutKey);
+        
+        if (!salesService.submitSale(sale)) {
+            Alert error = new Alert(Alert.AlertType.ERROR);
+            error.setTitle("Checkout");
+            error.setHeaderText("Order Not Placed");
+            error.setContentText("The order could not be completed. Some items may be out of stock.");
+            error.showAndWait();
+            return;
+        }
+        
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle("Checkout");
         alert.setHeaderText("Order Placed");
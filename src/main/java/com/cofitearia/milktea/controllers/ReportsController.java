@@ -1,24 +1,407 @@
 package com.cofitearia.milktea.controllers;
 
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.Bestseller;
+import com.cofitearia.milktea.models.SalesReportRow;
 import com.cofitearia.milktea.models.User;
+import com.cofitearia.milktea.services.BestsellerTracker;
+import com.cofitearia.milktea.services.ExportService;
+import com.cofitearia.milktea.services.ReportService;
+import com.cofitearia.milktea.services.ReportService.ReportType;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
 
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.net.URL;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
 
 /**
- * Reports controller - placeholder for future implementation
+ * Reports controller
+ * Runs sales reports on a background thread and streams their rows into the table as they arrive
  */
 public class ReportsController implements Initializable {
+    private static final Logger logger = Logger.getLogger(ReportsController.class.getName());
     
+    // Rows handed to the FX thread per update, so long reports do not flood it with tiny updates
+    private static final int ROWS_PER_UPDATE = 50;
+    private static final int TOP_SELLERS = 5;
+    private static final DateTimeFormatter AS_OF_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    
+    private static final ExecutorService reportExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "report-runner");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Exports get their own thread so a long export never holds up the reports
+    private static final ExecutorService exportExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "report-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    @FXML
+    private ComboBox<ReportType> reportTypeComboBox;
+    
+    @FXML
+    private DatePicker fromDatePicker;
+    
+    @FXML
+    private DatePicker toDatePicker;
+    
+    @FXML
+    private Button runButton;
+    
+    @FXML
+    private Button cancelButton;
+    
+    @FXML
+    private ComboBox<ExportService.Dataset> exportDatasetComboBox;
+    
+    @FXML
+    private ComboBox<ExportService.Format> exportFormatComboBox;
+    
+    @FXML
+    private Button exportButton;
+    
+    @FXML
+    private Button cancelExportButton;
+    
+    @FXML
+    private ProgressBar exportProgressBar;
+    
+    @FXML
+    private TableView<SalesReportRow> reportTable;
+    
+    @FXML
+    private TableColumn<SalesReportRow, String> labelColumn;
+    
+    @FXML
+    private TableColumn<SalesReportRow, Integer> transactionsColumn;
+    
+    @FXML
+    private TableColumn<SalesReportRow, Integer> quantityColumn;
+    
+    @FXML
+    private TableColumn<SalesReportRow, BigDecimal> revenueColumn;
+    
+    @FXML
+    private TableColumn<SalesReportRow, BigDecimal> averageColumn;
+    
+    @FXML
+    private TableColumn<SalesReportRow, Integer> voidedColumn;
+    
+    @FXML
+    private TableColumn<SalesReportRow, String> voidRateColumn;
+    
+    @FXML
+    private ProgressIndicator progressIndicator;
+    
+    @FXML
+    private Label statusLabel;
+    
+    @FXML
+    private Label summaryLabel;
+    
+    @FXML
+    private ListView<Bestseller> lastHourBestsellersList;
+    
+    @FXML
+    private ListView<Bestseller> todayBestsellersList;
+    
+    private final ReportService reportService = new ReportService();
+    private final ExportService exportService = new ExportService();
+    private Task<SalesReportRow> currentTask;
+    private Task<Boolean> exportTask;
     private User currentUser;
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
-        // Placeholder implementation
+        reportTypeComboBox.getItems().setAll(ReportType.values());
+        reportTypeComboBox.getSelectionModel().select(ReportType.DAILY_REVENUE);
+        toDatePicker.setValue(LocalDate.now());
+        fromDatePicker.setValue(LocalDate.now().minusDays(29));
+        exportDatasetComboBox.getItems().setAll(ExportService.Dataset.values());
+        exportDatasetComboBox.getSelectionModel().select(ExportService.Dataset.SALES);
+        exportFormatComboBox.getItems().setAll(ExportService.Format.values());
+        exportFormatComboBox.getSelectionModel().select(ExportService.Format.CSV);
+        
+        setupColumns();
+        setupAccessibility();
+        refreshBestsellers();
+        
+        logger.info("Reports controller initialized");
     }
     
     public void setCurrentUser(User user) {
         this.currentUser = user;
+        runReport();
+    }
+    
+    private void setupColumns() {
+        labelColumn.setCellValueFactory(data -> new ReadOnlyStringWrapper(data.getValue().getLabel()));
+        transactionsColumn.setCellValueFactory(data -> new ReadOnlyObjectWrapper<>(data.getValue().getTransactionCount()));
+        quantityColumn.setCellValueFactory(data -> new ReadOnlyObjectWrapper<>(data.getValue().getItemQuantity()));
+        revenueColumn.setCellValueFactory(data -> new ReadOnlyObjectWrapper<>(data.getValue().getRevenue()));
+        averageColumn.setCellValueFactory(data -> new ReadOnlyObjectWrapper<>(data.getValue().getAverageTicket()));
+        voidedColumn.setCellValueFactory(data -> new ReadOnlyObjectWrapper<>(data.getValue().getVoidedCount()));
+        voidRateColumn.setCellValueFactory(data -> new ReadOnlyStringWrapper(
+                String.format("%.1f%%", data.getValue().getVoidRate() * 100)));
+    }
+    
+    private void setupAccessibility() {
+        reportTypeComboBox.setAccessibleText("Report type");
+        fromDatePicker.setAccessibleText("Report start date");
+        toDatePicker.setAccessibleText("Report end date");
+        runButton.setAccessibleText("Run the selected report");
+        cancelButton.setAccessibleText("Cancel the running report");
+        exportDatasetComboBox.setAccessibleText("Data to export");
+        exportFormatComboBox.setAccessibleText("Export file format");
+        exportButton.setAccessibleText("Export the selected data for the chosen dates to a file");
+        cancelExportButton.setAccessibleText("Cancel the running export");
+        exportProgressBar.setAccessibleText("Export progress");
+        reportTable.setAccessibleText("Report results");
+        lastHourBestsellersList.setAccessibleText("Top selling drinks in the last hour");
+        todayBestsellersList.setAccessibleText("Top selling drinks today");
+        
+        runButton.setTooltip(new Tooltip("Run the selected report (Enter)"));
+    }
+    
+    /**
+     * Run the selected report in the background, replacing any report still running
+     */
+    @FXML
+    private void runReport() {
+        ReportType type = reportTypeComboBox.getValue();
+        LocalDate from = fromDatePicker.getValue();
+        LocalDate to = toDatePicker.getValue();
+        
+        if (type == null || from == null || to == null || from.isAfter(to)) {
+            statusLabel.setText("Choose a report and a start date on or before the end date");
+            return;
+        }
+        
+        cancelReport();
+        reportTable.getItems().clear();
+        summaryLabel.setText("");
+        
+        Task<SalesReportRow> task = new Task<>() {
+            @Override
+            protected SalesReportRow call() {
+                List<SalesReportRow> buffer = new ArrayList<>();
+                boolean completed = reportService.streamReport(type, from, to, row -> {
+                    buffer.add(row);
+                    if (buffer.size() >= ROWS_PER_UPDATE) {
+                        publish(buffer);
+                    }
+                });
+                publish(buffer);
+                
+                if (!completed) {
+                    if (!isCancelled()) {
+                        throw new IllegalStateException("Report could not be generated");
+                    }
+                    return null;
+                }
+                return reportService.getSummary(from, to);
+            }
+            
+            private void publish(List<SalesReportRow> buffer) {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                List<SalesReportRow> chunk = List.copyOf(buffer);
+                buffer.clear();
+                Platform.runLater(() -> {
+                    if (!isCancelled()) {
+                        reportTable.getItems().addAll(chunk);
+                    }
+                });
+            }
+        };
+        
+        long start = System.nanoTime();
+        task.setOnSucceeded(e -> {
+            SalesReportRow summary = task.getValue();
+            if (task != currentTask || summary == null) {
+                finishReport(task, "Report cancelled");
+                return;
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            finishReport(task, type.getDisplayName() + ": " + reportTable.getItems().size() + " rows in " + elapsed + " ms"
+                    + dataAsOf());
+            summaryLabel.setText(String.format("Revenue ₱%s  |  %d transactions  |  %.1f%% voided",
+                    summary.getRevenue(), summary.getTransactionCount(), summary.getVoidRate() * 100));
+            Main.getAccessibilityManager().announceText(type.getDisplayName() + " ready. " + summaryLabel.getText());
+        });
+        task.setOnFailed(e -> {
+            logger.severe("Report failed: " + task.getException().getMessage());
+            finishReport(task, "Report failed. Please try again.");
+        });
+        task.setOnCancelled(e -> finishReport(task, "Report cancelled"));
+        
+        currentTask = task;
+        runButton.setDisable(true);
+        cancelButton.setDisable(false);
+        progressIndicator.setVisible(true);
+        statusLabel.setText("Running " + type.getDisplayName() + "...");
+        reportExecutor.execute(task);
+    }
+    
+    @FXML
+    private void cancelReport() {
+        if (currentTask != null && currentTask.isRunning()) {
+            currentTask.cancel(true);
+        }
+    }
+    
+    private void finishReport(Task<SalesReportRow> task, String status) {
+        if (task != currentTask) {
+            return; // A newer report has already taken over the controls
+        }
+        currentTask = null;
+        runButton.setDisable(false);
+        cancelButton.setDisable(true);
+        progressIndicator.setVisible(false);
+        statusLabel.setText(status);
+        refreshBestsellers();
+    }
+    
+    /**
+     * Export the selected data for the chosen dates to a file, in the background
+     */
+    @FXML
+    private void exportData() {
+        ExportService.Dataset dataset = exportDatasetComboBox.getValue();
+        ExportService.Format format = exportFormatComboBox.getValue();
+        LocalDate from = fromDatePicker.getValue();
+        LocalDate to = toDatePicker.getValue();
+        
+        if (dataset == null || format == null || (dataset.isDated() && (from == null || to == null || from.isAfter(to)))) {
+            statusLabel.setText("Choose what to export and a start date on or before the end date");
+            return;
+        }
+        
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export " + dataset.getDisplayName());
+        chooser.setInitialFileName(ExportService.defaultFileName(dataset, format, from, to));
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                format.getDisplayName() + " files", "*." + format.getExtension()));
+        File file = chooser.showSaveDialog(Main.getPrimaryStage());
+        if (file == null) {
+            return;
+        }
+        
+        Task<Boolean> task = new Task<>() {
+            @Override
+            protected Boolean call() {
+                boolean completed = exportService.export(dataset, format, from, to, file.toPath(), (written, total) -> {
+                    updateProgress(written, Math.max(total, 1));
+                    updateMessage("Exporting " + dataset.getDisplayName() + ": " + written + " of " + total + " rows...");
+                });
+                if (!completed && !isCancelled()) {
+                    throw new IllegalStateException("Export could not be written");
+                }
+                return completed;
+            }
+        };
+        
+        task.setOnSucceeded(e -> finishExport(task, Boolean.TRUE.equals(task.getValue())
+                ? dataset.getDisplayName() + " exported to " + file.getName() + dataAsOf()
+                : "Export cancelled"));
+        task.setOnFailed(e -> {
+            logger.severe("Export failed: " + task.getException().getMessage());
+            finishExport(task, "Export failed. Please try again.");
+        });
+        task.setOnCancelled(e -> finishExport(task, "Export cancelled"));
+        
+        exportTask = task;
+        exportButton.setDisable(true);
+        cancelExportButton.setDisable(false);
+        exportProgressBar.progressProperty().bind(task.progressProperty());
+        exportProgressBar.setVisible(true);
+        statusLabel.textProperty().bind(task.messageProperty());
+        exportExecutor.execute(task);
+    }
+    
+    @FXML
+    private void cancelExport() {
+        if (exportTask != null && exportTask.isRunning()) {
+            exportTask.cancel(true);
+        }
+    }
+    
+    private void finishExport(Task<Boolean> task, String status) {
+        if (task != exportTask) {
+            return;
+        }
+        exportTask = null;
+        exportButton.setDisable(false);
+        cancelExportButton.setDisable(true);
+        exportProgressBar.progressProperty().unbind();
+        exportProgressBar.setVisible(false);
+        statusLabel.textProperty().unbind();
+        statusLabel.setText(status);
+        Main.getAccessibilityManager().announceText(status);
+    }
+    
+    /**
+     * How current the data is while reports are served from the read replica
+     */
+    private String dataAsOf() {
+        LocalDateTime asOf = Main.getReadReplica().getDataAsOf();
+        return asOf == null ? "" : " (data as of " + asOf.format(AS_OF_FORMAT) + ")";
+    }
+    
+    /**
+     * Show the current top drinks from the live bestseller tracker
+     */
+    private void refreshBestsellers() {
+        BestsellerTracker tracker = Main.getBestsellerTracker();
+        lastHourBestsellersList.getItems().setAll(tracker.getTopSellers(BestsellerTracker.Window.LAST_HOUR, TOP_SELLERS));
+        todayBestsellersList.getItems().setAll(tracker.getTopSellers(BestsellerTracker.Window.TODAY, TOP_SELLERS));
+    }
+    
+    @FXML
+    private void goBack() {
+        cancelReport();
+        cancelExport();
+        
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/main_dashboard.fxml"));
+            Scene scene = new Scene(loader.load(), 1200, 800);
+            
+            Main.getAccessibilityManager().applyAccessibilitySettings(scene);
+            MainDashboardController controller = loader.getController();
+            controller.setCurrentUser(currentUser);
+            
+            Stage stage = Main.getPrimaryStage();
+            stage.setScene(scene);
+            stage.setTitle("Cofitearia Milktea - Main Dashboard");
+            
+            Main.getAccessibilityManager().announceText("Returned to the main dashboard");
+            
+        } catch (IOException e) {
+            logger.severe("Failed to return to dashboard: " + e.getMessage());
+        }
     }
 }
@@ -1,6 +1,9 @@
 package com.cofitearia.milktea.database;
 
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -10,9 +13,19 @@ import java.util.logging.Logger;
 public class DatabaseManager {
     private static final Logger logger = Logger.getLogger(DatabaseManager.class.getName());
     private static final String DB_URL = "jdbc:sqlite:milktea_inventory.db";
+    private final String dbUrl;
+    private final RowChangeBus rowChangeBus = new RowChangeBus();
     private Connection connection;
     
     public DatabaseManager() {
+        this(DB_URL);
+    }
+    
+    /**
+     * Create a manager for another database file, e.g. for benchmarks and command-line tools
+     */
+    public DatabaseManager(String dbUrl) {
+        this.dbUrl = dbUrl;
         try {
             Class.forName("org.sqlite.JDBC");
         } catch (ClassNotFoundException e) {
@@ -26,7 +39,7 @@ public class DatabaseManager {
      */
     public void initializeDatabase() {
         try {
-            connection = DriverManager.getConnection(DB_URL);
+            connection = connect();
             createTables();
             insertDefaultData();
             logger.info("Database initialized successfully");
@@ -77,7 +90,8 @@ public class DatabaseManager {
                 date_modified DATETIME DEFAULT CURRENT_TIMESTAMP,
                 is_active BOOLEAN DEFAULT 1,
                 alt_text TEXT,
-                large_text_description TEXT
+                large_text_description TEXT,
+                row_version INTEGER NOT NULL DEFAULT 0
             )
             """,
             
@@ -99,6 +113,8 @@ public class DatabaseManager {
                 is_active BOOLEAN DEFAULT 1,
                 low_stock_threshold INTEGER DEFAULT 10,
                 critical_stock_threshold INTEGER DEFAULT 5,
+                stock_status TEXT NOT NULL DEFAULT 'NORMAL' CHECK(stock_status IN ('NORMAL', 'LOW', 'CRITICAL')),
+                row_version INTEGER NOT NULL DEFAULT 0,
                 FOREIGN KEY (product_id) REFERENCES products (id)
             )
             """,
@@ -122,6 +138,7 @@ public class DatabaseManager {
                 is_voided BOOLEAN DEFAULT 0,
                 accessibility_assistance_used BOOLEAN DEFAULT 0,
                 accessibility_notes TEXT,
+                idempotency_key TEXT,
                 FOREIGN KEY (cashier_id) REFERENCES users (id)
             )
             """,
@@ -151,8 +168,157 @@ public class DatabaseManager {
                 reason TEXT,
                 user_id INTEGER,
                 date_created DATETIME DEFAULT CURRENT_TIMESTAMP,
+                lot_id INTEGER,
                 FOREIGN KEY (inventory_item_id) REFERENCES inventory_items (id),
-                FOREIGN KEY (user_id) REFERENCES users (id)
+                FOREIGN KEY (user_id) REFERENCES users (id),
+                FOREIGN KEY (lot_id) REFERENCES inventory_lots (id)
+            )
+            """,
+            
+            // Inventory lots table: one row per delivery, consumed first-expired-first-out
+            """
+            CREATE TABLE IF NOT EXISTS inventory_lots (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                inventory_item_id INTEGER NOT NULL,
+                lot_number TEXT,
+                quantity_received INTEGER NOT NULL,
+                quantity_remaining INTEGER NOT NULL CHECK(quantity_remaining >= 0),
+                expiration_date DATE,
+                cost_price DECIMAL(10,2),
+                received_date DATETIME DEFAULT CURRENT_TIMESTAMP,
+                FOREIGN KEY (inventory_item_id) REFERENCES inventory_items (id)
+            )
+            """,
+            
+            // Recipe components table: the ingredients and add-ons (themselves products) that make up a product
+            """
+            CREATE TABLE IF NOT EXISTS recipe_components (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                product_id INTEGER NOT NULL,
+                component_product_id INTEGER NOT NULL,
+                quantity INTEGER NOT NULL CHECK(quantity > 0),
+                FOREIGN KEY (product_id) REFERENCES products (id),
+                FOREIGN KEY (component_product_id) REFERENCES products (id),
+                UNIQUE (product_id, component_product_id)
+            )
+            """,
+            
+            // Demand forecasts table: smoothed daily demand and weekday factors per inventory item
+            """
+            CREATE TABLE IF NOT EXISTS demand_forecasts (
+                inventory_item_id INTEGER PRIMARY KEY,
+                level REAL NOT NULL,
+                seasonal_factors TEXT NOT NULL,
+                mean_absolute_error REAL NOT NULL DEFAULT 0,
+                last_observed_date DATE NOT NULL,
+                observations INTEGER NOT NULL DEFAULT 0,
+                date_modified DATETIME DEFAULT CURRENT_TIMESTAMP,
+                FOREIGN KEY (inventory_item_id) REFERENCES inventory_items (id)
+            )
+            """,
+            
+            // Sales rollups: running totals kept by checkout so reports never rescan past days
+            """
+            CREATE TABLE IF NOT EXISTS sales_daily_product (
+                day TEXT NOT NULL,
+                product_id INTEGER NOT NULL,
+                transactions INTEGER NOT NULL DEFAULT 0,
+                quantity INTEGER NOT NULL DEFAULT 0,
+                revenue REAL NOT NULL DEFAULT 0,
+                PRIMARY KEY (day, product_id)
+            ) WITHOUT ROWID
+            """,
+            
+            // Voided sales count towards transactions but not revenue; cashier 0 means no cashier
+            """
+            CREATE TABLE IF NOT EXISTS sales_daily_cashier (
+                day TEXT NOT NULL,
+                cashier_id INTEGER NOT NULL,
+                transactions INTEGER NOT NULL DEFAULT 0,
+                voided INTEGER NOT NULL DEFAULT 0,
+                revenue REAL NOT NULL DEFAULT 0,
+                PRIMARY KEY (day, cashier_id)
+            ) WITHOUT ROWID
+            """,
+            
+            """
+            CREATE TABLE IF NOT EXISTS sales_hourly (
+                hour TEXT PRIMARY KEY,
+                transactions INTEGER NOT NULL DEFAULT 0,
+                voided INTEGER NOT NULL DEFAULT 0,
+                quantity INTEGER NOT NULL DEFAULT 0,
+                revenue REAL NOT NULL DEFAULT 0
+            ) WITHOUT ROWID
+            """,
+            
+            // Chunks of historic sales files already imported, so an interrupted import resumes where it stopped
+            """
+            CREATE TABLE IF NOT EXISTS sales_import_chunks (
+                import_key TEXT NOT NULL,
+                chunk INTEGER NOT NULL,
+                start_offset INTEGER NOT NULL,
+                end_offset INTEGER NOT NULL,
+                sales INTEGER NOT NULL,
+                lines INTEGER NOT NULL,
+                date_imported DATETIME DEFAULT CURRENT_TIMESTAMP,
+                PRIMARY KEY (import_key, chunk)
+            ) WITHOUT ROWID
+            """,
+            
+            // Closed months of sales moved to their own database files; the counts identify each file's contents
+            """
+            CREATE TABLE IF NOT EXISTS sales_partitions (
+                month TEXT PRIMARY KEY,
+                file_name TEXT NOT NULL,
+                sales INTEGER NOT NULL,
+                voided INTEGER NOT NULL,
+                max_sale_id INTEGER NOT NULL,
+                sale_items INTEGER NOT NULL,
+                stock_movements INTEGER NOT NULL,
+                date_archived DATETIME DEFAULT CURRENT_TIMESTAMP
+            ) WITHOUT ROWID
+            """,
+            
+            // Stock level of each item at a point in time (UTC, like stock_movements); movements before it may be compacted
+            """
+            CREATE TABLE IF NOT EXISTS stock_snapshots (
+                inventory_item_id INTEGER NOT NULL,
+                as_of DATETIME NOT NULL,
+                balance INTEGER NOT NULL,
+                date_created DATETIME DEFAULT CURRENT_TIMESTAMP,
+                PRIMARY KEY (inventory_item_id, as_of)
+            ) WITHOUT ROWID
+            """,
+            
+            // Daily totals of compacted stock movements, per local day
+            """
+            CREATE TABLE IF NOT EXISTS stock_movement_summaries (
+                inventory_item_id INTEGER NOT NULL,
+                day DATE NOT NULL,
+                movement_type TEXT NOT NULL,
+                movements INTEGER NOT NULL,
+                quantity INTEGER NOT NULL,
+                PRIMARY KEY (inventory_item_id, day, movement_type)
+            ) WITHOUT ROWID
+            """,
+            
+            // Changes to cached tables, written by triggers and read by the change feed of every terminal
+            """
+            CREATE TABLE IF NOT EXISTS change_log (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                table_name TEXT NOT NULL,
+                row_id INTEGER NOT NULL,
+                operation TEXT NOT NULL CHECK(operation IN ('INSERT', 'UPDATE', 'DELETE')),
+                date_created DATETIME DEFAULT CURRENT_TIMESTAMP
+            )
+            """,
+            
+            // How far each terminal's sale journal has been recorded, written with every journaled sale
+            """
+            CREATE TABLE IF NOT EXISTS sale_journal_positions (
+                journal_id TEXT PRIMARY KEY,
+                applied_sequence INTEGER NOT NULL,
+                date_modified DATETIME DEFAULT CURRENT_TIMESTAMP
             )
             """,
             
@@ -169,13 +335,109 @@ public class DatabaseManager {
         };
         
         try (Statement stmt = connection.createStatement()) {
+            // Only takes effect on a new, empty file; lets stock compaction release space without a full VACUUM
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
             for (String sql : createTableStatements) {
                 stmt.execute(sql);
             }
         }
         
+        // Bring databases created by older versions up to date
+        migrateSchema();
+        
         // Create indexes for better performance
         createIndexes();
+        
+        // Create triggers that keep derived columns in sync
+        createTriggers();
+    }
+    
+    /**
+     * Add columns introduced after the original schema to existing databases
+     */
+    private void migrateSchema() throws SQLException {
+        if (addColumnIfMissing("inventory_items", "stock_status",
+                "TEXT NOT NULL DEFAULT 'NORMAL' CHECK(stock_status IN ('NORMAL', 'LOW', 'CRITICAL'))")) {
+            // Backfill the status of rows written before the column existed
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("UPDATE inventory_items SET stock_status = " + STOCK_STATUS_EXPRESSION.replace("NEW.", ""));
+            }
+        }
+        
+        addColumnIfMissing("stock_movements", "lot_id", "INTEGER REFERENCES inventory_lots (id)");
+        addColumnIfMissing("products", "row_version", "INTEGER NOT NULL DEFAULT 0");
+        addColumnIfMissing("inventory_items", "row_version", "INTEGER NOT NULL DEFAULT 0");
+        addColumnIfMissing("sales", "idempotency_key", "TEXT");
+        
+        baselineStockLedger();
+        
+        // Dates used to be bound with setDate, which stores epoch milliseconds that never compare
+        // correctly against CURRENT_DATE; convert them to ISO date text
+        try (Statement stmt = connection.createStatement()) {
+            for (String column : new String[] {"expiration_date", "last_restocked"}) {
+                stmt.executeUpdate("UPDATE inventory_items SET " + column + " = date(" + column
+                        + " / 1000, 'unixepoch', 'localtime') WHERE typeof(" + column + ") = 'integer'");
+            }
+        }
+    }
+    
+    /**
+     * Start the stock ledger of a database once, from its stock levels at the time
+     * Opening stock and edited stock levels were not recorded as stock movements by older versions, so
+     * their movements alone do not add up to the recorded stock. A new database has no items yet.
+     */
+    private void baselineStockLedger() throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT 1 FROM system_settings WHERE setting_key = ?")) {
+            stmt.setString(1, "stock_ledger_start");
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+        }
+        
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            int items = stmt.executeUpdate("""
+                INSERT OR IGNORE INTO stock_snapshots (inventory_item_id, as_of, balance)
+                SELECT id, CURRENT_TIMESTAMP, current_stock FROM inventory_items
+                """);
+            stmt.executeUpdate("""
+                INSERT INTO system_settings (setting_key, setting_value, description)
+                VALUES ('stock_ledger_start', CURRENT_TIMESTAMP, 'UTC time from which every stock change is recorded as a stock movement')
+                """);
+            connection.commit();
+            if (items > 0) {
+                logger.info("Stock ledger started from the stock levels of " + items + " items");
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+    
+    /**
+     * Add a column to a table unless it is already present
+     * @return true if the column was added
+     */
+    private boolean addColumnIfMissing(String table, String column, String definition) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return false;
+                }
+            }
+        }
+        
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            logger.info("Added column " + table + "." + column);
+            return true;
+        }
     }
     
     /**
@@ -189,8 +451,16 @@ public class DatabaseManager {
             "CREATE INDEX IF NOT EXISTS idx_inventory_product ON inventory_items(product_id)",
             "CREATE INDEX IF NOT EXISTS idx_sales_date ON sales(sale_date)",
             "CREATE INDEX IF NOT EXISTS idx_sales_cashier ON sales(cashier_id)",
+            // Sales without a key (NULL) never conflict
+            "CREATE UNIQUE INDEX IF NOT EXISTS idx_sales_idempotency_key ON sales(idempotency_key)",
             "CREATE INDEX IF NOT EXISTS idx_sale_items_sale ON sale_items(sale_id)",
-            "CREATE INDEX IF NOT EXISTS idx_stock_movements_inventory ON stock_movements(inventory_item_id)"
+            "CREATE INDEX IF NOT EXISTS idx_stock_movements_inventory ON stock_movements(inventory_item_id)",
+            "CREATE INDEX IF NOT EXISTS idx_stock_movements_date ON stock_movements(date_created)",
+            "CREATE INDEX IF NOT EXISTS idx_inventory_lots_open ON inventory_lots(inventory_item_id) WHERE quantity_remaining > 0",
+            // Partial indexes for stock alerts: only flagged rows are indexed, so alert queries are range scans
+            "CREATE INDEX IF NOT EXISTS idx_inventory_low_stock ON inventory_items(current_stock) WHERE stock_status IN ('LOW', 'CRITICAL') AND is_active = 1",
+            "CREATE INDEX IF NOT EXISTS idx_inventory_critical_stock ON inventory_items(current_stock) WHERE stock_status = 'CRITICAL' AND is_active = 1",
+            "CREATE INDEX IF NOT EXISTS idx_inventory_expiration ON inventory_items(expiration_date) WHERE expiration_date IS NOT NULL AND current_stock > 0 AND is_active = 1"
         };
         
         try (Statement stmt = connection.createStatement()) {
@@ -200,6 +470,122 @@ public class DatabaseManager {
         }
     }
     
+    /**
+     * Stock status derived from the stock level and thresholds of the NEW row
+     */
+    private static final String STOCK_STATUS_EXPRESSION = """
+        CASE
+            WHEN NEW.current_stock <= NEW.critical_stock_threshold THEN 'CRITICAL'
+            WHEN NEW.current_stock <= NEW.low_stock_threshold THEN 'LOW'
+            ELSE 'NORMAL'
+        END""";
+    
+    /**
+     * Columns whose changes bump a row's version, so an edit made from an older copy of the row conflicts
+     */
+    private static final String[] INVENTORY_VERSIONED_COLUMNS = {"product_id", "current_stock", "minimum_stock",
+        "maximum_stock", "cost_price", "expiration_date", "supplier", "location", "last_restocked", "is_active",
+        "low_stock_threshold", "critical_stock_threshold"};
+    private static final String[] PRODUCT_VERSIONED_COLUMNS = {"name", "description", "price", "category",
+        "barcode", "unit", "is_active", "alt_text", "large_text_description"};
+    
+    /**
+     * Trigger that bumps row_version when a versioned column actually changes and the statement did
+     * not bump it itself
+     */
+    private static String rowVersionTrigger(String table, String[] columns) {
+        StringBuilder changed = new StringBuilder();
+        for (String column : columns) {
+            changed.append(changed.length() == 0 ? "" : " OR ")
+                    .append("NEW.").append(column).append(" IS NOT OLD.").append(column);
+        }
+        return """
+            CREATE TRIGGER IF NOT EXISTS trg_%1$s_row_version
+            AFTER UPDATE OF %2$s ON %1$s
+            WHEN NEW.row_version = OLD.row_version AND (%3$s)
+            BEGIN
+                UPDATE %1$s SET row_version = OLD.row_version + 1 WHERE id = NEW.id;
+            END
+            """.formatted(table, String.join(", ", columns), changed);
+    }
+    
+    /**
+     * Tables whose changes go to change_log: {table, key the change is logged under, column whose
+     * update marks a change (null for any update)}
+     * Lots are logged under their inventory item and recipe components under their product, the keys
+     * their caches are organised by; row versions only move on real changes.
+     */
+    private static final String[][] CHANGE_LOGGED_TABLES = {
+        {"products", "id", "row_version"},
+        {"inventory_items", "id", "row_version"},
+        {"inventory_lots", "inventory_item_id", null},
+        {"recipe_components", "product_id", null},
+        {"system_settings", "id", null}
+    };
+    
+    private static List<String> changeLogTriggers(String table, String key, String updateColumn) {
+        String trigger = """
+            CREATE TRIGGER IF NOT EXISTS trg_%1$s_change_%2$s
+            AFTER %3$s ON %1$s
+            BEGIN
+                INSERT INTO change_log (table_name, row_id, operation) VALUES ('%1$s', %4$s, '%5$s');
+            END
+            """;
+        return List.of(
+            trigger.formatted(table, "insert", "INSERT", "NEW." + key, "INSERT"),
+            trigger.formatted(table, "update", updateColumn != null ? "UPDATE OF " + updateColumn : "UPDATE",
+                    "NEW." + key, "UPDATE"),
+            trigger.formatted(table, "delete", "DELETE", "OLD." + key, "DELETE"));
+    }
+    
+    /**
+     * Create triggers that maintain inventory_items.stock_status, the row versions and the change log
+     */
+    private void createTriggers() throws SQLException {
+        String[] triggerStatements = {
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_inventory_stock_status_insert
+            AFTER INSERT ON inventory_items
+            BEGIN
+                UPDATE inventory_items SET stock_status = %s WHERE id = NEW.id;
+            END
+            """.formatted(STOCK_STATUS_EXPRESSION),
+            
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_inventory_stock_status_update
+            AFTER UPDATE OF current_stock, low_stock_threshold, critical_stock_threshold ON inventory_items
+            BEGIN
+                UPDATE inventory_items SET stock_status = %s WHERE id = NEW.id;
+            END
+            """.formatted(STOCK_STATUS_EXPRESSION),
+            
+            rowVersionTrigger("inventory_items", INVENTORY_VERSIONED_COLUMNS),
+            rowVersionTrigger("products", PRODUCT_VERSIONED_COLUMNS),
+            
+            // Which item a product draws from is logged apart from the stock updates every sale makes,
+            // so other terminals only recompile their recipes when it changes
+            """
+            CREATE TRIGGER IF NOT EXISTS trg_inventory_items_change_link
+            AFTER UPDATE OF product_id, is_active ON inventory_items
+            WHEN NEW.product_id IS NOT OLD.product_id OR NEW.is_active IS NOT OLD.is_active
+            BEGIN
+                INSERT INTO change_log (table_name, row_id, operation) VALUES ('inventory_links', NEW.id, 'UPDATE');
+            END
+            """
+        };
+        
+        List<String> triggers = new ArrayList<>(List.of(triggerStatements));
+        for (String[] logged : CHANGE_LOGGED_TABLES) {
+            triggers.addAll(changeLogTriggers(logged[0], logged[1], logged[2]));
+        }
+        
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : triggers) {
+                stmt.execute(sql);
+            }
+        }
+    }
+    
     /**
      * Insert default data (admin user, sample products)
      */
@@ -256,11 +642,72 @@ public class DatabaseManager {
             }
         }
         
+        // Insert ingredients used by the sample recipes
+        String[] sampleIngredients = {
+            "INSERT INTO products (name, description, price, category, unit) VALUES ('Black Tea', 'Brewed black tea base', 0.00, 'Ingredients', 'ml')",
+            "INSERT INTO products (name, description, price, category, unit) VALUES ('Fresh Milk', 'Fresh milk', 0.00, 'Ingredients', 'ml')",
+            "INSERT INTO products (name, description, price, category, unit) VALUES ('Sugar Syrup', 'Sugar syrup', 0.00, 'Ingredients', 'ml')",
+            "INSERT INTO products (name, description, price, category, unit) VALUES ('Cups', 'Cup with lid and straw', 0.00, 'Ingredients', 'piece')"
+        };
+        
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : sampleIngredients) {
+                stmt.execute(sql);
+            }
+        }
+        
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO inventory_items (product_id, current_stock, minimum_stock, maximum_stock) VALUES (?, ?, ?, ?)")) {
+            int[][] ingredientStock = {{6, 20000, 4000, 50000}, {7, 20000, 4000, 50000}, {8, 5000, 1000, 10000}, {9, 500, 100, 1000}};
+            for (int[] stock : ingredientStock) {
+                stmt.setInt(1, stock[0]);
+                stmt.setInt(2, stock[1]);
+                stmt.setInt(3, stock[2]);
+                stmt.setInt(4, stock[3]);
+                stmt.executeUpdate();
+            }
+        }
+        
+        // Opening stock of the sample items, so their stock ledger adds up from the start
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("""
+                INSERT INTO stock_movements (inventory_item_id, movement_type, quantity, reason)
+                SELECT id, 'ADJUSTMENT', current_stock, 'Opening stock' FROM inventory_items WHERE current_stock <> 0
+                """);
+        }
+        
+        // Insert sample recipes: {product, component, quantity}; Classic Milk Tea nests the Tapioca Pearls add-on
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO recipe_components (product_id, component_product_id, quantity) VALUES (?, ?, ?)")) {
+            int[][] sampleRecipes = {
+                {1, 6, 200}, {1, 7, 100}, {1, 8, 30}, {1, 9, 1}, {1, 4, 1},
+                {2, 7, 200}, {2, 8, 20}, {2, 9, 1},
+                {3, 7, 250}, {3, 8, 20}, {3, 9, 1}
+            };
+            for (int[] component : sampleRecipes) {
+                stmt.setInt(1, component[0]);
+                stmt.setInt(2, component[1]);
+                stmt.setInt(3, component[2]);
+                stmt.executeUpdate();
+            }
+        }
+        
         // Insert default system settings
         String[] settings = {
             "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('tax_rate', '0.12', 'Default tax rate (12%)')",
             "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('currency_symbol', '₱', 'Currency symbol')",
-            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('accessibility_enabled', 'true', 'Enable accessibility features')"
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('accessibility_enabled', 'true', 'Enable accessibility features')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('expiry_warning_days', '7', 'Days before expiration that items are flagged as expiring soon')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('reorder_lead_time_days', '3', 'Days between placing and receiving a supplier order')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('reorder_review_days', '7', 'Days between stock reviews that reorder quantities must cover')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('backup_interval_hours', '24', 'Hours between automatic database backups')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('backup_keep_count', '7', 'Number of database backups to keep')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('read_replica_enabled', 'true', 'Serve reports from an in-memory copy of the database')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('read_replica_refresh_seconds', '60', 'Minimum seconds between refreshes of the report copy')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('sales_hot_months', '2', 'Months of sales kept in the main database, counting the current one; older months are archived')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('stock_movement_retention_days', '90', 'Days of individual stock movements kept; older ones are compacted into daily totals')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('change_feed_poll_millis', '1000', 'Milliseconds between checks for changes made by other terminals')",
+            "INSERT INTO system_settings (setting_key, setting_value, description) VALUES ('sale_journal_enabled', 'true', 'Confirm checkouts once logged to a journal file and record them in the database in the background')"
         };
         
         try (Statement stmt = connection.createStatement()) {
@@ -277,11 +724,37 @@ public class DatabaseManager {
      */
     public Connection getConnection() throws SQLException {
         if (connection == null || connection.isClosed()) {
-            connection = DriverManager.getConnection(DB_URL);
+            connection = connect();
         }
         return connection;
     }
     
+    /**
+     * Path of the database file, for data kept next to it such as sales snapshots
+     */
+    public Path getDatabaseFile() {
+        return Path.of(dbUrl.substring(dbUrl.indexOf(':', "jdbc:".length()) + 1)).toAbsolutePath();
+    }
+    
+    /**
+     * Open a separate connection for background work, so it never shares (or closes) the
+     * connection the UI is using; the caller must close it
+     */
+    public Connection openConnection() throws SQLException {
+        return connect();
+    }
+    
+    /**
+     * Bus of the row changes committed on this manager's connections, for caches to subscribe to
+     */
+    public RowChangeBus getRowChangeBus() {
+        return rowChangeBus;
+    }
+    
+    private Connection connect() throws SQLException {
+        return rowChangeBus.watch(DriverManager.getConnection(dbUrl));
+    }
+    
     /**
      * Close database connection
      */
@@ -309,6 +782,64 @@ public class DatabaseManager {
         }
     }
     
+    /**
+     * Get the row ID generated by the last INSERT on a connection
+     */
+    public static int getLastInsertId(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+    
+    /**
+     * Get a system setting value, or the default if it is not set
+     */
+    public String getSystemSetting(String key, String defaultValue) {
+        try {
+            return getSystemSetting(getConnection(), key, defaultValue);
+        } catch (SQLException e) {
+            logger.severe("Error reading system setting " + key + ": " + e.getMessage());
+        }
+        
+        return defaultValue;
+    }
+    
+    /**
+     * Get a system setting value on a given connection, e.g. one a background thread owns
+     */
+    public static String getSystemSetting(Connection conn, String key, String defaultValue) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT setting_value FROM system_settings WHERE setting_key = ?")) {
+            stmt.setString(1, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getString(1) != null) {
+                    return rs.getString(1);
+                }
+            }
+        }
+        
+        return defaultValue;
+    }
+    
+    /**
+     * Get the query plan SQLite chooses for a statement, one line per plan step
+     */
+    public List<String> explainQueryPlan(String sql) {
+        List<String> plan = new ArrayList<>();
+        
+        try (Statement stmt = getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        } catch (SQLException e) {
+            logger.severe("Error explaining query plan: " + e.getMessage());
+        }
+        
+        return plan;
+    }
+    
     /**
      * Get database statistics for monitoring
      */
@@ -317,7 +848,8 @@ public class DatabaseManager {
             StringBuilder stats = new StringBuilder();
             stats.append("Database Statistics:\n");
             
-            String[] tables = {"users", "products", "inventory_items", "sales", "sale_items", "stock_movements"};
+            String[] tables = {"users", "products", "inventory_items", "inventory_lots", "recipe_components", "demand_forecasts", "sales", "sale_items", "stock_movements",
+                               "sales_daily_product", "sales_daily_cashier", "sales_hourly"};
             
             for (String table : tables) {
                 try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM " + table)) {
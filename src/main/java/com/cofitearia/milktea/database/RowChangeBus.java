@@ -0,0 +1,226 @@
+package com.cofitearia.milktea.database;
+
+import org.sqlite.SQLiteCommitListener;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteUpdateListener;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * In-process bus of committed row changes, fed by SQLite's update and commit hooks
+ * Every connection the database manager opens reports the rows each statement inserts, updates or
+ * deletes. They are held until the transaction commits, dropped if it rolls back, and handed to the
+ * subscribers of each table once the call that committed returns, so a cache is invalidated by any
+ * write in this process, whichever service or tool made it, and never reloads before the commit is
+ * visible. Changes made by other processes arrive through the change feed instead.
+ * SQLite does not report rows of WITHOUT ROWID tables, nor rows removed by a DELETE without WHERE.
+ * Savepoints are followed through the JDBC Savepoint methods, not through SAVEPOINT statements.
+ */
+public class RowChangeBus {
+    private static final Logger logger = Logger.getLogger(RowChangeBus.class.getName());
+    
+    public enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+    
+    /**
+     * One changed row
+     * @param database schema the table belongs to, "main" or the name of an attached database
+     */
+    public record RowChange(Operation operation, String database, String table, long rowId) {
+    }
+    
+    /**
+     * Subscriber for the changes to one table
+     */
+    @FunctionalInterface
+    public interface RowChangeListener {
+        /**
+         * Called on the bus thread once a transaction has committed, with its changes to the table
+         * in the order they were made, each row once per operation; safe to query the database from
+         */
+        void onRowChanges(List<RowChange> changes);
+    }
+    
+    private final Map<String, List<RowChangeListener>> subscribers = new ConcurrentHashMap<>();
+    
+    // Started on the first committed change any subscriber cares about
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "row-change-bus");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public void subscribe(String table, RowChangeListener listener) {
+        subscribers.computeIfAbsent(table, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+    
+    public void unsubscribe(String table, RowChangeListener listener) {
+        List<RowChangeListener> listeners = subscribers.get(table);
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+    
+    /**
+     * Report the changes committed on a connection to the bus
+     * @return the connection to use in its place, which hands on the changes once each commit returns
+     */
+    Connection watch(Connection conn) throws SQLException {
+        SQLiteConnection sqlite = conn.unwrap(SQLiteConnection.class);
+        Hooks hooks = new Hooks();
+        sqlite.addUpdateListener(hooks);
+        sqlite.addCommitListener(hooks);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new Flushing(conn, hooks));
+    }
+    
+    /**
+     * Collects the changes of one connection's open transaction
+     * SQLite calls the hooks from inside the statement that changed the rows, so they must neither
+     * block nor use the database. The commit hook runs before the commit is written, so committed
+     * changes wait for the JDBC call that committed to return.
+     */
+    private class Hooks implements SQLiteUpdateListener, SQLiteCommitListener {
+        private List<RowChange> pending = new ArrayList<>();
+        private List<RowChange> committed = new ArrayList<>();
+        // Size of pending when each savepoint was set
+        private final Map<Savepoint, Integer> savepoints = new HashMap<>();
+        
+        @Override
+        public synchronized void onUpdate(Type type, String database, String table, long rowId) {
+            // Tables nobody subscribed to cost one lookup per row
+            if (subscribers.containsKey(table)) {
+                pending.add(new RowChange(Operation.valueOf(type.name()), database, table, rowId));
+            }
+        }
+        
+        @Override
+        public synchronized void onCommit() {
+            committed.addAll(pending);
+            pending = new ArrayList<>();
+            savepoints.clear();
+        }
+        
+        @Override
+        public synchronized void onRollback() {
+            pending.clear();
+            savepoints.clear();
+        }
+        
+        synchronized void savepointSet(Savepoint savepoint) {
+            savepoints.put(savepoint, pending.size());
+        }
+        
+        synchronized void rolledBackTo(Savepoint savepoint) {
+            Integer size = savepoints.get(savepoint);
+            if (size != null && size < pending.size()) {
+                pending.subList(size, pending.size()).clear();
+            }
+        }
+        
+        synchronized void savepointReleased(Savepoint savepoint) {
+            savepoints.remove(savepoint);
+        }
+        
+        /**
+         * Hand the committed changes to the bus; called once the commit has returned
+         */
+        void flush() {
+            List<RowChange> changes;
+            synchronized (this) {
+                if (committed.isEmpty()) {
+                    return;
+                }
+                changes = committed;
+                committed = new ArrayList<>();
+            }
+            executor.execute(() -> publish(changes));
+        }
+    }
+    
+    /**
+     * Wraps a connection, and the statements it creates, to flush its committed changes after every
+     * call that can commit: commit, setAutoCommit, close and each statement execution
+     */
+    private static class Flushing implements InvocationHandler {
+        private final Object target;
+        private final Hooks hooks;
+        
+        Flushing(Object target, Hooks hooks) {
+            this.target = target;
+            this.hooks = hooks;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("equals".equals(method.getName()) && method.getParameterCount() == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(method.getName()) && method.getParameterCount() == 0) {
+                return System.identityHashCode(proxy);
+            }
+            
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            
+            if (result instanceof Statement statement) {
+                Class<?> type = method.getReturnType();
+                return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                        new Flushing(statement, hooks));
+            }
+            if (result instanceof Savepoint savepoint) {
+                hooks.savepointSet(savepoint);
+            } else if ("rollback".equals(method.getName()) && args != null
+                    && args[0] instanceof Savepoint savepoint) {
+                hooks.rolledBackTo(savepoint);
+            } else if ("releaseSavepoint".equals(method.getName())) {
+                hooks.savepointReleased((Savepoint) args[0]);
+            }
+            hooks.flush();
+            return result;
+        }
+    }
+    
+    private void publish(List<RowChange> changes) {
+        // Triggers that stamp or version a row report it again for every stamp
+        Map<String, Set<RowChange>> byTable = new LinkedHashMap<>();
+        for (RowChange change : changes) {
+            byTable.computeIfAbsent(change.table(), key -> new LinkedHashSet<>()).add(change);
+        }
+        byTable.forEach((table, tableChanges) -> {
+            for (RowChangeListener listener : subscribers.getOrDefault(table, List.of())) {
+                try {
+                    listener.onRowChanges(List.copyOf(tableChanges));
+                } catch (RuntimeException e) {
+                    // One failing subscriber must not keep the others stale
+                    logger.severe("Row change subscriber for " + table + " failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+}
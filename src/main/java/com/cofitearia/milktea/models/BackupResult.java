@@ -0,0 +1,85 @@
+package com.cofitearia.milktea.models;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+/**
+ * Outcome of one database backup, with the figures needed to keep an eye on backup speed
+ */
+public class BackupResult {
+    private final boolean successful;
+    private final Path file;
+    private final LocalDateTime startedAt;
+    private final int pages;
+    private final long bytes;
+    private final long durationMillis;
+    private final int restarts;
+    private final String message;
+    
+    public BackupResult(boolean successful, Path file, LocalDateTime startedAt, int pages, long bytes,
+                        long durationMillis, int restarts, String message) {
+        this.successful = successful;
+        this.file = file;
+        this.startedAt = startedAt;
+        this.pages = pages;
+        this.bytes = bytes;
+        this.durationMillis = durationMillis;
+        this.restarts = restarts;
+        this.message = message;
+    }
+    
+    /**
+     * True if the copy was written and passed its integrity check
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+    
+    /**
+     * The backup file, or null if the backup failed
+     */
+    public Path getFile() {
+        return file;
+    }
+    
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+    
+    public int getPages() {
+        return pages;
+    }
+    
+    public long getBytes() {
+        return bytes;
+    }
+    
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+    
+    public double getPagesPerSecond() {
+        return durationMillis == 0 ? pages : pages * 1000.0 / durationMillis;
+    }
+    
+    /**
+     * Times the copy started over because another connection wrote to the database meanwhile
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    @Override
+    public String toString() {
+        if (!successful) {
+            return "Backup failed: " + message;
+        }
+        return String.format("Backed up %d pages (%.1f MB) to %s in %d ms, %.0f pages/s%s",
+                pages, bytes / 1048576.0, file.getFileName(), durationMillis, getPagesPerSecond(),
+                restarts > 0 ? ", restarted " + restarts + " times" : "");
+    }
+}
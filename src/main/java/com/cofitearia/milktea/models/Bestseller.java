@@ -0,0 +1,34 @@
+package com.cofitearia.milktea.models;
+
+/**
+ * A product in a live bestseller ranking with its estimated quantity sold in the window
+ * The estimate never undercounts; it is exact unless more products sold than the tracker keeps.
+ */
+public class Bestseller {
+    private final int productId;
+    private final String productName;
+    private final long quantity;
+    
+    public Bestseller(int productId, String productName, long quantity) {
+        this.productId = productId;
+        this.productName = productName;
+        this.quantity = quantity;
+    }
+    
+    public int getProductId() {
+        return productId;
+    }
+    
+    public String getProductName() {
+        return productName;
+    }
+    
+    public long getQuantity() {
+        return quantity;
+    }
+    
+    @Override
+    public String toString() {
+        return productName + " - " + quantity + " sold";
+    }
+}
@@ -0,0 +1,62 @@
+package com.cofitearia.milktea.models;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Flattened recipe of a product: the inventory items one unit consumes and how many of each
+ * Nested add-ons are already expanded, so a sale line only has to walk two parallel arrays
+ */
+public final class ConsumptionVector {
+    public static final ConsumptionVector EMPTY = new ConsumptionVector(new int[0], new int[0]);
+    
+    private final int[] inventoryItemIds;
+    private final int[] quantities;
+    
+    private ConsumptionVector(int[] inventoryItemIds, int[] quantities) {
+        this.inventoryItemIds = inventoryItemIds;
+        this.quantities = quantities;
+    }
+    
+    /**
+     * Build a vector from inventory item ID to quantity, ordered by item ID
+     */
+    public static ConsumptionVector of(Map<Integer, Integer> quantitiesByItem) {
+        int[] ids = quantitiesByItem.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        int[] quantities = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            quantities[i] = quantitiesByItem.get(ids[i]);
+        }
+        return new ConsumptionVector(ids, quantities);
+    }
+    
+    public int size() {
+        return inventoryItemIds.length;
+    }
+    
+    public boolean isEmpty() {
+        return inventoryItemIds.length == 0;
+    }
+    
+    public int getInventoryItemId(int index) {
+        return inventoryItemIds[index];
+    }
+    
+    public int getQuantity(int index) {
+        return quantities[index];
+    }
+    
+    /**
+     * Add the consumption of a number of units to a running total per inventory item
+     */
+    public void addTo(Map<Integer, Integer> totals, int units) {
+        for (int i = 0; i < inventoryItemIds.length; i++) {
+            totals.merge(inventoryItemIds[i], Math.multiplyExact(quantities[i], units), Integer::sum);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ConsumptionVector" + Arrays.toString(inventoryItemIds) + " x " + Arrays.toString(quantities);
+    }
+}
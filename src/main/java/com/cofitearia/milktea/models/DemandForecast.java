@@ -0,0 +1,141 @@
+package com.cofitearia.milktea.models;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Demand forecast of one inventory item
+ * Exponential smoothing of daily demand with a multiplicative weekday season:
+ * the level is the deseasonalized daily demand and each weekday has its own factor around 1.
+ */
+public class DemandForecast {
+    private static final double MIN_SEASONAL_FACTOR = 0.05;
+    
+    private final int inventoryItemId;
+    private double level;
+    private final double[] seasonal;
+    private double meanAbsoluteError;
+    private LocalDate lastObservedDate;
+    private int observations;
+    
+    public DemandForecast(int inventoryItemId) {
+        this.inventoryItemId = inventoryItemId;
+        this.seasonal = new double[7];
+        Arrays.fill(seasonal, 1.0);
+    }
+    
+    public DemandForecast(int inventoryItemId, double level, double[] seasonal, double meanAbsoluteError,
+                          LocalDate lastObservedDate, int observations) {
+        this.inventoryItemId = inventoryItemId;
+        this.level = level;
+        this.seasonal = Arrays.copyOf(seasonal, 7);
+        this.meanAbsoluteError = meanAbsoluteError;
+        this.lastObservedDate = lastObservedDate;
+        this.observations = observations;
+    }
+    
+    // Getters
+    public int getInventoryItemId() {
+        return inventoryItemId;
+    }
+    
+    public double getLevel() {
+        return level;
+    }
+    
+    public double getSeasonalFactor(DayOfWeek day) {
+        return seasonal[day.ordinal()];
+    }
+    
+    public double[] getSeasonalFactors() {
+        return Arrays.copyOf(seasonal, 7);
+    }
+    
+    public double getMeanAbsoluteError() {
+        return meanAbsoluteError;
+    }
+    
+    public LocalDate getLastObservedDate() {
+        return lastObservedDate;
+    }
+    
+    public int getObservations() {
+        return observations;
+    }
+    
+    // Business Logic Methods
+    
+    /**
+     * Feed the demand of the day after the last observed one
+     * @param alpha smoothing of the level and the error
+     * @param gamma smoothing of the weekday factors
+     */
+    public void observe(LocalDate day, double demand, double alpha, double gamma) {
+        int weekday = day.getDayOfWeek().ordinal();
+        
+        if (observations == 0) {
+            level = demand;
+        } else {
+            double expected = level * seasonal[weekday];
+            meanAbsoluteError = alpha * Math.abs(demand - expected) + (1 - alpha) * meanAbsoluteError;
+            
+            double previousLevel = level;
+            level = alpha * (demand / seasonal[weekday]) + (1 - alpha) * level;
+            if (previousLevel > 0) {
+                seasonal[weekday] = Math.max(MIN_SEASONAL_FACTOR,
+                        gamma * (demand / previousLevel) + (1 - gamma) * seasonal[weekday]);
+                normalizeSeasonal();
+            }
+        }
+        
+        lastObservedDate = day;
+        observations++;
+    }
+    
+    /**
+     * Expected demand on a day
+     */
+    public double forecast(LocalDate day) {
+        return level * seasonal[day.getDayOfWeek().ordinal()];
+    }
+    
+    /**
+     * Expected demand over a number of days starting at a date
+     */
+    public double forecast(LocalDate from, int days) {
+        double total = 0;
+        for (int i = 0; i < days; i++) {
+            total += forecast(from.plusDays(i));
+        }
+        return total;
+    }
+    
+    /**
+     * Check if the forecast has seen enough days to cover the weekly cycle twice
+     */
+    public boolean isReliable() {
+        return observations >= 14;
+    }
+    
+    public DemandForecast copy() {
+        return new DemandForecast(inventoryItemId, level, seasonal, meanAbsoluteError, lastObservedDate, observations);
+    }
+    
+    /**
+     * Keep the weekday factors averaging 1 so the level stays the mean daily demand
+     */
+    private void normalizeSeasonal() {
+        double mean = Arrays.stream(seasonal).average().orElse(1.0);
+        if (mean > 0) {
+            for (int i = 0; i < seasonal.length; i++) {
+                seasonal[i] /= mean;
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("Item %d: %.2f/day (MAE %.2f, %d days)", inventoryItemId, level, meanAbsoluteError, observations);
+    }
+}
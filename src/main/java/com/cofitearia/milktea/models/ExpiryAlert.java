@@ -0,0 +1,78 @@
+package com.cofitearia.milktea.models;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Expiry alert for a perishable inventory item
+ * Published when an item starts expiring soon or expires, and used for the live expiry list
+ */
+public class ExpiryAlert {
+    
+    public enum Stage {
+        FRESH("Fresh"),
+        EXPIRING_SOON("Expiring soon"),
+        EXPIRED("Expired");
+        
+        private final String displayName;
+        
+        Stage(String displayName) {
+            this.displayName = displayName;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+    
+    private final int inventoryItemId;
+    private final String itemName;
+    private final LocalDate expirationDate;
+    private final Stage stage;
+    
+    public ExpiryAlert(int inventoryItemId, String itemName, LocalDate expirationDate, Stage stage) {
+        this.inventoryItemId = inventoryItemId;
+        this.itemName = itemName;
+        this.expirationDate = expirationDate;
+        this.stage = stage;
+    }
+    
+    public int getInventoryItemId() {
+        return inventoryItemId;
+    }
+    
+    public String getItemName() {
+        return itemName;
+    }
+    
+    public LocalDate getExpirationDate() {
+        return expirationDate;
+    }
+    
+    public Stage getStage() {
+        return stage;
+    }
+    
+    /**
+     * Days left until the expiration date (negative once expired)
+     */
+    public long getDaysRemaining() {
+        return ChronoUnit.DAYS.between(LocalDate.now(), expirationDate);
+    }
+    
+    /**
+     * Get alert text for status bars and screen readers
+     */
+    public String getAnnouncementText() {
+        if (stage == Stage.EXPIRED) {
+            return itemName + " expired on " + expirationDate;
+        }
+        long days = getDaysRemaining();
+        return itemName + " expires " + (days == 0 ? "today" : days == 1 ? "tomorrow" : "in " + days + " days");
+    }
+    
+    @Override
+    public String toString() {
+        return itemName + " - " + stage.getDisplayName() + " (" + expirationDate + ")";
+    }
+}
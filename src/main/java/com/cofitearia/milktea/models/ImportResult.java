@@ -0,0 +1,71 @@
+package com.cofitearia.milktea.models;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import of products or historic sales
+ * Rejected rows are written with their reasons to a separate error file; the first few reasons are
+ * also kept here for display.
+ */
+public class ImportResult {
+    private final boolean completed;
+    private final long rowsRead;
+    private final long rowsImported;
+    private final long rowsRejected;
+    private final List<String> errorSamples;
+    private final Path errorFile;
+    private final long elapsedMillis;
+    
+    public ImportResult(boolean completed, long rowsRead, long rowsImported, long rowsRejected,
+                        List<String> errorSamples, Path errorFile, long elapsedMillis) {
+        this.completed = completed;
+        this.rowsRead = rowsRead;
+        this.rowsImported = rowsImported;
+        this.rowsRejected = rowsRejected;
+        this.errorSamples = List.copyOf(errorSamples);
+        this.errorFile = errorFile;
+        this.elapsedMillis = elapsedMillis;
+    }
+    
+    /**
+     * False if the import stopped early, e.g. on a database error or cancellation
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+    
+    public long getRowsRead() {
+        return rowsRead;
+    }
+    
+    public long getRowsImported() {
+        return rowsImported;
+    }
+    
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+    
+    public List<String> getErrorSamples() {
+        return errorSamples;
+    }
+    
+    /**
+     * CSV file of the rejected rows with their reasons, or null if none were rejected
+     */
+    public Path getErrorFile() {
+        return errorFile;
+    }
+    
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    
+    @Override
+    public String toString() {
+        return (completed ? "Imported " : "Import stopped after ") + rowsImported + " of " + rowsRead + " rows, "
+                + rowsRejected + " rejected, in " + elapsedMillis + " ms"
+                + (errorFile != null ? " (errors in " + errorFile + ")" : "");
+    }
+}
@@ -8,6 +8,9 @@ import java.time.LocalDate;
  * Includes expiration date tracking and low stock alerts
  */
 public class InventoryItem {
+    // Default "expiring soon" window, overridable through the expiry_warning_days setting
+    public static final int DEFAULT_EXPIRY_WARNING_DAYS = 7;
+    
     private int id;
     private Product product;
     private int currentStock;
@@ -21,11 +24,17 @@ public class InventoryItem {
     private LocalDate dateCreated;
     private LocalDate dateModified;
     private boolean isActive;
+    // Bumped on every change to the row; updates only succeed against the version they loaded
+    private int rowVersion;
     
     // Alert thresholds
     private int lowStockThreshold;
     private int criticalStockThreshold;
     
+    // Forecast-based reorder plan; null until the item has enough sales history
+    private Integer reorderPoint;
+    private Integer suggestedReorderQuantity;
+    
     public InventoryItem() {
         this.dateCreated = LocalDate.now();
         this.dateModified = LocalDate.now();
@@ -156,6 +165,14 @@ public class InventoryItem {
         this.dateModified = LocalDate.now();
     }
     
+    public int getRowVersion() {
+        return rowVersion;
+    }
+    
+    public void setRowVersion(int rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+    
     public int getLowStockThreshold() {
         return lowStockThreshold;
     }
@@ -174,6 +191,22 @@ public class InventoryItem {
         this.dateModified = LocalDate.now();
     }
     
+    public Integer getReorderPoint() {
+        return reorderPoint;
+    }
+    
+    public void setReorderPoint(Integer reorderPoint) {
+        this.reorderPoint = reorderPoint;
+    }
+    
+    public Integer getSuggestedReorderQuantity() {
+        return suggestedReorderQuantity;
+    }
+    
+    public void setSuggestedReorderQuantity(Integer suggestedReorderQuantity) {
+        this.suggestedReorderQuantity = suggestedReorderQuantity;
+    }
+    
     // Business Logic Methods
     
     /**
@@ -198,12 +231,19 @@ public class InventoryItem {
     }
     
     /**
-     * Check if item is expiring soon (within 7 days)
+     * Check if item is expiring soon (within the default window)
      */
     public boolean isExpiringSoon() {
+        return isExpiringSoon(DEFAULT_EXPIRY_WARNING_DAYS);
+    }
+    
+    /**
+     * Check if item is expiring within the given number of days, counting today
+     */
+    public boolean isExpiringSoon(int warningDays) {
         return expirationDate != null && 
-               expirationDate.isBefore(LocalDate.now().plusDays(7)) &&
-               expirationDate.isAfter(LocalDate.now());
+               expirationDate.isBefore(LocalDate.now().plusDays(warningDays)) &&
+               !expirationDate.isBefore(LocalDate.now());
     }
     
     /**
@@ -243,11 +283,22 @@ public class InventoryItem {
     
     /**
      * Calculate reorder quantity
+     * Uses the demand forecast when there is one, otherwise tops stock up to the maximum
      */
     public int getReorderQuantity() {
+        if (suggestedReorderQuantity != null) {
+            return suggestedReorderQuantity;
+        }
         return maximumStock - currentStock;
     }
     
+    /**
+     * Check if stock has fallen to the reorder point (or the minimum stock without a forecast)
+     */
+    public boolean needsReorder() {
+        return currentStock <= (reorderPoint != null ? reorderPoint : minimumStock);
+    }
+    
     /**
      * Add stock to current inventory
      */
@@ -0,0 +1,132 @@
+package com.cofitearia.milktea.models;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Inventory lot model representing one delivery of an inventory item
+ * Each lot keeps its own quantity, expiration date and cost so restocks do not overwrite each other
+ */
+public class InventoryLot {
+    private int id;
+    private int inventoryItemId;
+    private String lotNumber;
+    private int quantityReceived;
+    private int quantityRemaining;
+    private LocalDate expirationDate;
+    private BigDecimal costPrice;
+    private LocalDate receivedDate;
+    
+    public InventoryLot() {
+        this.receivedDate = LocalDate.now();
+    }
+    
+    public InventoryLot(int inventoryItemId, int quantity, LocalDate expirationDate, BigDecimal costPrice) {
+        this();
+        this.inventoryItemId = inventoryItemId;
+        this.quantityReceived = quantity;
+        this.quantityRemaining = quantity;
+        this.expirationDate = expirationDate;
+        this.costPrice = costPrice;
+    }
+    
+    // Getters and Setters
+    public int getId() {
+        return id;
+    }
+    
+    public void setId(int id) {
+        this.id = id;
+    }
+    
+    public int getInventoryItemId() {
+        return inventoryItemId;
+    }
+    
+    public void setInventoryItemId(int inventoryItemId) {
+        this.inventoryItemId = inventoryItemId;
+    }
+    
+    public String getLotNumber() {
+        return lotNumber;
+    }
+    
+    public void setLotNumber(String lotNumber) {
+        this.lotNumber = lotNumber;
+    }
+    
+    public int getQuantityReceived() {
+        return quantityReceived;
+    }
+    
+    public void setQuantityReceived(int quantityReceived) {
+        this.quantityReceived = quantityReceived;
+    }
+    
+    public int getQuantityRemaining() {
+        return quantityRemaining;
+    }
+    
+    public void setQuantityRemaining(int quantityRemaining) {
+        this.quantityRemaining = quantityRemaining;
+    }
+    
+    public LocalDate getExpirationDate() {
+        return expirationDate;
+    }
+    
+    public void setExpirationDate(LocalDate expirationDate) {
+        this.expirationDate = expirationDate;
+    }
+    
+    public BigDecimal getCostPrice() {
+        return costPrice;
+    }
+    
+    public void setCostPrice(BigDecimal costPrice) {
+        this.costPrice = costPrice;
+    }
+    
+    public LocalDate getReceivedDate() {
+        return receivedDate;
+    }
+    
+    public void setReceivedDate(LocalDate receivedDate) {
+        this.receivedDate = receivedDate;
+    }
+    
+    // Business Logic Methods
+    
+    /**
+     * Check if lot is expired
+     */
+    public boolean isExpired() {
+        return expirationDate != null && expirationDate.isBefore(LocalDate.now());
+    }
+    
+    /**
+     * Check if lot has been used up
+     */
+    public boolean isDepleted() {
+        return quantityRemaining <= 0;
+    }
+    
+    @Override
+    public String toString() {
+        return "Lot " + (lotNumber != null ? lotNumber : String.valueOf(id)) + " - " + quantityRemaining
+                + " left" + (expirationDate != null ? ", expires " + expirationDate : "");
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        InventoryLot that = (InventoryLot) obj;
+        return id == that.id;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
+}
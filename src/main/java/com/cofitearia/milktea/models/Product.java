@@ -18,6 +18,8 @@ public class Product {
     private LocalDate dateCreated;
     private LocalDate dateModified;
     private boolean isActive;
+    // Bumped on every change to the row; updates only succeed against the version they loaded
+    private int rowVersion;
     
     // Accessibility-related fields
     private String altText; // For screen readers
@@ -125,6 +127,14 @@ public class Product {
         this.dateModified = LocalDate.now();
     }
     
+    public int getRowVersion() {
+        return rowVersion;
+    }
+    
+    public void setRowVersion(int rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+    
     public String getAltText() {
         return altText;
     }
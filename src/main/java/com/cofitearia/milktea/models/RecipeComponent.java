@@ -0,0 +1,69 @@
+package com.cofitearia.milktea.models;
+
+/**
+ * Recipe component model: one ingredient or add-on used to make a product
+ * A component is itself a product, so add-ons with their own recipe nest naturally
+ */
+public class RecipeComponent {
+    private int id;
+    private int productId;
+    private int componentProductId;
+    private String componentName;
+    private int quantity;
+    
+    public RecipeComponent() {
+        this.quantity = 1;
+    }
+    
+    public RecipeComponent(int productId, int componentProductId, int quantity) {
+        this.productId = productId;
+        this.componentProductId = componentProductId;
+        this.quantity = quantity;
+    }
+    
+    // Getters and Setters
+    public int getId() {
+        return id;
+    }
+    
+    public void setId(int id) {
+        this.id = id;
+    }
+    
+    public int getProductId() {
+        return productId;
+    }
+    
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+    
+    public int getComponentProductId() {
+        return componentProductId;
+    }
+    
+    public void setComponentProductId(int componentProductId) {
+        this.componentProductId = componentProductId;
+    }
+    
+    public String getComponentName() {
+        return componentName;
+    }
+    
+    public void setComponentName(String componentName) {
+        this.componentName = componentName;
+    }
+    
+    public int getQuantity() {
+        return quantity;
+    }
+    
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+    
+    @Override
+    public String toString() {
+        return quantity + " x " + (componentName != null ? componentName : "product " + componentProductId);
+    }
+}
@@ -25,6 +25,7 @@ public class Sale {
     private LocalDateTime dateModified;
     private String notes;
     private boolean isVoided;
+    private String idempotencyKey; // Chosen by the till per checkout, so a repeated submit is recorded once
     
     // Accessibility-related fields
     private boolean accessibilityAssistanceUsed;
@@ -203,6 +204,18 @@ public class Sale {
         this.dateModified = LocalDateTime.now();
     }
     
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+    
+    /**
+     * Key of the checkout this sale was submitted for; a sale with a key that was already recorded is
+     * answered with the recorded sale instead of being stored again
+     */
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+    
     // Business Logic Methods
     
     /**
@@ -0,0 +1,45 @@
+package com.cofitearia.milktea.models;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * One cell of a sales cube pivot: the values of the grouped dimensions with their totals
+ */
+public class SalesCubeCell {
+    private final List<String> labels;
+    private final long lineCount;
+    private final long quantity;
+    private final BigDecimal revenue;
+    
+    public SalesCubeCell(List<String> labels, long lineCount, long quantity, BigDecimal revenue) {
+        this.labels = List.copyOf(labels);
+        this.lineCount = lineCount;
+        this.quantity = quantity;
+        this.revenue = revenue;
+    }
+    
+    /**
+     * Dimension values in the order the dimensions were grouped by
+     */
+    public List<String> getLabels() {
+        return labels;
+    }
+    
+    public long getLineCount() {
+        return lineCount;
+    }
+    
+    public long getQuantity() {
+        return quantity;
+    }
+    
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+    
+    @Override
+    public String toString() {
+        return String.join(" / ", labels) + ": ₱" + revenue + " (" + quantity + " sold)";
+    }
+}
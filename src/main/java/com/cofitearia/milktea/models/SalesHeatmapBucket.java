@@ -0,0 +1,49 @@
+package com.cofitearia.milktea.models;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Sales made in one quarter-hour of the day, as shown on the dashboard heatmap
+ */
+public class SalesHeatmapBucket {
+    private final LocalDateTime start;
+    private final LocalDateTime end;
+    private final long transactions;
+    private final long units;
+    private final BigDecimal revenue;
+    
+    public SalesHeatmapBucket(LocalDateTime start, LocalDateTime end, long transactions, long units, BigDecimal revenue) {
+        this.start = start;
+        this.end = end;
+        this.transactions = transactions;
+        this.units = units;
+        this.revenue = revenue;
+    }
+    
+    public LocalDateTime getStart() {
+        return start;
+    }
+    
+    public LocalDateTime getEnd() {
+        return end;
+    }
+    
+    public long getTransactions() {
+        return transactions;
+    }
+    
+    public long getUnits() {
+        return units;
+    }
+    
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+    
+    @Override
+    public String toString() {
+        return start.toLocalTime() + "-" + end.toLocalTime() + ": " + transactions + " sales, "
+                + units + " items, ₱" + revenue;
+    }
+}
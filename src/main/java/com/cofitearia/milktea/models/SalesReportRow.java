@@ -0,0 +1,64 @@
+package com.cofitearia.milktea.models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * One row of a sales report: a period, category, product or cashier with its totals
+ * Revenue and quantities only count completed sales; voided sales are counted separately
+ */
+public class SalesReportRow {
+    private final String label;
+    private final int transactionCount;
+    private final int voidedCount;
+    private final int itemQuantity;
+    private final BigDecimal revenue;
+    
+    public SalesReportRow(String label, int transactionCount, int voidedCount, int itemQuantity, BigDecimal revenue) {
+        this.label = label;
+        this.transactionCount = transactionCount;
+        this.voidedCount = voidedCount;
+        this.itemQuantity = itemQuantity;
+        this.revenue = revenue != null ? revenue : BigDecimal.ZERO;
+    }
+    
+    public String getLabel() {
+        return label;
+    }
+    
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+    
+    public int getVoidedCount() {
+        return voidedCount;
+    }
+    
+    public int getItemQuantity() {
+        return itemQuantity;
+    }
+    
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+    
+    /**
+     * Share of transactions that were voided, from 0 to 1
+     */
+    public double getVoidRate() {
+        return transactionCount == 0 ? 0 : (double) voidedCount / transactionCount;
+    }
+    
+    /**
+     * Average revenue per completed transaction
+     */
+    public BigDecimal getAverageTicket() {
+        int completed = transactionCount - voidedCount;
+        return completed == 0 ? BigDecimal.ZERO : revenue.divide(BigDecimal.valueOf(completed), 2, RoundingMode.HALF_UP);
+    }
+    
+    @Override
+    public String toString() {
+        return label + ": ₱" + revenue + " (" + transactionCount + " transactions, " + voidedCount + " voided)";
+    }
+}
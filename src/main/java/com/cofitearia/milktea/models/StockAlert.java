@@ -0,0 +1,88 @@
+package com.cofitearia.milktea.models;
+
+import java.time.LocalDateTime;
+
+/**
+ * Stock alert event published when an inventory item crosses a stock threshold
+ * Carries both the old and new level so subscribers can react to escalations and recoveries
+ */
+public class StockAlert {
+    
+    public enum Level {
+        NORMAL("Adequate stock level"),
+        LOW("Low stock level"),
+        CRITICAL("Critical stock level");
+        
+        private final String displayName;
+        
+        Level(String displayName) {
+            this.displayName = displayName;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+    
+    private final int inventoryItemId;
+    private final String itemName;
+    private final Level previousLevel;
+    private final Level level;
+    private final int currentStock;
+    private final LocalDateTime timestamp;
+    
+    public StockAlert(int inventoryItemId, String itemName, Level previousLevel, Level level, int currentStock) {
+        this.inventoryItemId = inventoryItemId;
+        this.itemName = itemName;
+        this.previousLevel = previousLevel;
+        this.level = level;
+        this.currentStock = currentStock;
+        this.timestamp = LocalDateTime.now();
+    }
+    
+    public int getInventoryItemId() {
+        return inventoryItemId;
+    }
+    
+    public String getItemName() {
+        return itemName;
+    }
+    
+    public Level getPreviousLevel() {
+        return previousLevel;
+    }
+    
+    public Level getLevel() {
+        return level;
+    }
+    
+    public int getCurrentStock() {
+        return currentStock;
+    }
+    
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * Check if the stock situation got worse
+     */
+    public boolean isEscalation() {
+        return level.ordinal() > previousLevel.ordinal();
+    }
+    
+    /**
+     * Get alert text for status bars and screen readers
+     */
+    public String getAnnouncementText() {
+        if (isEscalation()) {
+            return level.getDisplayName() + ": " + itemName + " has " + currentStock + " left";
+        }
+        return itemName + " back to " + level.getDisplayName().toLowerCase() + " (" + currentStock + " in stock)";
+    }
+    
+    @Override
+    public String toString() {
+        return itemName + ": " + previousLevel + " -> " + level + " (" + currentStock + ")";
+    }
+}
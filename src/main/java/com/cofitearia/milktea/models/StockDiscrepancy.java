@@ -0,0 +1,62 @@
+package com.cofitearia.milktea.models;
+
+/**
+ * An inventory item whose recorded stock differs from what its snapshot and stock movements add up to
+ */
+public class StockDiscrepancy {
+    private final int itemId;
+    private final String itemName;
+    private final int recordedStock;
+    private final long ledgerStock;
+    private final int movements;
+    
+    public StockDiscrepancy(int itemId, String itemName, int recordedStock, long ledgerStock, int movements) {
+        this.itemId = itemId;
+        this.itemName = itemName;
+        this.recordedStock = recordedStock;
+        this.ledgerStock = ledgerStock;
+        this.movements = movements;
+    }
+    
+    public int getItemId() {
+        return itemId;
+    }
+    
+    public String getItemName() {
+        return itemName;
+    }
+    
+    /**
+     * inventory_items.current_stock when the item was checked
+     */
+    public int getRecordedStock() {
+        return recordedStock;
+    }
+    
+    /**
+     * Stock replayed from the item's latest snapshot and the movements since
+     */
+    public long getLedgerStock() {
+        return ledgerStock;
+    }
+    
+    /**
+     * Number of movements replayed on top of the snapshot
+     */
+    public int getMovements() {
+        return movements;
+    }
+    
+    /**
+     * Units the recorded stock is over (positive) or under (negative) the ledger
+     */
+    public long getDifference() {
+        return recordedStock - ledgerStock;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s (ID %d): recorded %d, ledger %d, difference %+d", itemName, itemId,
+                recordedStock, ledgerStock, getDifference());
+    }
+}
@@ -0,0 +1,68 @@
+package com.cofitearia.milktea.models;
+
+import java.util.List;
+
+/**
+ * Outcome of replaying the stock ledger against the recorded stock of every inventory item
+ */
+public class StockVerificationResult {
+    private final boolean completed;
+    private final int itemsChecked;
+    private final long movementsReplayed;
+    private final List<StockDiscrepancy> discrepancies;
+    private final int itemsCorrected;
+    private final long elapsedMillis;
+    
+    public StockVerificationResult(boolean completed, int itemsChecked, long movementsReplayed,
+                                   List<StockDiscrepancy> discrepancies, int itemsCorrected, long elapsedMillis) {
+        this.completed = completed;
+        this.itemsChecked = itemsChecked;
+        this.movementsReplayed = movementsReplayed;
+        this.discrepancies = List.copyOf(discrepancies);
+        this.itemsCorrected = itemsCorrected;
+        this.elapsedMillis = elapsedMillis;
+    }
+    
+    /**
+     * False if the check stopped early, e.g. on a database error
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+    
+    public int getItemsChecked() {
+        return itemsChecked;
+    }
+    
+    public long getMovementsReplayed() {
+        return movementsReplayed;
+    }
+    
+    /**
+     * Items whose recorded stock disagreed with the ledger, by item ID
+     */
+    public List<StockDiscrepancy> getDiscrepancies() {
+        return discrepancies;
+    }
+    
+    /**
+     * Items whose recorded stock was set to the ledger value; zero unless a rebuild was asked for
+     */
+    public int getItemsCorrected() {
+        return itemsCorrected;
+    }
+    
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    
+    @Override
+    public String toString() {
+        if (!completed) {
+            return "Stock verification stopped after " + elapsedMillis + " ms";
+        }
+        return "Checked " + itemsChecked + " items against " + movementsReplayed + " movements in " + elapsedMillis
+                + " ms: " + discrepancies.size() + " discrepancies"
+                + (itemsCorrected > 0 ? ", " + itemsCorrected + " corrected" : "");
+    }
+}
@@ -0,0 +1,57 @@
+package com.cofitearia.milktea.models;
+
+/**
+ * Outcome of a compare-and-set update of a row that other terminals may change at the same time
+ * An update only succeeds against the row version it was loaded with; a conflict hands back the row
+ * as it now stands so the change can be reviewed or reapplied.
+ */
+public class UpdateResult<T> {
+    
+    public enum Status {
+        UPDATED,
+        CONFLICT,
+        NOT_FOUND,
+        FAILED
+    }
+    
+    private final Status status;
+    private final T current;
+    private final int attempts;
+    
+    public UpdateResult(Status status, T current, int attempts) {
+        this.status = status;
+        this.current = current;
+        this.attempts = attempts;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public boolean isUpdated() {
+        return status == Status.UPDATED;
+    }
+    
+    public boolean isConflict() {
+        return status == Status.CONFLICT;
+    }
+    
+    /**
+     * The row as saved when updated, or as another terminal left it on a conflict; null otherwise
+     */
+    public T getCurrent() {
+        return current;
+    }
+    
+    /**
+     * Number of compare-and-set attempts made, more than one when a retry helper reapplied the change
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+    
+    @Override
+    public String toString() {
+        return status + (attempts > 1 ? " after " + attempts + " attempts" : "");
+    }
+}
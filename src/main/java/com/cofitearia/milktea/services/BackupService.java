@@ -0,0 +1,216 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.BackupResult;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Online backup service
+ * Copies the live database with the SQLite backup API a few pages at a time, pausing between steps
+ * so checkouts can take the write lock while a backup is running. Each copy is integrity-checked
+ * before it replaces anything, and only the newest few backups are kept. Archived sales months are
+ * mirrored into an archive directory next to the backups.
+ */
+public class BackupService {
+    private static final Logger logger = Logger.getLogger(BackupService.class.getName());
+    
+    private static final long FIRST_BACKUP_DELAY_MINUTES = 5;
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String PARTIAL_SUFFIX = ".part";
+    
+    private volatile int intervalHours = 24;
+    private volatile int keepCount = 7;
+    private volatile BackupResult lastResult;
+    
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> schedule;
+    
+    /**
+     * Hours between scheduled backups and how many backups to keep, usually from system settings
+     * A new interval takes effect right away when backups are running: the next one is taken an
+     * interval after the change.
+     */
+    public synchronized void setPolicy(int intervalHours, int keepCount) {
+        if (intervalHours < 1 || keepCount < 1) {
+            throw new IllegalArgumentException("Backup interval and number of backups kept must be at least one");
+        }
+        boolean intervalChanged = intervalHours != this.intervalHours;
+        this.intervalHours = intervalHours;
+        this.keepCount = keepCount;
+        if (intervalChanged && schedule != null) {
+            // A backup already running finishes; only the waits between them change
+            schedule.cancel(false);
+            long intervalMinutes = TimeUnit.HOURS.toMinutes(intervalHours);
+            schedule = executor.scheduleAtFixedRate(this::backupNow, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+    
+    /**
+     * Schedule backups shortly after startup and then every interval
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "database-backup");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        schedule = executor.scheduleAtFixedRate(this::backupNow, FIRST_BACKUP_DELAY_MINUTES,
+                TimeUnit.HOURS.toMinutes(intervalHours), TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Stop scheduled backups; a partial file left by an unfinished backup is removed by the next one
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            schedule = null;
+        }
+    }
+    
+    /**
+     * Result of the most recent backup, or null if none has run since startup
+     */
+    public BackupResult getLastResult() {
+        return lastResult;
+    }
+    
+    /**
+     * Directory the backups of the current database are written to
+     */
+    public Path getBackupDirectory() {
+        Path databaseFile = Main.getDatabaseManager().getDatabaseFile();
+        return databaseFile.resolveSibling(databaseFile.getFileName() + ".backups");
+    }
+    
+    /**
+     * Completed backups, newest first
+     */
+    public List<Path> listBackups() {
+        List<Path> backups = new ArrayList<>();
+        Path directory = getBackupDirectory();
+        if (!Files.isDirectory(directory)) {
+            return backups;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, backupPrefix() + "*.db")) {
+            stream.forEach(backups::add);
+        } catch (IOException e) {
+            logger.warning("Failed to list backups: " + e.getMessage());
+        }
+        // Timestamped names sort chronologically
+        backups.sort(Comparator.comparing((Path path) -> path.getFileName().toString()).reversed());
+        return backups;
+    }
+    
+    /**
+     * Back up the database now, verify the copy and prune old backups
+     */
+    public synchronized BackupResult backupNow() {
+        LocalDateTime startedAt = LocalDateTime.now();
+        long start = System.nanoTime();
+        Path directory = getBackupDirectory();
+        Path target = directory.resolve(backupPrefix() + startedAt.format(FILE_TIMESTAMP) + ".db");
+        Path partial = target.resolveSibling(target.getFileName() + PARTIAL_SUFFIX);
+        PacedCopy copy = new PacedCopy();
+        BackupResult result;
+        
+        try {
+            Files.createDirectories(directory);
+            removePartialFiles(directory);
+            
+            try (Connection conn = Main.getDatabaseManager().openConnection()) {
+                copy.copy(conn, partial.toString());
+            }
+            
+            String integrity = checkIntegrity(partial);
+            if (!"ok".equals(integrity)) {
+                throw new SQLException("Integrity check failed: " + integrity);
+            }
+            // Archived months are not in the main file; a backup is only complete with their files alongside
+            int archived = Main.getSalesArchive().copyPartitions(directory.resolve("archive"));
+            if (archived > 0) {
+                logger.info("Copied " + archived + " sales archive files to the backups");
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            result = new BackupResult(true, target, startedAt, copy.getPageCount(), Files.size(target),
+                    elapsedMillis, copy.getRestarts(), "ok");
+            logger.info(result.toString());
+            pruneBackups();
+        } catch (SQLException | IOException e) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            result = new BackupResult(false, null, startedAt, copy.getPageCount(), 0,
+                    elapsedMillis, copy.getRestarts(), e.getMessage());
+            logger.severe("Database backup failed: " + e.getMessage());
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+                // Removed before the next backup
+            }
+        }
+        
+        lastResult = result;
+        return result;
+    }
+    
+    private String backupPrefix() {
+        String name = Main.getDatabaseManager().getDatabaseFile().getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + "-";
+    }
+    
+    private String checkIntegrity(Path file) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA integrity_check")) {
+            // A damaged file reports one row per problem; the first is enough to reject it
+            return rs.next() ? rs.getString(1) : "no result";
+        }
+    }
+    
+    private void removePartialFiles(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + PARTIAL_SUFFIX)) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+    
+    private void pruneBackups() {
+        List<Path> backups = listBackups();
+        for (Path old : backups.subList(Math.min(keepCount, backups.size()), backups.size())) {
+            try {
+                Files.deleteIfExists(old);
+                logger.info("Removed old backup " + old.getFileName());
+            } catch (IOException e) {
+                logger.warning("Failed to remove old backup " + old + ": " + e.getMessage());
+            }
+        }
+    }
+}
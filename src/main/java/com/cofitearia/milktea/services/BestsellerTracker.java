@@ -0,0 +1,349 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.Bestseller;
+import com.cofitearia.milktea.models.Sale;
+import com.cofitearia.milktea.models.SaleItem;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Live bestseller rankings of drinks over the last hour and today
+ * Completed sales are streamed into five-minute buckets, each holding a Space-Saving summary of
+ * its heaviest products and a Count-Min sketch of all of them, so memory stays fixed however much
+ * is sold and an update costs the same at any volume. A ranking merges the buckets of its window;
+ * the last hour is resolved to the nearest five minutes.
+ */
+public class BestsellerTracker {
+    private static final Logger logger = Logger.getLogger(BestsellerTracker.class.getName());
+    
+    public static final String DRINK_CATEGORY = "Beverages";
+    
+    private static final long BUCKET_MILLIS = Duration.ofMinutes(5).toMillis();
+    // A day and an hour of buckets, so "today" is always covered whatever the time
+    private static final int BUCKET_COUNT = 24 * 12 + 12;
+    private static final int COUNTERS_PER_BUCKET = 32;
+    private static final int SKETCH_WIDTH = 512;
+    private static final int SKETCH_DEPTH = 4;
+    
+    private static final String TODAY_SQL = """
+        SELECT s.sale_date, si.product_id, p.name, si.quantity
+        FROM sales s
+        JOIN sale_items si ON si.sale_id = s.id
+        JOIN products p ON p.id = si.product_id
+        WHERE s.sale_date >= ? AND s.is_voided = 0 AND p.category = ?
+        """;
+    
+    /**
+     * Ranking windows
+     */
+    public enum Window {
+        LAST_HOUR("Last Hour"),
+        TODAY("Today");
+        
+        private final String displayName;
+        
+        Window(String displayName) {
+            this.displayName = displayName;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+        
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+    
+    private final Bucket[] buckets = new Bucket[BUCKET_COUNT];
+    private final Map<Integer, String> productNames = new HashMap<>();
+    
+    public BestsellerTracker() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+    
+    /**
+     * Replay today's drink sales, so rankings survive a restart
+     */
+    public void loadToday() {
+        LocalDate today = LocalDate.now();
+        int lines = 0;
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection();
+             PreparedStatement stmt = conn.prepareStatement(TODAY_SQL)) {
+            
+            stmt.setString(1, today.toString());
+            stmt.setString(2, DRINK_CATEGORY);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    LocalDateTime soldAt = LocalDateTime.parse(rs.getString("sale_date"), SalesService.SALE_DATE_FORMAT);
+                    add(toMillis(soldAt), rs.getInt("product_id"), rs.getString("name"), rs.getInt("quantity"));
+                    lines++;
+                }
+            }
+        } catch (SQLException e) {
+            logger.severe("Error loading today's bestsellers: " + e.getMessage());
+            return;
+        }
+        
+        logger.info("Bestseller tracker loaded " + lines + " sale lines from today");
+    }
+    
+    /**
+     * Count the drinks of a completed sale
+     */
+    public void record(Sale sale) {
+        if (sale.isVoided()) {
+            return;
+        }
+        long millis = toMillis(sale.getSaleDate());
+        for (SaleItem item : sale.getItems()) {
+            if (DRINK_CATEGORY.equals(item.getProduct().getCategory())) {
+                add(millis, item.getProduct().getId(), item.getProduct().getName(), item.getQuantity());
+            }
+        }
+    }
+    
+    /**
+     * Top drinks of a window, best-selling first
+     */
+    public List<Bestseller> getTopSellers(Window window, int limit) {
+        long now = System.currentTimeMillis();
+        long from = window == Window.LAST_HOUR
+                ? now - Duration.ofHours(1).toMillis()
+                : toMillis(LocalDate.now().atStartOfDay());
+        return topSellers(from, now, limit);
+    }
+    
+    private synchronized void add(long millis, int productId, String productName, int quantity) {
+        long slot = Math.floorDiv(millis, BUCKET_MILLIS);
+        Bucket bucket = buckets[(int) Math.floorMod(slot, (long) BUCKET_COUNT)];
+        if (bucket.slot != slot) {
+            if (bucket.slot > slot) {
+                return; // Older than anything still tracked
+            }
+            bucket.reset(slot);
+        }
+        bucket.summary.add(productId, quantity);
+        bucket.sketch.add(productId, quantity);
+        productNames.putIfAbsent(productId, productName);
+    }
+    
+    private synchronized List<Bestseller> topSellers(long fromMillis, long toMillis, int limit) {
+        long firstSlot = Math.floorDiv(fromMillis, BUCKET_MILLIS);
+        long lastSlot = Math.floorDiv(toMillis, BUCKET_MILLIS);
+        
+        List<Bucket> window = new ArrayList<>();
+        for (Bucket bucket : buckets) {
+            if (bucket.slot >= firstSlot && bucket.slot <= lastSlot) {
+                window.add(bucket);
+            }
+        }
+        
+        // Any product that is a heavy hitter of the window is a heavy hitter of at least one bucket
+        Set<Integer> candidates = new HashSet<>();
+        for (Bucket bucket : window) {
+            bucket.summary.forEach((productId, count) -> candidates.add(productId));
+        }
+        
+        List<Bestseller> ranking = new ArrayList<>();
+        for (int productId : candidates) {
+            long summaryBound = 0;
+            long sketchBound = 0;
+            for (Bucket bucket : window) {
+                summaryBound += bucket.summary.upperBound(productId);
+                sketchBound += bucket.sketch.estimate(productId);
+            }
+            ranking.add(new Bestseller(productId, productNames.get(productId), Math.min(summaryBound, sketchBound)));
+        }
+        
+        ranking.sort(Comparator.comparingLong(Bestseller::getQuantity).reversed()
+                .thenComparing(Bestseller::getProductName));
+        return ranking.size() > limit ? List.copyOf(ranking.subList(0, limit)) : ranking;
+    }
+    
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    /**
+     * Counts of one five-minute slot
+     */
+    private static class Bucket {
+        private long slot = Long.MIN_VALUE;
+        private final SpaceSaving summary = new SpaceSaving(COUNTERS_PER_BUCKET);
+        private final CountMinSketch sketch = new CountMinSketch(SKETCH_WIDTH, SKETCH_DEPTH);
+        
+        void reset(long newSlot) {
+            slot = newSlot;
+            summary.clear();
+            sketch.clear();
+        }
+    }
+    
+    /**
+     * Space-Saving summary: a fixed number of counters kept in a min-heap on count
+     * A product without a counter takes over the smallest one, inheriting its count as error, so
+     * every count is an upper bound and any product above total/capacity is guaranteed a counter.
+     */
+    private static class SpaceSaving {
+        private final int[] keys;
+        private final long[] counts;
+        private final Map<Integer, Integer> positions = new HashMap<>();
+        private int size;
+        
+        SpaceSaving(int capacity) {
+            keys = new int[capacity];
+            counts = new long[capacity];
+        }
+        
+        void add(int key, long weight) {
+            Integer position = positions.get(key);
+            if (position != null) {
+                counts[position] += weight;
+                siftDown(position);
+            } else if (size < keys.length) {
+                keys[size] = key;
+                counts[size] = weight;
+                positions.put(key, size);
+                siftUp(size++);
+            } else {
+                positions.remove(keys[0]);
+                keys[0] = key;
+                counts[0] += weight;
+                positions.put(key, 0);
+                siftDown(0);
+            }
+        }
+        
+        /**
+         * Most the product can have been counted: its counter, or the smallest counter if it was evicted
+         */
+        long upperBound(int key) {
+            Integer position = positions.get(key);
+            if (position != null) {
+                return counts[position];
+            }
+            return size < keys.length ? 0 : counts[0];
+        }
+        
+        void forEach(CounterConsumer consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(keys[i], counts[i]);
+            }
+        }
+        
+        void clear() {
+            positions.clear();
+            size = 0;
+        }
+        
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) / 2;
+                if (counts[parent] <= counts[position]) {
+                    return;
+                }
+                swap(parent, position);
+                position = parent;
+            }
+        }
+        
+        private void siftDown(int position) {
+            while (true) {
+                int smallest = position;
+                int left = 2 * position + 1;
+                int right = left + 1;
+                if (left < size && counts[left] < counts[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && counts[right] < counts[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == position) {
+                    return;
+                }
+                swap(smallest, position);
+                position = smallest;
+            }
+        }
+        
+        private void swap(int a, int b) {
+            int key = keys[a];
+            long count = counts[a];
+            keys[a] = keys[b];
+            counts[a] = counts[b];
+            keys[b] = key;
+            counts[b] = count;
+            positions.put(keys[a], a);
+            positions.put(keys[b], b);
+        }
+    }
+    
+    @FunctionalInterface
+    private interface CounterConsumer {
+        void accept(int key, long count);
+    }
+    
+    /**
+     * Count-Min sketch: a few rows of counters, each product hashed to one counter per row
+     * The smallest of its counters never undercounts a product and overcounts by little.
+     */
+    private static class CountMinSketch {
+        private static final long PRIME = (1L << 31) - 1;
+        private static final long[] SEEDS_A = {0x5bd1e995L, 0x27d4eb2fL, 0x165667b1L, 0x61c88647L};
+        private static final long[] SEEDS_B = {0x9e3779b9L, 0x85ebca6bL, 0xc2b2ae35L, 0x7feb352dL};
+        
+        private final long[][] counters;
+        
+        CountMinSketch(int width, int depth) {
+            counters = new long[Math.min(depth, SEEDS_A.length)][width];
+        }
+        
+        void add(int key, long weight) {
+            for (int row = 0; row < counters.length; row++) {
+                counters[row][column(row, key)] += weight;
+            }
+        }
+        
+        long estimate(int key) {
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < counters.length; row++) {
+                estimate = Math.min(estimate, counters[row][column(row, key)]);
+            }
+            return estimate;
+        }
+        
+        void clear() {
+            for (long[] row : counters) {
+                Arrays.fill(row, 0);
+            }
+        }
+        
+        private int column(int row, int key) {
+            long hash = (SEEDS_A[row] * (key & 0x7fffffffL) + SEEDS_B[row]) % PRIME;
+            return (int) (hash % counters[row].length);
+        }
+    }
+}
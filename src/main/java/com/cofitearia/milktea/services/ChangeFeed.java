@@ -0,0 +1,294 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Change feed that keeps this terminal's caches in line with other terminals sharing the database file
+ * Triggers append every change to products, inventory items and lots, recipes and system settings to
+ * change_log. The feed polls PRAGMA data_version, which only moves when another connection commits,
+ * and reads the log past the last entry it handled only then, so an idle shop costs one pragma per
+ * poll. Each change patches what is cached about that one row: stock alert levels, expiry deadlines,
+ * lot heaps, compiled recipes and the settings the services run with. Changes made by this terminal
+ * come back as well and just re-read rows that are already current.
+ */
+public class ChangeFeed {
+    private static final Logger logger = Logger.getLogger(ChangeFeed.class.getName());
+    
+    private static final long MIN_POLL_MILLIS = 100;
+    private static final int BATCH_SIZE = 1000;
+    // Entries are kept this long; a terminal that falls further behind reloads its caches instead
+    private static final int KEEP_HOURS = 24;
+    private static final long PRUNE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    
+    /**
+     * One entry of change_log
+     * @param rowId key of the changed row in its cache: the row's own ID, the inventory item of a lot
+     *              or the product of a recipe component
+     */
+    public record Change(long id, String table, int rowId, String operation) {
+    }
+    
+    /**
+     * Subscriber for changes, e.g. screens that show products or stock
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+        /**
+         * Called on the feed thread with the changes found by one poll, oldest first
+         */
+        void onChanges(List<Change> changes);
+        
+        /**
+         * Called instead when changes were pruned from the log before this terminal read them, so
+         * anything may have changed
+         */
+        default void onResync() {
+        }
+    }
+    
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long pollMillis = 1000;
+    private Connection watch;
+    private long lastVersion;
+    private long lastChangeId;
+    private long prunedAt;
+    
+    private ScheduledExecutorService executor;
+    
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Milliseconds between polls, the longest a change made elsewhere stays unnoticed; usually from
+     * system settings
+     */
+    public void setPollMillis(long pollMillis) {
+        if (pollMillis < MIN_POLL_MILLIS) {
+            throw new IllegalArgumentException("Change feed must poll at most every " + MIN_POLL_MILLIS + " ms");
+        }
+        this.pollMillis = pollMillis;
+    }
+    
+    /**
+     * Start polling from the current end of the change log
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::poll);
+    }
+    
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (watch != null) {
+            try {
+                watch.close();
+            } catch (SQLException e) {
+                logger.warning("Failed to close change feed connection: " + e.getMessage());
+            }
+            watch = null;
+        }
+    }
+    
+    private void poll() {
+        try {
+            if (watch == null) {
+                // The caches were just loaded, so only later changes matter
+                watch = Main.getDatabaseManager().openConnection();
+                lastVersion = dataVersion();
+                lastChangeId = queryLong("SELECT COALESCE(MAX(id), 0) FROM change_log");
+            } else {
+                long version = dataVersion();
+                if (version != lastVersion) {
+                    // Taken before reading, so a commit made meanwhile is picked up by the next poll
+                    lastVersion = version;
+                    readChanges();
+                }
+            }
+            pruneIfDue();
+        } catch (SQLException e) {
+            logger.warning("Failed to read the change log: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Keep polling
+            logger.severe("Unexpected error applying changes from other terminals: " + e.getMessage());
+        } finally {
+            reschedule();
+        }
+    }
+    
+    private synchronized void reschedule() {
+        if (executor != null && !executor.isShutdown()) {
+            executor.schedule(this::poll, pollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void readChanges() throws SQLException {
+        if (queryLong("SELECT COALESCE(MIN(id), 0) FROM change_log") > lastChangeId + 1) {
+            lastChangeId = queryLong("SELECT COALESCE(MAX(id), 0) FROM change_log");
+            resync();
+            return;
+        }
+        
+        String sql = "SELECT id, table_name, row_id, operation FROM change_log WHERE id > ? ORDER BY id LIMIT ?";
+        List<Change> changes = new ArrayList<>();
+        long readThrough = lastChangeId;
+        int read;
+        do {
+            read = 0;
+            try (PreparedStatement stmt = watch.prepareStatement(sql)) {
+                stmt.setLong(1, readThrough);
+                stmt.setInt(2, BATCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Change change = new Change(rs.getLong("id"), rs.getString("table_name"),
+                                rs.getInt("row_id"), rs.getString("operation"));
+                        changes.add(change);
+                        readThrough = change.id();
+                        read++;
+                    }
+                }
+            }
+        } while (read == BATCH_SIZE);
+        
+        if (!changes.isEmpty()) {
+            apply(changes);
+            // Only once applied, so a batch that failed is read again after the next commit
+            lastChangeId = readThrough;
+        }
+    }
+    
+    /**
+     * Patch the caches for a batch of changes, once per changed row
+     */
+    private void apply(List<Change> changes) throws SQLException {
+        Set<Integer> items = new LinkedHashSet<>();
+        Set<Integer> lotItems = new LinkedHashSet<>();
+        boolean recipesChanged = false;
+        boolean settingsChanged = false;
+        
+        for (Change change : changes) {
+            switch (change.table()) {
+                case "inventory_items" -> {
+                    items.add(change.rowId());
+                    // New and removed items change which inventory a product draws from
+                    recipesChanged |= !"UPDATE".equals(change.operation());
+                }
+                case "inventory_lots" -> lotItems.add(change.rowId());
+                case "products", "recipe_components", "inventory_links" -> recipesChanged = true;
+                case "system_settings" -> settingsChanged = true;
+                default -> {
+                }
+            }
+        }
+        
+        if (recipesChanged) {
+            Main.getRecipeService().invalidateAll();
+        }
+        lotItems.forEach(Main.getLotService()::invalidate);
+        
+        // Read on the feed's own connection; the shared one belongs to the screens
+        InventoryService inventoryService = new InventoryService();
+        for (int itemId : items) {
+            inventoryService.publishStockChange(watch, itemId);
+        }
+        
+        if (settingsChanged) {
+            Main.applySettings(watch);
+        }
+        
+        for (ChangeListener listener : listeners) {
+            listener.onChanges(List.copyOf(changes));
+        }
+        logger.fine("Applied " + changes.size() + " changes from the change log");
+    }
+    
+    /**
+     * Drop every cache the feed patches after falling too far behind to patch them one row at a time
+     */
+    private void resync() throws SQLException {
+        logger.warning("Change log was pruned past this terminal's position; reloading cached data");
+        Main.getRecipeService().invalidateAll();
+        Main.getLotService().invalidateAll();
+        
+        List<Integer> itemIds = new ArrayList<>();
+        try (Statement stmt = watch.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id FROM inventory_items")) {
+            while (rs.next()) {
+                itemIds.add(rs.getInt(1));
+            }
+        }
+        InventoryService inventoryService = new InventoryService();
+        for (int itemId : itemIds) {
+            inventoryService.publishStockChange(watch, itemId);
+        }
+        Main.applySettings(watch);
+        
+        for (ChangeListener listener : listeners) {
+            listener.onResync();
+        }
+    }
+    
+    /**
+     * Delete entries every terminal has long read, at most once an hour
+     */
+    private void pruneIfDue() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - prunedAt < PRUNE_INTERVAL_MILLIS) {
+            return;
+        }
+        prunedAt = now;
+        
+        try (PreparedStatement stmt = watch.prepareStatement(
+                "DELETE FROM change_log WHERE date_created < datetime('now', ?)")) {
+            stmt.setString(1, "-" + KEEP_HOURS + " hours");
+            int pruned = stmt.executeUpdate();
+            if (pruned > 0) {
+                logger.info("Pruned " + pruned + " change log entries older than " + KEEP_HOURS + " hours");
+            }
+        }
+    }
+    
+    /**
+     * Counter that changes whenever another connection commits to the database
+     */
+    private long dataVersion() throws SQLException {
+        return queryLong("PRAGMA data_version");
+    }
+    
+    private long queryLong(String sql) throws SQLException {
+        try (Statement stmt = watch.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.models.ExpiryAlert;
+import com.cofitearia.milktea.models.ExpiryAlert.Stage;
+import com.cofitearia.milktea.models.InventoryItem;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * In-memory expiry scheduler for perishable inventory
+ * Keeps a priority queue of upcoming "expiring soon" and "expired" deadlines keyed on the
+ * expiration date, sleeps until the next one is due and never rescans the inventory table
+ */
+public class ExpiryScheduler {
+    private static final Logger logger = Logger.getLogger(ExpiryScheduler.class.getName());
+    
+    /**
+     * Subscriber for expiry alert events
+     */
+    @FunctionalInterface
+    public interface ExpiryListener {
+        void onExpiryAlert(ExpiryAlert alert);
+    }
+    
+    private record Deadline(LocalDate fireDate, int itemId, LocalDate expirationDate) {
+    }
+    
+    private static class TrackedItem {
+        private final int itemId;
+        private final String name;
+        private final LocalDate expirationDate;
+        private Stage stage;
+        
+        TrackedItem(int itemId, String name, LocalDate expirationDate, Stage stage) {
+            this.itemId = itemId;
+            this.name = name;
+            this.expirationDate = expirationDate;
+            this.stage = stage;
+        }
+        
+        ExpiryAlert toAlert() {
+            return new ExpiryAlert(itemId, name, expirationDate, stage);
+        }
+    }
+    
+    private final Map<Integer, TrackedItem> trackedItems = new HashMap<>();
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>(Comparator.comparing(Deadline::fireDate));
+    private final List<ExpiryListener> listeners = new CopyOnWriteArrayList<>();
+    private int warningDays = InventoryItem.DEFAULT_EXPIRY_WARNING_DAYS;
+    
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> wakeUp;
+    
+    public void addListener(ExpiryListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(ExpiryListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Start the background timer that fires deadlines as they fall due
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "expiry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleWakeUp();
+        logger.info("Expiry scheduler started with " + trackedItems.size() + " perishable items");
+    }
+    
+    /**
+     * Stop the background timer
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            wakeUp = null;
+        }
+    }
+    
+    public synchronized int getWarningDays() {
+        return warningDays;
+    }
+    
+    /**
+     * Change the "expiring soon" window and re-plan every tracked item
+     */
+    public void setWarningDays(int warningDays) {
+        if (warningDays < 1) {
+            throw new IllegalArgumentException("Warning window must be at least one day");
+        }
+        
+        List<ExpiryAlert> alerts;
+        synchronized (this) {
+            this.warningDays = warningDays;
+            List<TrackedItem> items = new ArrayList<>(trackedItems.values());
+            trackedItems.clear();
+            deadlines.clear();
+            
+            alerts = new ArrayList<>();
+            for (TrackedItem item : items) {
+                ExpiryAlert alert = trackItem(item.itemId, item.name, item.expirationDate, item.stage);
+                if (alert != null) {
+                    alerts.add(alert);
+                }
+            }
+            scheduleWakeUp();
+        }
+        alerts.forEach(this::publish);
+    }
+    
+    /**
+     * Load perishable items, typically from InventoryService.getPerishableItems()
+     */
+    public void load(List<InventoryItem> items) {
+        List<ExpiryAlert> alerts = new ArrayList<>();
+        synchronized (this) {
+            for (InventoryItem item : items) {
+                ExpiryAlert alert = trackItem(item.getId(), item.getProduct().getName(), item.getExpirationDate(), null);
+                if (alert != null) {
+                    alerts.add(alert);
+                }
+            }
+            scheduleWakeUp();
+        }
+        alerts.forEach(this::publish);
+    }
+    
+    /**
+     * Start or update tracking of an item after its expiration date or stock changed
+     * A null expiration date stops tracking
+     */
+    public void track(int itemId, String itemName, LocalDate expirationDate) {
+        ExpiryAlert alert;
+        synchronized (this) {
+            if (expirationDate == null) {
+                untrack(itemId);
+                return;
+            }
+            
+            TrackedItem previous = trackedItems.get(itemId);
+            if (previous != null && previous.expirationDate.equals(expirationDate)) {
+                return;
+            }
+            alert = trackItem(itemId, itemName, expirationDate, null);
+            scheduleWakeUp();
+        }
+        if (alert != null) {
+            publish(alert);
+        }
+    }
+    
+    /**
+     * Stop tracking an item, e.g. when it is sold out or deactivated
+     * Its pending deadlines are dropped lazily when they come up
+     */
+    public synchronized void untrack(int itemId) {
+        trackedItems.remove(itemId);
+    }
+    
+    /**
+     * Get the current expiry list: every tracked item that is expiring soon or expired, soonest first
+     */
+    public synchronized List<ExpiryAlert> getExpiringItems() {
+        List<ExpiryAlert> items = new ArrayList<>();
+        for (TrackedItem item : trackedItems.values()) {
+            if (item.stage != Stage.FRESH) {
+                items.add(item.toAlert());
+            }
+        }
+        items.sort(Comparator.comparing(ExpiryAlert::getExpirationDate));
+        return items;
+    }
+    
+    /**
+     * Fire every deadline that is due today or earlier
+     * Runs on the scheduler thread, but can also be called directly when the scheduler is not started
+     */
+    public void checkDeadlines() {
+        List<ExpiryAlert> alerts = new ArrayList<>();
+        synchronized (this) {
+            LocalDate today = LocalDate.now();
+            while (!deadlines.isEmpty() && !deadlines.peek().fireDate().isAfter(today)) {
+                Deadline deadline = deadlines.poll();
+                TrackedItem item = trackedItems.get(deadline.itemId());
+                
+                // Skip deadlines of items that were untracked or re-dated since they were queued
+                if (item == null || !item.expirationDate.equals(deadline.expirationDate())) {
+                    continue;
+                }
+                
+                Stage stage = stageOn(item.expirationDate, today);
+                if (stage.ordinal() > item.stage.ordinal()) {
+                    item.stage = stage;
+                    alerts.add(item.toAlert());
+                }
+            }
+            scheduleWakeUp();
+        }
+        alerts.forEach(this::publish);
+    }
+    
+    /**
+     * Track an item and queue its future deadlines; caller holds the lock
+     * @return an alert if the item is already past a deadline it had not been reported for
+     */
+    private ExpiryAlert trackItem(int itemId, String name, LocalDate expirationDate, Stage reportedStage) {
+        if (expirationDate == null) {
+            return null;
+        }
+        
+        LocalDate today = LocalDate.now();
+        Stage stage = stageOn(expirationDate, today);
+        trackedItems.put(itemId, new TrackedItem(itemId, name, expirationDate, stage));
+        
+        if (stage == Stage.FRESH) {
+            deadlines.add(new Deadline(warningDate(expirationDate), itemId, expirationDate));
+        }
+        if (stage != Stage.EXPIRED) {
+            deadlines.add(new Deadline(expirationDate.plusDays(1), itemId, expirationDate));
+        }
+        
+        boolean alreadyReported = reportedStage != null && reportedStage.ordinal() >= stage.ordinal();
+        return stage != Stage.FRESH && !alreadyReported ? new ExpiryAlert(itemId, name, expirationDate, stage) : null;
+    }
+    
+    /**
+     * First day on which an item counts as expiring soon
+     */
+    private LocalDate warningDate(LocalDate expirationDate) {
+        return expirationDate.minusDays(warningDays - 1L);
+    }
+    
+    private Stage stageOn(LocalDate expirationDate, LocalDate today) {
+        if (expirationDate.isBefore(today)) {
+            return Stage.EXPIRED;
+        } else if (!today.isBefore(warningDate(expirationDate))) {
+            return Stage.EXPIRING_SOON;
+        }
+        return Stage.FRESH;
+    }
+    
+    /**
+     * Sleep until the earliest queued deadline; caller holds the lock
+     */
+    private void scheduleWakeUp() {
+        if (executor == null) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+        if (deadlines.isEmpty()) {
+            return;
+        }
+        
+        LocalDateTime fireTime = deadlines.peek().fireDate().atStartOfDay();
+        long delay = Math.max(0, Duration.between(LocalDateTime.now(), fireTime).toMillis());
+        wakeUp = executor.schedule(this::checkDeadlines, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    private void publish(ExpiryAlert alert) {
+        logger.info("Expiry alert: " + alert);
+        for (ExpiryListener listener : listeners) {
+            try {
+                listener.onExpiryAlert(alert);
+            } catch (RuntimeException e) {
+                logger.warning("Expiry listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.logging.Logger;
+
+/**
+ * Export service for sales, sale items, stock movements and inventory
+ * Rows are copied straight from a forward-only result set into the file as CSV or as JSON through
+ * Jackson's streaming generator, so memory stays the same however many rows are exported. Exports
+ * open their own connection to the in-memory read replica, are meant to run off the FX thread and
+ * stop when it is interrupted.
+ */
+public class ExportService {
+    private static final Logger logger = Logger.getLogger(ExportService.class.getName());
+    
+    // Rows between progress reports
+    private static final int PROGRESS_INTERVAL = 2000;
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    
+    /**
+     * Data that can be exported; all but the inventory snapshot take a date range
+     * Dated queries name their sales tables with the schema %1$s, so they can also run on archived months.
+     */
+    public enum Dataset {
+        SALES("Sales", true,
+            """
+            SELECT s.id, s.transaction_number, s.sale_date, s.subtotal, s.tax, s.discount, s.total,
+                   s.payment_method, s.cashier_id, u.username AS cashier, s.customer_info, s.notes,
+                   s.is_voided, s.accessibility_assistance_used
+            FROM %1$s.sales s
+            LEFT JOIN users u ON u.id = s.cashier_id
+            WHERE s.sale_date >= ? AND s.sale_date < ?
+            ORDER BY s.sale_date, s.id
+            """,
+            "SELECT COUNT(*) FROM %1$s.sales WHERE sale_date >= ? AND sale_date < ?"),
+        SALE_ITEMS("Sale Items", true,
+            """
+            SELECT si.id, si.sale_id, s.transaction_number, s.sale_date, si.product_id, p.name AS product,
+                   p.category, si.quantity, si.unit_price, si.total_price, s.is_voided
+            FROM %1$s.sales s
+            JOIN %1$s.sale_items si ON si.sale_id = s.id
+            JOIN products p ON p.id = si.product_id
+            WHERE s.sale_date >= ? AND s.sale_date < ?
+            ORDER BY s.sale_date, s.id, si.id
+            """,
+            """
+            SELECT COUNT(*) FROM %1$s.sales s JOIN %1$s.sale_items si ON si.sale_id = s.id
+            WHERE s.sale_date >= ? AND s.sale_date < ?
+            """),
+        STOCK_MOVEMENTS("Stock Movements", true,
+            """
+            SELECT m.id, m.date_created, m.inventory_item_id, p.name AS product, m.movement_type,
+                   m.quantity, m.reason, m.lot_id, m.user_id, u.username AS user
+            FROM %1$s.stock_movements m
+            JOIN inventory_items i ON i.id = m.inventory_item_id
+            JOIN products p ON p.id = i.product_id
+            LEFT JOIN users u ON u.id = m.user_id
+            WHERE m.date_created >= ? AND m.date_created < ?
+            ORDER BY m.id
+            """,
+            "SELECT COUNT(*) FROM %1$s.stock_movements WHERE date_created >= ? AND date_created < ?"),
+        INVENTORY("Inventory Snapshot", false,
+            """
+            SELECT i.id, i.product_id, p.name AS product, p.category, i.current_stock, i.minimum_stock,
+                   i.maximum_stock, i.stock_status, i.cost_price, i.expiration_date, i.supplier,
+                   i.location, i.last_restocked
+            FROM inventory_items i
+            JOIN products p ON p.id = i.product_id
+            WHERE i.is_active = 1
+            ORDER BY p.name
+            """,
+            "SELECT COUNT(*) FROM inventory_items WHERE is_active = 1");
+        
+        private final String displayName;
+        private final boolean dated;
+        private final String sql;
+        private final String countSql;
+        
+        Dataset(String displayName, boolean dated, String sql, String countSql) {
+            this.displayName = displayName;
+            this.dated = dated;
+            this.sql = sql;
+            this.countSql = countSql;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+        
+        public boolean isDated() {
+            return dated;
+        }
+        
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+    
+    public enum Format {
+        CSV("CSV", "csv"),
+        JSON("JSON", "json");
+        
+        private final String displayName;
+        private final String extension;
+        
+        Format(String displayName, String extension) {
+            this.displayName = displayName;
+            this.extension = extension;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+        
+        public String getExtension() {
+            return extension;
+        }
+        
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+    
+    /**
+     * Receives the rows written so far and the rows expected in total
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(long rowsWritten, long totalRows);
+    }
+    
+    /**
+     * Export a dataset from one date up to and including another into a file
+     * The file is written beside the target and only moved into place once complete, so a failed
+     * or cancelled export never leaves a partial file behind.
+     * @return true if every row was exported
+     */
+    public boolean export(Dataset dataset, Format format, LocalDate from, LocalDate to, Path target,
+                          ProgressListener listener) {
+        long start = System.nanoTime();
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        long rows;
+        
+        try (Connection conn = Main.getReadReplica().openConnection()) {
+            long total = countRows(conn, dataset, from, to);
+            listener.progress(0, total);
+            
+            try (OutputStream out = Files.newOutputStream(partial);
+                 RowWriter writer = format == Format.CSV
+                         ? new CsvRowWriter(out, total, listener)
+                         : new JsonRowWriter(out, total, listener)) {
+                if (dataset.isDated()) {
+                    Main.getSalesArchive().forEachSegment(conn, from, to.plusDays(1),
+                            schema -> writeRows(conn, dataset, schema, from, to, writer));
+                } else {
+                    writeRows(conn, dataset, "main", from, to, writer);
+                }
+                rows = writer.isCancelled() ? -1 : writer.rows;
+            }
+            
+            if (rows < 0) {
+                Files.deleteIfExists(partial);
+                logger.info(dataset.getDisplayName() + " export cancelled");
+                return false;
+            }
+            moveIntoPlace(partial, target);
+            listener.progress(rows, Math.max(rows, total));
+        } catch (SQLException | IOException e) {
+            logger.severe("Error exporting " + dataset.getDisplayName() + ": " + e.getMessage());
+            deleteQuietly(partial);
+            return false;
+        }
+        
+        logger.info(dataset.getDisplayName() + " export: " + rows + " rows to " + target + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return true;
+    }
+    
+    /**
+     * Suggested file name for an export, e.g. sales_2024-01-01_2024-01-31.csv
+     */
+    public static String defaultFileName(Dataset dataset, Format format, LocalDate from, LocalDate to) {
+        String name = dataset.name().toLowerCase();
+        String range = dataset.isDated() ? "_" + from + "_" + to : "_" + LocalDate.now();
+        return name + range + "." + format.getExtension();
+    }
+    
+    /**
+     * Write the rows of one copy of the dataset's tables, unless the export was already cancelled
+     */
+    private void writeRows(Connection conn, Dataset dataset, String schema, LocalDate from, LocalDate to,
+                           RowWriter writer) throws SQLException, IOException {
+        if (writer.isCancelled()) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(dataset.sql.formatted(schema))) {
+            stmt.setFetchSize(1024);
+            bindRange(stmt, dataset, from, to);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                writer.writeAll(rs);
+            }
+        }
+    }
+    
+    private long countRows(Connection conn, Dataset dataset, LocalDate from, LocalDate to)
+            throws SQLException, IOException {
+        long[] total = {0};
+        SalesArchive.SegmentQuery count = schema -> {
+            try (PreparedStatement stmt = conn.prepareStatement(dataset.countSql.formatted(schema))) {
+                bindRange(stmt, dataset, from, to);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    total[0] += rs.next() ? rs.getLong(1) : 0;
+                }
+            }
+        };
+        
+        if (dataset.isDated()) {
+            Main.getSalesArchive().forEachSegment(conn, from, to.plusDays(1), count);
+        } else {
+            count.run("main");
+        }
+        return total[0];
+    }
+    
+    private void bindRange(PreparedStatement stmt, Dataset dataset, LocalDate from, LocalDate to) throws SQLException {
+        if (dataset.isDated()) {
+            stmt.setString(1, from.toString());
+            stmt.setString(2, to.plusDays(1).toString());
+        }
+    }
+    
+    /**
+     * Amounts come back from SQLite as doubles; print them without binary noise or exponents
+     */
+    private static String formatValue(Object value) {
+        return value instanceof Double number ? BigDecimal.valueOf(number).toPlainString() : value.toString();
+    }
+    
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    
+    private static void moveIntoPlace(Path partial, Path target) throws IOException {
+        try {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warning("Could not delete partial export " + path + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Writes rows from one or more result sets with the same columns into one file, reporting progress
+     */
+    private abstract static class RowWriter implements Closeable {
+        private final long total;
+        private final ProgressListener listener;
+        private boolean cancelled;
+        long rows;
+        
+        RowWriter(long total, ProgressListener listener) {
+            this.total = total;
+            this.listener = listener;
+        }
+        
+        boolean isCancelled() {
+            return cancelled;
+        }
+        
+        /**
+         * Write every row of a result set, stopping if the thread is interrupted
+         */
+        void writeAll(ResultSet rs) throws SQLException, IOException {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                writeRow(rs, meta);
+                if (++rows % PROGRESS_INTERVAL == 0) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        cancelled = true;
+                        return;
+                    }
+                    listener.progress(rows, total);
+                }
+            }
+            // An empty result set still names the columns
+            writeRow(null, meta);
+        }
+        
+        /**
+         * Write one row, or only the column names if they are not written yet when rs is null
+         */
+        abstract void writeRow(ResultSet rs, ResultSetMetaData meta) throws SQLException, IOException;
+    }
+    
+    /**
+     * CSV with a header row
+     */
+    private static class CsvRowWriter extends RowWriter {
+        private final BufferedWriter writer;
+        private boolean headerWritten;
+        
+        CsvRowWriter(OutputStream out, long total, ProgressListener listener) {
+            super(total, listener);
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        }
+        
+        @Override
+        void writeRow(ResultSet rs, ResultSetMetaData meta) throws SQLException, IOException {
+            int columns = meta.getColumnCount();
+            if (!headerWritten) {
+                for (int i = 1; i <= columns; i++) {
+                    if (i > 1) {
+                        writer.write(',');
+                    }
+                    writer.write(csvField(meta.getColumnLabel(i)));
+                }
+                writer.write("\r\n");
+                headerWritten = true;
+            }
+            if (rs == null) {
+                return;
+            }
+            
+            for (int i = 1; i <= columns; i++) {
+                if (i > 1) {
+                    writer.write(',');
+                }
+                Object value = rs.getObject(i);
+                if (value != null) {
+                    writer.write(csvField(formatValue(value)));
+                }
+            }
+            writer.write("\r\n");
+        }
+        
+        @Override
+        public void close() throws IOException {
+            writer.flush();
+        }
+    }
+    
+    /**
+     * A JSON array with one object per row
+     */
+    private static class JsonRowWriter extends RowWriter {
+        private final JsonGenerator json;
+        // Field names are encoded once rather than for every row
+        private SerializableString[] names;
+        
+        JsonRowWriter(OutputStream out, long total, ProgressListener listener) throws IOException {
+            super(total, listener);
+            json = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+            json.writeStartArray();
+        }
+        
+        @Override
+        void writeRow(ResultSet rs, ResultSetMetaData meta) throws SQLException, IOException {
+            int columns = meta.getColumnCount();
+            if (names == null) {
+                names = new SerializableString[columns + 1];
+                for (int i = 1; i <= columns; i++) {
+                    names[i] = new SerializedString(meta.getColumnLabel(i));
+                }
+            }
+            if (rs == null) {
+                return;
+            }
+            
+            json.writeStartObject();
+            for (int i = 1; i <= columns; i++) {
+                json.writeFieldName(names[i]);
+                Object value = rs.getObject(i);
+                if (value == null) {
+                    json.writeNull();
+                } else if (value instanceof Integer || value instanceof Long) {
+                    json.writeNumber(((Number) value).longValue());
+                } else if (value instanceof Double number) {
+                    json.writeNumber(BigDecimal.valueOf(number));
+                } else {
+                    json.writeString(value.toString());
+                }
+            }
+            json.writeEndObject();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            json.writeEndArray();
+            json.close();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.DemandForecast;
+import com.cofitearia.milktea.models.InventoryItem;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Demand forecasting service
+ * Keeps a per-item forecast of daily consumption, built from the OUT stock movements that checkouts
+ * record for every recipe ingredient. Completed days are folded in incrementally; once a night every
+ * forecast is rebuilt from the full history, with the items split across a fork/join pool.
+ */
+public class ForecastService {
+    private static final Logger logger = Logger.getLogger(ForecastService.class.getName());
+    
+    private static final double LEVEL_SMOOTHING = 0.2;
+    private static final double SEASONAL_SMOOTHING = 0.1;
+    // Safety factor for a ~95% service level; MAE * 1.25 approximates the standard deviation
+    private static final double SAFETY_Z = 1.65;
+    private static final double MAE_TO_SIGMA = 1.25;
+    private static final int ITEMS_PER_TASK = 16;
+    
+    // %s is the schema of the stock movements, so archived months are read the same way
+    private static final String DAILY_DEMAND_SQL = """
+        SELECT inventory_item_id, date(date_created, 'localtime') AS day, SUM(quantity) AS demand
+        FROM %s.stock_movements
+        WHERE movement_type = 'OUT'
+          AND date(date_created, 'localtime') > ? AND date(date_created, 'localtime') < ?
+        GROUP BY inventory_item_id, day
+        """;
+    
+    // Days whose movements were compacted only have their totals left
+    private static final String COMPACTED_DEMAND_SQL = """
+        SELECT inventory_item_id, day, quantity AS demand
+        FROM stock_movement_summaries
+        WHERE movement_type = 'OUT' AND day > ? AND day < ?
+        """;
+    
+    // Read by the UI without taking the lock, which rebuilds hold while they query; a full rebuild
+    // swaps in a new map so readers never see it half filled
+    private volatile Map<Integer, DemandForecast> forecasts = new ConcurrentHashMap<>();
+    private volatile int leadTimeDays = 3;
+    private volatile int reviewPeriodDays = 7;
+    
+    private ScheduledExecutorService executor;
+    
+    /**
+     * Lead time and review period of the reorder policy, usually from system settings
+     */
+    public void setPolicy(int leadTimeDays, int reviewPeriodDays) {
+        if (leadTimeDays < 0 || reviewPeriodDays < 1) {
+            throw new IllegalArgumentException("Lead time must be non-negative and the review period at least one day");
+        }
+        this.leadTimeDays = leadTimeDays;
+        this.reviewPeriodDays = reviewPeriodDays;
+    }
+    
+    /**
+     * Load the stored forecasts, catch up on the days since they were saved and schedule the nightly rebuild
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        load();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "demand-forecast");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::update);
+        scheduleNightlyRebuild();
+    }
+    
+    /**
+     * Stop the background rebuilds
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+    
+    /**
+     * Get the forecast of an item, or null if it has no sales history
+     */
+    public DemandForecast getForecast(int itemId) {
+        return forecasts.get(itemId);
+    }
+    
+    /**
+     * Stock level at which an item should be reordered: lead-time demand plus safety stock
+     * @return the reorder point, or null while the item's forecast is not reliable yet
+     */
+    public Integer getReorderPoint(InventoryItem item) {
+        DemandForecast forecast = forecasts.get(item.getId());
+        if (forecast == null || !forecast.isReliable()) {
+            return null;
+        }
+        int leadTime = leadTimeDays;
+        return (int) Math.ceil(forecast.forecast(LocalDate.now(), leadTime) + safetyStock(forecast, leadTime));
+    }
+    
+    /**
+     * Quantity to order so stock covers the lead time and the next review period, capped at maximum stock
+     * @return the suggested quantity, or null while the item's forecast is not reliable yet
+     */
+    public Integer getSuggestedQuantity(InventoryItem item) {
+        DemandForecast forecast = forecasts.get(item.getId());
+        if (forecast == null || !forecast.isReliable()) {
+            return null;
+        }
+        int horizon = leadTimeDays + reviewPeriodDays;
+        double target = forecast.forecast(LocalDate.now(), horizon) + safetyStock(forecast, horizon);
+        int quantity = Math.max(0, (int) Math.ceil(target) - item.getCurrentStock());
+        return Math.min(quantity, Math.max(0, item.getMaximumStock() - item.getCurrentStock()));
+    }
+    
+    /**
+     * Fold every completed day since the last update into the forecasts
+     */
+    public synchronized void update() {
+        LocalDate through = LocalDate.now().minusDays(1);
+        LocalDate since = forecasts.values().stream()
+                .map(DemandForecast::getLastObservedDate)
+                .min(LocalDate::compareTo)
+                .orElse(LocalDate.MIN);
+        if (!since.isBefore(through)) {
+            return;
+        }
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            Map<Integer, TreeMap<LocalDate, Integer>> history = loadDailyDemand(conn, since);
+            List<DemandForecast> updated = new ArrayList<>();
+            
+            for (DemandForecast existing : forecasts.values()) {
+                DemandForecast forecast = existing.copy();
+                advance(forecast, history.remove(forecast.getInventoryItemId()), through);
+                updated.add(forecast);
+            }
+            // Items sold for the first time since the last update
+            for (Map.Entry<Integer, TreeMap<LocalDate, Integer>> entry : history.entrySet()) {
+                DemandForecast forecast = new DemandForecast(entry.getKey());
+                advance(forecast, entry.getValue(), through);
+                updated.add(forecast);
+            }
+            
+            save(conn, updated);
+            updated.forEach(forecast -> forecasts.put(forecast.getInventoryItemId(), forecast));
+            logger.info("Demand forecasts updated through " + through + " for " + updated.size() + " items");
+        } catch (SQLException | IOException e) {
+            logger.severe("Error updating demand forecasts: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Rebuild every forecast from the full movement history, items in parallel
+     */
+    public synchronized void recomputeAll() {
+        LocalDate through = LocalDate.now().minusDays(1);
+        long start = System.nanoTime();
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            Map<Integer, TreeMap<LocalDate, Integer>> history = loadDailyDemand(conn, LocalDate.MIN);
+            List<Map.Entry<Integer, TreeMap<LocalDate, Integer>>> items = new ArrayList<>(history.entrySet());
+            DemandForecast[] rebuilt = new DemandForecast[items.size()];
+            
+            ForkJoinPool.commonPool().invoke(new RebuildTask(items, rebuilt, 0, items.size(), through));
+            
+            List<DemandForecast> result = Arrays.asList(rebuilt);
+            save(conn, result);
+            Map<Integer, DemandForecast> replaced = new ConcurrentHashMap<>();
+            result.forEach(forecast -> replaced.put(forecast.getInventoryItemId(), forecast));
+            forecasts = replaced;
+            logger.info("Demand forecasts rebuilt for " + rebuilt.length + " items in "
+                    + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms");
+        } catch (SQLException | IOException e) {
+            logger.severe("Error rebuilding demand forecasts: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Splits the items in halves until a chunk is small enough to replay on one worker
+     */
+    @SuppressWarnings("serial") // Fork/join tasks are never serialized
+    private static class RebuildTask extends RecursiveAction {
+        private final List<Map.Entry<Integer, TreeMap<LocalDate, Integer>>> items;
+        private final DemandForecast[] results;
+        private final int from;
+        private final int to;
+        private final LocalDate through;
+        
+        RebuildTask(List<Map.Entry<Integer, TreeMap<LocalDate, Integer>>> items, DemandForecast[] results,
+                    int from, int to, LocalDate through) {
+            this.items = items;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.through = through;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= ITEMS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    DemandForecast forecast = new DemandForecast(items.get(i).getKey());
+                    advance(forecast, items.get(i).getValue(), through);
+                    results[i] = forecast;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RebuildTask(items, results, from, middle, through),
+                      new RebuildTask(items, results, middle, to, through));
+        }
+    }
+    
+    /**
+     * Observe each day after the forecast's last one up to a date; days without movements count as zero
+     */
+    private static void advance(DemandForecast forecast, TreeMap<LocalDate, Integer> demandByDay, LocalDate through) {
+        LocalDate day;
+        if (forecast.getLastObservedDate() != null) {
+            day = forecast.getLastObservedDate().plusDays(1);
+        } else if (demandByDay != null && !demandByDay.isEmpty()) {
+            day = demandByDay.firstKey();
+        } else {
+            return;
+        }
+        
+        for (; !day.isAfter(through); day = day.plusDays(1)) {
+            int demand = demandByDay != null ? demandByDay.getOrDefault(day, 0) : 0;
+            forecast.observe(day, demand, LEVEL_SMOOTHING, SEASONAL_SMOOTHING);
+        }
+    }
+    
+    private static double safetyStock(DemandForecast forecast, int days) {
+        return SAFETY_Z * MAE_TO_SIGMA * forecast.getMeanAbsoluteError() * Math.sqrt(days);
+    }
+    
+    /**
+     * Daily OUT quantities per item after a date and before today
+     */
+    private Map<Integer, TreeMap<LocalDate, Integer>> loadDailyDemand(Connection conn, LocalDate since)
+            throws SQLException, IOException {
+        Map<Integer, TreeMap<LocalDate, Integer>> history = new HashMap<>();
+        LocalDate from = since.equals(LocalDate.MIN) ? null : since;
+        LocalDate today = LocalDate.now();
+        
+        // Archived months are split on UTC times, so a local day can span two of them and its parts are added up
+        Main.getSalesArchive().forEachSegment(conn, from, today.plusDays(1), schema ->
+                addDailyDemand(conn, DAILY_DEMAND_SQL.formatted(schema), from, today, history));
+        addDailyDemand(conn, COMPACTED_DEMAND_SQL, from, today, history);
+        
+        return history;
+    }
+    
+    private void addDailyDemand(Connection conn, String sql, LocalDate from, LocalDate today,
+                                Map<Integer, TreeMap<LocalDate, Integer>> history) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, from == null ? "" : from.toString());
+            stmt.setString(2, today.toString());
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    history.computeIfAbsent(rs.getInt("inventory_item_id"), id -> new TreeMap<>())
+                            .merge(LocalDate.parse(rs.getString("day")), rs.getInt("demand"), Integer::sum);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Load the stored forecasts into memory
+     */
+    private void load() {
+        String sql = """
+            SELECT inventory_item_id, level, seasonal_factors, mean_absolute_error, last_observed_date, observations
+            FROM demand_forecasts
+            """;
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            
+            while (rs.next()) {
+                double[] seasonal = Arrays.stream(rs.getString("seasonal_factors").split(","))
+                        .mapToDouble(Double::parseDouble)
+                        .toArray();
+                DemandForecast forecast = new DemandForecast(rs.getInt("inventory_item_id"), rs.getDouble("level"),
+                        seasonal, rs.getDouble("mean_absolute_error"), LocalDate.parse(rs.getString("last_observed_date")),
+                        rs.getInt("observations"));
+                forecasts.put(forecast.getInventoryItemId(), forecast);
+            }
+        } catch (SQLException e) {
+            logger.severe("Error loading demand forecasts: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Store forecasts in one batch
+     */
+    private void save(Connection conn, List<DemandForecast> updated) throws SQLException {
+        String sql = """
+            INSERT INTO demand_forecasts (inventory_item_id, level, seasonal_factors, mean_absolute_error,
+                                          last_observed_date, observations, date_modified)
+            VALUES (?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+            ON CONFLICT(inventory_item_id) DO UPDATE SET
+                level = excluded.level, seasonal_factors = excluded.seasonal_factors,
+                mean_absolute_error = excluded.mean_absolute_error, last_observed_date = excluded.last_observed_date,
+                observations = excluded.observations, date_modified = excluded.date_modified
+            """;
+        
+        conn.setAutoCommit(false);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (DemandForecast forecast : updated) {
+                if (forecast.getLastObservedDate() == null) {
+                    continue;
+                }
+                stmt.setInt(1, forecast.getInventoryItemId());
+                stmt.setDouble(2, forecast.getLevel());
+                stmt.setString(3, Arrays.stream(forecast.getSeasonalFactors())
+                        .mapToObj(Double::toString)
+                        .reduce((a, b) -> a + "," + b)
+                        .orElse(""));
+                stmt.setDouble(4, forecast.getMeanAbsoluteError());
+                stmt.setString(5, forecast.getLastObservedDate().toString());
+                stmt.setInt(6, forecast.getObservations());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+    
+    /**
+     * Rebuild everything shortly after midnight, once the previous day is complete; caller holds the lock
+     */
+    private void scheduleNightlyRebuild() {
+        LocalDateTime nextRun = LocalDate.now().plusDays(1).atTime(0, 5);
+        long delay = Duration.between(LocalDateTime.now(), nextRun).toMillis();
+        executor.schedule(() -> {
+            recomputeAll();
+            synchronized (this) {
+                if (executor != null) {
+                    scheduleNightlyRebuild();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,626 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.ImportResult;
+import com.cofitearia.milktea.utils.CsvReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Import of historic sales from a previous POS
+ * The input is a CSV file with one line per sale item and the columns transaction_number, sale_date,
+ * barcode, quantity and unit_price, plus an optional payment_method. The lines of a sale must be
+ * next to each other and fields may not contain line breaks, so the file can be cut into byte
+ * ranges on sale boundaries. The ranges are parsed in parallel on a fork/join pool and handed
+ * through a small bounded queue to the calling thread, the only one writing to SQLite; parsers wait
+ * when the writer falls behind, so memory stays bounded however large the file is.
+ *
+ * Each range is committed in one transaction together with a row in sales_import_chunks, so an
+ * import interrupted by a crash or a cancellation picks up after the last committed range when it
+ * is run again. Sales whose transaction number already exists are skipped. Historic sales do not
+ * move stock; the sales rollups are rebuilt once the import finishes.
+ */
+public class HistoricSalesImportService {
+    private static final Logger logger = Logger.getLogger(HistoricSalesImportService.class.getName());
+    
+    private static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+    // Parsed ranges waiting for the writer; parsers block once it is full
+    private static final int QUEUE_CAPACITY = 4;
+    private static final int MAX_ERROR_SAMPLES = 20;
+    private static final String IMPORT_NOTE = "Imported from previous POS";
+    private static final List<String> REQUIRED_COLUMNS = List.of("transaction_number", "sale_date", "barcode", "quantity", "unit_price");
+    
+    private static final String SALE_SQL = """
+        INSERT OR IGNORE INTO sales (transaction_number, subtotal, tax, discount, total, payment_method, sale_date, notes)
+        VALUES (?, ?, 0, 0, ?, ?, ?, ?)
+        RETURNING id
+        """;
+    
+    private static final String SALE_ITEM_SQL = """
+        INSERT INTO sale_items (sale_id, product_id, quantity, unit_price, total_price)
+        VALUES (?, ?, ?, ?, ?)
+        """;
+    
+    private static final String CHUNK_SQL = """
+        INSERT INTO sales_import_chunks (import_key, chunk, start_offset, end_offset, sales, lines)
+        VALUES (?, ?, ?, ?, ?, ?)
+        """;
+    
+    /**
+     * Receives the progress of an import after every committed range
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(long linesImported, long bytesDone, long totalBytes, double linesPerSecond);
+    }
+    
+    private record Columns(int transactionNumber, int saleDate, int barcode, int quantity, int unitPrice,
+                           int paymentMethod, int count) {
+    }
+    
+    private record Chunk(int index, long start, long end) {
+    }
+    
+    private record SaleLine(int productId, int quantity, BigDecimal unitPrice, BigDecimal totalPrice) {
+    }
+    
+    private record HistoricSale(String transactionNumber, String saleDate, String paymentMethod,
+                                List<SaleLine> lines, BigDecimal total) {
+    }
+    
+    /**
+     * A range parsed into sales, or the reason it could not be
+     */
+    private record ParsedChunk(Chunk chunk, List<HistoricSale> sales, long lines, long rejectedLines,
+                               List<String> errors, IOException failure) {
+    }
+    
+    private final int chunkBytes;
+    private final int parallelism;
+    
+    public HistoricSalesImportService() {
+        this(DEFAULT_CHUNK_BYTES, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+    
+    public HistoricSalesImportService(int chunkBytes, int parallelism) {
+        this.chunkBytes = chunkBytes;
+        this.parallelism = parallelism;
+    }
+    
+    /**
+     * Import a historic sales file, resuming an earlier interrupted import of the same file
+     * Stops after the range being written if the calling thread is interrupted.
+     */
+    public ImportResult importFile(Path file, ProgressListener listener) {
+        long start = System.nanoTime();
+        List<String> errors = new ArrayList<>();
+        long linesRead = 0;
+        long linesImported = 0;
+        long linesRejected = 0;
+        boolean completed = false;
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             Connection conn = Main.getDatabaseManager().openConnection()) {
+            
+            long size = channel.size();
+            LineScanner scanner = new LineScanner(channel, 0);
+            String headerLine = scanner.readLine();
+            Columns columns = headerLine == null ? null : mapColumns(parseLine(headerLine.replace("\uFEFF", "")));
+            if (columns == null) {
+                errors.add("The file needs a header row with the columns " + String.join(", ", REQUIRED_COLUMNS));
+                return new ImportResult(false, 0, 0, 0, errors, null, elapsedMillis(start));
+            }
+            
+            String importKey = file.toAbsolutePath() + "|" + size + "|" + Files.getLastModifiedTime(file).toMillis() + "|" + chunkBytes;
+            List<Chunk> chunks = planChunks(channel, scanner.position(), size, columns.transactionNumber());
+            Set<Integer> committedChunks = loadCommittedChunks(conn, importKey);
+            
+            List<Chunk> pending = new ArrayList<>();
+            long bytesDone = 0;
+            for (Chunk chunk : chunks) {
+                if (committedChunks.contains(chunk.index())) {
+                    bytesDone += chunk.end() - chunk.start();
+                } else {
+                    pending.add(chunk);
+                }
+            }
+            if (!committedChunks.isEmpty()) {
+                logger.info("Resuming import of " + file + ": " + committedChunks.size() + " of " + chunks.size() + " ranges already imported");
+            }
+            
+            ImportRun run = new ImportRun(file, columns, loadProductIds(conn));
+            ForkJoinPool pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("sales-import-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+            
+            conn.setAutoCommit(false);
+            try (PreparedStatement saleStmt = conn.prepareStatement(SALE_SQL);
+                 PreparedStatement itemStmt = conn.prepareStatement(SALE_ITEM_SQL);
+                 PreparedStatement chunkStmt = conn.prepareStatement(CHUNK_SQL)) {
+                
+                if (!pending.isEmpty()) {
+                    pool.execute(run.new ParseTask(pending, 0, pending.size()));
+                }
+                
+                int written = 0;
+                while (written < pending.size()) {
+                    ParsedChunk parsed = run.queue.poll(1, TimeUnit.SECONDS);
+                    if (parsed == null) {
+                        continue;
+                    }
+                    if (parsed.failure() != null) {
+                        throw parsed.failure();
+                    }
+                    
+                    long linesWritten = writeChunk(conn, importKey, parsed, saleStmt, itemStmt, chunkStmt);
+                    conn.commit();
+                    written++;
+                    
+                    linesRead += parsed.lines();
+                    linesRejected += parsed.rejectedLines();
+                    linesImported += linesWritten;
+                    bytesDone += parsed.chunk().end() - parsed.chunk().start();
+                    for (String error : parsed.errors()) {
+                        if (errors.size() < MAX_ERROR_SAMPLES) {
+                            errors.add(error);
+                        }
+                    }
+                    double seconds = Math.max((System.nanoTime() - start) / 1e9, 0.001);
+                    listener.progress(linesImported, bytesDone, size, linesImported / seconds);
+                    
+                    if (Thread.currentThread().isInterrupted()) {
+                        logger.info("Historic sales import cancelled after " + linesImported + " lines");
+                        break;
+                    }
+                }
+                completed = written == pending.size();
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            } catch (InterruptedException e) {
+                conn.rollback();
+                Thread.currentThread().interrupt();
+                logger.info("Historic sales import cancelled after " + linesImported + " lines");
+            } finally {
+                run.stopped.set(true);
+                pool.shutdownNow();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException | IOException e) {
+            logger.severe("Error importing historic sales from " + file + ": " + e.getMessage());
+            errors.add("Import stopped: " + e.getMessage());
+        }
+        
+        // A resumed import may have committed everything before the crash that stopped the last one
+        if (linesImported > 0 || completed) {
+            new RollupService().rebuild();
+        }
+        
+        ImportResult result = new ImportResult(completed, linesRead, linesImported, linesRejected, errors, null, elapsedMillis(start));
+        logger.info("Historic sales import from " + file + ": " + result);
+        return result;
+    }
+    
+    /**
+     * Write the sales of one range and mark it imported, in the caller's transaction
+     * @return the number of sale lines written; sales already in the database are skipped
+     */
+    private long writeChunk(Connection conn, String importKey, ParsedChunk parsed, PreparedStatement saleStmt,
+                            PreparedStatement itemStmt, PreparedStatement chunkStmt) throws SQLException {
+        int sales = 0;
+        long lines = 0;
+        for (HistoricSale sale : parsed.sales()) {
+            saleStmt.setString(1, sale.transactionNumber());
+            saleStmt.setBigDecimal(2, sale.total());
+            saleStmt.setBigDecimal(3, sale.total());
+            saleStmt.setString(4, sale.paymentMethod());
+            saleStmt.setString(5, sale.saleDate());
+            saleStmt.setString(6, IMPORT_NOTE);
+            int saleId;
+            try (ResultSet rs = saleStmt.executeQuery()) {
+                if (!rs.next()) {
+                    continue; // Already in the database
+                }
+                saleId = rs.getInt(1);
+            }
+            sales++;
+            lines += sale.lines().size();
+            
+            for (SaleLine line : sale.lines()) {
+                itemStmt.setInt(1, saleId);
+                itemStmt.setInt(2, line.productId());
+                itemStmt.setInt(3, line.quantity());
+                itemStmt.setBigDecimal(4, line.unitPrice());
+                itemStmt.setBigDecimal(5, line.totalPrice());
+                itemStmt.addBatch();
+            }
+        }
+        itemStmt.executeBatch();
+        
+        chunkStmt.setString(1, importKey);
+        chunkStmt.setInt(2, parsed.chunk().index());
+        chunkStmt.setLong(3, parsed.chunk().start());
+        chunkStmt.setLong(4, parsed.chunk().end());
+        chunkStmt.setInt(5, sales);
+        chunkStmt.setLong(6, lines);
+        chunkStmt.executeUpdate();
+        return lines;
+    }
+    
+    /**
+     * Cut the data into ranges of about the chunk size, each ending where a new sale starts
+     */
+    private List<Chunk> planChunks(FileChannel channel, long dataStart, long size, int transactionColumn) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long start = dataStart;
+        while (start < size) {
+            long end = start + chunkBytes >= size ? size : alignToSale(channel, start + chunkBytes, transactionColumn);
+            chunks.add(new Chunk(chunks.size(), start, end));
+            start = end;
+        }
+        return chunks;
+    }
+    
+    /**
+     * First offset after the given one where a line starts with a different transaction than the line before it
+     */
+    private long alignToSale(FileChannel channel, long offset, int transactionColumn) throws IOException {
+        LineScanner scanner = new LineScanner(channel, offset);
+        if (scanner.readLine() == null) {
+            return channel.size(); // Rest of the line the offset fell in
+        }
+        
+        // The sale of the first whole line may have begun before it; all of it stays in this range
+        String line = scanner.readLine();
+        if (line == null) {
+            return channel.size();
+        }
+        String transaction = field(parseLine(line), transactionColumn);
+        while (true) {
+            long lineStart = scanner.position();
+            line = scanner.readLine();
+            if (line == null) {
+                return channel.size();
+            }
+            if (!field(parseLine(line), transactionColumn).equals(transaction)) {
+                return lineStart;
+            }
+        }
+    }
+    
+    private Set<Integer> loadCommittedChunks(Connection conn, String importKey) throws SQLException {
+        Set<Integer> chunks = new HashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT chunk FROM sales_import_chunks WHERE import_key = ?")) {
+            stmt.setString(1, importKey);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    chunks.add(rs.getInt(1));
+                }
+            }
+        }
+        return chunks;
+    }
+    
+    private Map<String, Integer> loadProductIds(Connection conn) throws SQLException {
+        Map<String, Integer> products = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT id, barcode FROM products WHERE barcode IS NOT NULL");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                products.put(rs.getString("barcode"), rs.getInt("id"));
+            }
+        }
+        return Collections.unmodifiableMap(products);
+    }
+    
+    private Columns mapColumns(String[] header) {
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            indexes.putIfAbsent(header[i].trim().toLowerCase(Locale.ROOT).replace(' ', '_'), i);
+        }
+        for (String required : REQUIRED_COLUMNS) {
+            if (!indexes.containsKey(required)) {
+                return null;
+            }
+        }
+        return new Columns(indexes.get("transaction_number"), indexes.get("sale_date"), indexes.get("barcode"),
+                indexes.get("quantity"), indexes.get("unit_price"), indexes.getOrDefault("payment_method", -1),
+                header.length);
+    }
+    
+    private static String[] parseLine(String line) throws IOException {
+        try (CsvReader reader = new CsvReader(new StringReader(line))) {
+            String[] record = reader.readRecord();
+            return record != null ? record : new String[] {""};
+        }
+    }
+    
+    private static String field(String[] record, int index) {
+        return index >= 0 && index < record.length ? record[index].trim() : "";
+    }
+    
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+    
+    /**
+     * State shared by the parsers of one import
+     */
+    private class ImportRun {
+        private final Path file;
+        private final Columns columns;
+        private final Map<String, Integer> productIds;
+        private final BlockingQueue<ParsedChunk> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final AtomicBoolean stopped = new AtomicBoolean();
+        
+        ImportRun(Path file, Columns columns, Map<String, Integer> productIds) {
+            this.file = file;
+            this.columns = columns;
+            this.productIds = productIds;
+        }
+        
+        /**
+         * Splits its ranges in half until one is left, then parses that one
+         */
+        @SuppressWarnings("serial") // Fork/join tasks are never serialized
+        private class ParseTask extends RecursiveAction {
+            private final List<Chunk> chunks;
+            private final int from;
+            private final int to;
+            
+            ParseTask(List<Chunk> chunks, int from, int to) {
+                this.chunks = chunks;
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected void compute() {
+                if (to - from == 1) {
+                    hand(parse(chunks.get(from)));
+                    return;
+                }
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(chunks, from, middle), new ParseTask(chunks, middle, to));
+            }
+        }
+        
+        /**
+         * Pass a parsed range to the writer, waiting while the queue is full
+         */
+        private void hand(ParsedChunk parsed) {
+            try {
+                while (!stopped.get()) {
+                    if (queue.offer(parsed, 100, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        private ParsedChunk parse(Chunk chunk) {
+            if (stopped.get()) {
+                return new ParsedChunk(chunk, List.of(), 0, 0, List.of(), null);
+            }
+            
+            List<HistoricSale> sales = new ArrayList<>();
+            List<String> errors = new ArrayList<>();
+            long lines = 0;
+            long rejected = 0;
+            
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer bytes = ByteBuffer.allocate(Math.toIntExact(chunk.end() - chunk.start()));
+                while (bytes.hasRemaining() && channel.read(bytes, chunk.start() + bytes.position()) >= 0) {
+                    // Keep reading until the range is in memory
+                }
+                
+                try (CsvReader reader = new CsvReader(new InputStreamReader(
+                        new ByteArrayInputStream(bytes.array(), 0, bytes.position()), StandardCharsets.UTF_8))) {
+                    SaleBuilder current = null;
+                    String[] record;
+                    while ((record = reader.readRecord()) != null) {
+                        if (record.length == 1 && record[0].isBlank()) {
+                            continue;
+                        }
+                        lines++;
+                        
+                        String transaction = field(record, columns.transactionNumber());
+                        if (current == null || !current.transactionNumber.equals(transaction)) {
+                            if (current != null) {
+                                rejected += current.finishInto(sales, errors);
+                            }
+                            current = new SaleBuilder(transaction);
+                        }
+                        current.add(record);
+                    }
+                    if (current != null) {
+                        rejected += current.finishInto(sales, errors);
+                    }
+                }
+            } catch (IOException e) {
+                return new ParsedChunk(chunk, List.of(), 0, 0, List.of(), e);
+            } catch (RuntimeException e) {
+                return new ParsedChunk(chunk, List.of(), 0, 0, List.of(),
+                        new IOException("Could not parse bytes " + chunk.start() + "-" + chunk.end(), e));
+            }
+            
+            return new ParsedChunk(chunk, sales, lines, rejected, errors, null);
+        }
+        
+        /**
+         * Lines of one sale as they are read; a sale with any bad line is rejected as a whole
+         */
+        private class SaleBuilder {
+            private final String transactionNumber;
+            private final List<SaleLine> lines = new ArrayList<>();
+            private String saleDate;
+            private String paymentMethod;
+            private BigDecimal total = BigDecimal.ZERO;
+            private int lineCount;
+            private String error;
+            
+            SaleBuilder(String transactionNumber) {
+                this.transactionNumber = transactionNumber;
+            }
+            
+            void add(String[] record) {
+                lineCount++;
+                if (error != null) {
+                    return;
+                }
+                
+                try {
+                    if (record.length != columns.count()) {
+                        throw new IllegalArgumentException("expected " + columns.count() + " fields but found " + record.length);
+                    }
+                    if (transactionNumber.isEmpty()) {
+                        throw new IllegalArgumentException("transaction_number is required");
+                    }
+                    if (saleDate == null) {
+                        saleDate = parseSaleDate(field(record, columns.saleDate()));
+                        String payment = field(record, columns.paymentMethod());
+                        paymentMethod = payment.isEmpty() ? null : payment;
+                    }
+                    
+                    String barcode = field(record, columns.barcode());
+                    Integer productId = productIds.get(barcode);
+                    if (productId == null) {
+                        throw new IllegalArgumentException("unknown barcode '" + barcode + "'");
+                    }
+                    int quantity = Integer.parseInt(field(record, columns.quantity()));
+                    BigDecimal unitPrice = new BigDecimal(field(record, columns.unitPrice())).setScale(2, RoundingMode.HALF_UP);
+                    if (quantity <= 0 || unitPrice.signum() < 0) {
+                        throw new IllegalArgumentException("quantity must be positive and unit_price not negative");
+                    }
+                    
+                    BigDecimal totalPrice = unitPrice.multiply(BigDecimal.valueOf(quantity));
+                    lines.add(new SaleLine(productId, quantity, unitPrice, totalPrice));
+                    total = total.add(totalPrice);
+                } catch (NumberFormatException e) {
+                    error = "quantity and unit_price must be numbers";
+                } catch (IllegalArgumentException e) {
+                    error = e.getMessage();
+                }
+            }
+            
+            /**
+             * Add the sale to the parsed sales if it is valid
+             * @return the number of lines rejected
+             */
+            int finishInto(List<HistoricSale> sales, List<String> errors) {
+                if (error != null) {
+                    if (errors.size() < MAX_ERROR_SAMPLES) {
+                        errors.add("Sale " + transactionNumber + ": " + error);
+                    }
+                    return lineCount;
+                }
+                sales.add(new HistoricSale(transactionNumber, saleDate, paymentMethod, lines, total));
+                return 0;
+            }
+            
+            private String parseSaleDate(String value) {
+                try {
+                    return LocalDateTime.parse(value.replace('T', ' '), SalesService.SALE_DATE_FORMAT)
+                            .format(SalesService.SALE_DATE_FORMAT);
+                } catch (DateTimeParseException e) {
+                    try {
+                        return LocalDateTime.parse(value, DateTimeFormatter.ISO_LOCAL_DATE_TIME).format(SalesService.SALE_DATE_FORMAT);
+                    } catch (DateTimeParseException ignored) {
+                        throw new IllegalArgumentException("sale_date must look like 2023-05-01 14:30:00");
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads lines of a file from any offset without decoding more than it needs
+     */
+    private static class LineScanner {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long bufferStart;
+        private long position;
+        
+        LineScanner(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            this.bufferStart = position;
+            buffer.limit(0);
+        }
+        
+        long position() {
+            return position;
+        }
+        
+        /**
+         * The line from the current position, without its line break, or null at the end of the file
+         */
+        String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            boolean any = false;
+            while (true) {
+                int index = (int) (position - bufferStart);
+                if (index >= buffer.limit()) {
+                    buffer.clear();
+                    bufferStart = position;
+                    if (channel.read(buffer, position) <= 0) {
+                        buffer.limit(0);
+                        return any ? line.toString(StandardCharsets.UTF_8) : null;
+                    }
+                    buffer.flip();
+                    index = 0;
+                }
+                byte b = buffer.get(index);
+                position++;
+                any = true;
+                if (b == '\n') {
+                    break;
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return line.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
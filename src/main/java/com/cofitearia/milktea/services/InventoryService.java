@@ -1,17 +1,28 @@
 package com.cofitearia.milktea.services;
 
 import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
 import com.cofitearia.milktea.models.InventoryItem;
+import com.cofitearia.milktea.models.InventoryLot;
 import com.cofitearia.milktea.models.Product;
+import com.cofitearia.milktea.models.UpdateResult;
 
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -21,6 +32,54 @@ import java.util.logging.Logger;
 public class InventoryService {
     private static final Logger logger = Logger.getLogger(InventoryService.class.getName());
     
+    // Compare-and-set attempts before an edit that keeps conflicting is given up
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+    
+    /**
+     * Low stock query; the stock_status predicate matches the partial index idx_inventory_low_stock
+     */
+    static final String LOW_STOCK_SQL = """
+            SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
+                   ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
+                   ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
+                   ii.row_version, p.row_version AS product_row_version,
+                   p.name, p.description, p.price, p.category, p.barcode, p.unit
+            FROM inventory_items ii
+            JOIN products p ON ii.product_id = p.id
+            WHERE ii.stock_status IN ('LOW', 'CRITICAL') AND ii.is_active = 1
+            ORDER BY ii.current_stock ASC
+            """;
+    
+    /**
+     * Critical stock query; the stock_status predicate matches the partial index idx_inventory_critical_stock
+     */
+    static final String CRITICAL_STOCK_SQL = """
+            SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
+                   ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
+                   ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
+                   ii.row_version, p.row_version AS product_row_version,
+                   p.name, p.description, p.price, p.category, p.barcode, p.unit
+            FROM inventory_items ii
+            JOIN products p ON ii.product_id = p.id
+            WHERE ii.stock_status = 'CRITICAL' AND ii.is_active = 1
+            ORDER BY ii.current_stock ASC
+            """;
+    
+    /**
+     * Expired items query; served by a range scan on the partial index idx_inventory_expiration
+     */
+    static final String EXPIRED_ITEMS_SQL = """
+            SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
+                   ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
+                   ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
+                   ii.row_version, p.row_version AS product_row_version,
+                   p.name, p.description, p.price, p.category, p.barcode, p.unit
+            FROM inventory_items ii
+            JOIN products p ON ii.product_id = p.id
+            WHERE ii.expiration_date < CURRENT_DATE AND ii.is_active = 1 AND ii.current_stock > 0
+            ORDER BY ii.expiration_date ASC
+            """;
+    
     /**
      * Get all inventory items
      */
@@ -30,6 +89,7 @@ public class InventoryService {
             SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
                    ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
                    ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
+                   ii.row_version, p.row_version AS product_row_version,
                    p.name, p.description, p.price, p.category, p.barcode, p.unit
             FROM inventory_items ii
             JOIN products p ON ii.product_id = p.id
@@ -59,6 +119,7 @@ public class InventoryService {
             SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
                    ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
                    ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
+                   ii.row_version, p.row_version AS product_row_version,
                    p.name, p.description, p.price, p.category, p.barcode, p.unit
             FROM inventory_items ii
             JOIN products p ON ii.product_id = p.id
@@ -90,6 +151,7 @@ public class InventoryService {
             SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
                    ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
                    ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
+                   ii.row_version, p.row_version AS product_row_version,
                    p.name, p.description, p.price, p.category, p.barcode, p.unit
             FROM inventory_items ii
             JOIN products p ON ii.product_id = p.id
@@ -124,27 +186,42 @@ public class InventoryService {
             VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
             """;
         
-        try (Connection conn = Main.getDatabaseManager().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, item.getProduct().getId());
-            stmt.setInt(2, item.getCurrentStock());
-            stmt.setInt(3, item.getMinimumStock());
-            stmt.setInt(4, item.getMaximumStock());
-            stmt.setBigDecimal(5, item.getCostPrice());
-            stmt.setDate(6, item.getExpirationDate() != null ? 
-                         java.sql.Date.valueOf(item.getExpirationDate()) : null);
-            stmt.setString(7, item.getSupplier());
-            stmt.setString(8, item.getLocation());
-            stmt.setInt(9, item.getLowStockThreshold());
-            stmt.setInt(10, item.getCriticalStockThreshold());
+        try (Connection conn = Main.getDatabaseManager().getConnection()) {
+            conn.setAutoCommit(false);
             
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                logger.info("Inventory item created successfully for product: " + item.getProduct().getName());
-                return true;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, item.getProduct().getId());
+                stmt.setInt(2, item.getCurrentStock());
+                stmt.setInt(3, item.getMinimumStock());
+                stmt.setInt(4, item.getMaximumStock());
+                stmt.setBigDecimal(5, item.getCostPrice());
+                stmt.setString(6, item.getExpirationDate() != null ? item.getExpirationDate().toString() : null);
+                stmt.setString(7, item.getSupplier());
+                stmt.setString(8, item.getLocation());
+                stmt.setInt(9, item.getLowStockThreshold());
+                stmt.setInt(10, item.getCriticalStockThreshold());
+                
+                if (stmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    return false;
+                }
+                
+                item.setId(DatabaseManager.getLastInsertId(conn));
+                // Opening stock goes through the movement ledger like every other change
+                if (item.getCurrentStock() != 0) {
+                    recordStockMovement(conn, item.getId(), "ADJUSTMENT", item.getCurrentStock(), "Opening stock", null, null);
+                }
+                conn.commit();
+            } catch (Throwable e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
+            
+            logger.info("Inventory item created successfully for product: " + item.getProduct().getName());
+            trackExpiry(item.getId(), item.getProduct().getName(), item.getExpirationDate(), item.getCurrentStock());
+            return true;
         } catch (SQLException e) {
             logger.severe("Error creating inventory item: " + e.getMessage());
         }
@@ -153,45 +230,136 @@ public class InventoryService {
     }
     
     /**
-     * Update inventory item
+     * Update inventory item unless another terminal changed it since it was loaded
+     * The update only applies to the row version the item was loaded with; on success the item carries
+     * the new version.
+     * @return UPDATED, CONFLICT with the item as it now stands, NOT_FOUND, or FAILED on a database error
      */
-    public boolean updateInventoryItem(InventoryItem item) {
+    public UpdateResult<InventoryItem> updateInventoryItem(InventoryItem item) {
         String sql = """
             UPDATE inventory_items 
             SET current_stock = ?, minimum_stock = ?, maximum_stock = ?, cost_price = ?,
                 expiration_date = ?, supplier = ?, location = ?, last_restocked = ?,
-                low_stock_threshold = ?, critical_stock_threshold = ?, date_modified = CURRENT_TIMESTAMP
-            WHERE id = ?
+                low_stock_threshold = ?, critical_stock_threshold = ?, date_modified = CURRENT_TIMESTAMP,
+                row_version = row_version + 1
+            WHERE id = ? AND row_version = ?
             """;
+        boolean updated;
         
-        try (Connection conn = Main.getDatabaseManager().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, item.getCurrentStock());
-            stmt.setInt(2, item.getMinimumStock());
-            stmt.setInt(3, item.getMaximumStock());
-            stmt.setBigDecimal(4, item.getCostPrice());
-            stmt.setDate(5, item.getExpirationDate() != null ? 
-                         java.sql.Date.valueOf(item.getExpirationDate()) : null);
-            stmt.setString(6, item.getSupplier());
-            stmt.setString(7, item.getLocation());
-            stmt.setDate(8, item.getLastRestocked() != null ? 
-                         java.sql.Date.valueOf(item.getLastRestocked()) : null);
-            stmt.setInt(9, item.getLowStockThreshold());
-            stmt.setInt(10, item.getCriticalStockThreshold());
-            stmt.setInt(11, item.getId());
+        try (Connection conn = Main.getDatabaseManager().getConnection()) {
+            conn.setAutoCommit(false);
             
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                logger.info("Inventory item updated successfully: " + item.getProduct().getName());
-                return true;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                Integer previousStock = getCurrentStock(conn, item.getId());
+                if (previousStock == null) {
+                    conn.rollback();
+                    return new UpdateResult<>(UpdateResult.Status.NOT_FOUND, null, 1);
+                }
+                
+                stmt.setInt(1, item.getCurrentStock());
+                stmt.setInt(2, item.getMinimumStock());
+                stmt.setInt(3, item.getMaximumStock());
+                stmt.setBigDecimal(4, item.getCostPrice());
+                stmt.setString(5, item.getExpirationDate() != null ? item.getExpirationDate().toString() : null);
+                stmt.setString(6, item.getSupplier());
+                stmt.setString(7, item.getLocation());
+                stmt.setString(8, item.getLastRestocked() != null ? item.getLastRestocked().toString() : null);
+                stmt.setInt(9, item.getLowStockThreshold());
+                stmt.setInt(10, item.getCriticalStockThreshold());
+                stmt.setInt(11, item.getId());
+                stmt.setInt(12, item.getRowVersion());
+                updated = stmt.executeUpdate() > 0;
+                
+                if (updated) {
+                    // An edited stock level is recorded as the correction it makes
+                    int correction = item.getCurrentStock() - previousStock;
+                    if (correction != 0) {
+                        recordStockMovement(conn, item.getId(), "ADJUSTMENT", correction, "Stock level edited", null, null);
+                    }
+                    conn.commit();
+                } else {
+                    conn.rollback();
+                }
+            } catch (Throwable e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
         } catch (SQLException e) {
             logger.severe("Error updating inventory item: " + e.getMessage());
+            return new UpdateResult<>(UpdateResult.Status.FAILED, null, 1);
         }
         
-        return false;
+        if (!updated) {
+            logger.info("Inventory item ID " + item.getId() + " was changed on another terminal; not updated");
+            return new UpdateResult<>(UpdateResult.Status.CONFLICT, getInventoryItemById(item.getId()), 1);
+        }
+        
+        item.setRowVersion(item.getRowVersion() + 1);
+        logger.info("Inventory item updated successfully: " + item.getProduct().getName());
+        Main.getStockAlertService().onStockChanged(item.getId(), item.getProduct().getName(),
+                item.getCurrentStock(), item.getLowStockThreshold(), item.getCriticalStockThreshold());
+        trackExpiry(item.getId(), item.getProduct().getName(), item.getExpirationDate(), item.getCurrentStock());
+        return new UpdateResult<>(UpdateResult.Status.UPDATED, item, 1);
+    }
+    
+    /**
+     * Apply an edit to the latest version of an inventory item, reloading the item and applying the
+     * edit again each time another terminal changed it first
+     * The edit is given a freshly loaded item on every attempt, so it should change the item relative
+     * to what it finds, e.g. add a counted difference to the stock rather than set a stock level.
+     */
+    public UpdateResult<InventoryItem> updateInventoryItem(int itemId, Consumer<InventoryItem> edit) {
+        UpdateResult<InventoryItem> result = null;
+        
+        for (int attempt = 1; attempt <= MAX_UPDATE_ATTEMPTS; attempt++) {
+            InventoryItem item = getInventoryItemById(itemId);
+            if (item == null) {
+                return new UpdateResult<>(UpdateResult.Status.NOT_FOUND, null, attempt);
+            }
+            edit.accept(item);
+            result = updateInventoryItem(item);
+            if (!result.isConflict()) {
+                return new UpdateResult<>(result.getStatus(), result.getCurrent(), attempt);
+            }
+        }
+        
+        logger.warning("Inventory item ID " + itemId + " kept changing on other terminals; gave up after "
+                + MAX_UPDATE_ATTEMPTS + " attempts");
+        return new UpdateResult<>(UpdateResult.Status.CONFLICT, result.getCurrent(), MAX_UPDATE_ATTEMPTS);
+    }
+    
+    /**
+     * Save an edit made to an item loaded earlier, reapplied to the latest version of the item: the
+     * stock level moves by the difference the edit made (never below zero), and other fields are only
+     * overwritten where the edit changed them, so changes made meanwhile on other terminals are kept
+     * @param loaded the item as it was loaded, before the edit
+     */
+    public UpdateResult<InventoryItem> saveInventoryItemEdit(InventoryItem loaded, InventoryItem edited) {
+        int stockChange = edited.getCurrentStock() - loaded.getCurrentStock();
+        
+        return updateInventoryItem(edited.getId(), latest -> {
+            latest.setCurrentStock(Math.max(0, latest.getCurrentStock() + stockChange));
+            reapply(loaded.getMinimumStock(), edited.getMinimumStock(), latest::setMinimumStock);
+            reapply(loaded.getMaximumStock(), edited.getMaximumStock(), latest::setMaximumStock);
+            reapply(loaded.getCostPrice(), edited.getCostPrice(), latest::setCostPrice);
+            reapply(loaded.getExpirationDate(), edited.getExpirationDate(), latest::setExpirationDate);
+            reapply(loaded.getSupplier(), edited.getSupplier(), latest::setSupplier);
+            reapply(loaded.getLocation(), edited.getLocation(), latest::setLocation);
+            reapply(loaded.getLastRestocked(), edited.getLastRestocked(), latest::setLastRestocked);
+            reapply(loaded.getLowStockThreshold(), edited.getLowStockThreshold(), latest::setLowStockThreshold);
+            reapply(loaded.getCriticalStockThreshold(), edited.getCriticalStockThreshold(), latest::setCriticalStockThreshold);
+        });
+    }
+    
+    /**
+     * Set a field of the latest version of a row only if the edit changed it
+     */
+    private static <T> void reapply(T before, T after, Consumer<T> setter) {
+        if (!Objects.equals(before, after)) {
+            setter.accept(after);
+        }
     }
     
     /**
@@ -200,24 +368,35 @@ public class InventoryService {
     public boolean addStock(int itemId, int quantity, String reason) {
         String sql = """
             UPDATE inventory_items 
-            SET current_stock = current_stock + ?, last_restocked = CURRENT_DATE, date_modified = CURRENT_TIMESTAMP
+            SET current_stock = current_stock + ?, last_restocked = CURRENT_DATE, date_modified = CURRENT_TIMESTAMP,
+                row_version = row_version + 1
             WHERE id = ?
             """;
         
-        try (Connection conn = Main.getDatabaseManager().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, quantity);
-            stmt.setInt(2, itemId);
-            
-            int rowsAffected = stmt.executeUpdate();
+        try (Connection conn = Main.getDatabaseManager().getConnection()) {
+            conn.setAutoCommit(false);
             
-            if (rowsAffected > 0) {
-                // Record stock movement
-                recordStockMovement(itemId, "IN", quantity, reason, null);
-                logger.info("Stock added successfully: " + quantity + " units to item ID " + itemId);
-                return true;
+            // The stock level and its movement commit together, so the ledger always adds up
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, quantity);
+                stmt.setInt(2, itemId);
+                
+                if (stmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    return false;
+                }
+                recordStockMovement(conn, itemId, "IN", quantity, reason, null, null);
+                conn.commit();
+            } catch (Throwable e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
+            
+            logger.info("Stock added successfully: " + quantity + " units to item ID " + itemId);
+            publishStockChange(itemId);
+            return true;
         } catch (SQLException e) {
             logger.severe("Error adding stock to item ID " + itemId + ": " + e.getMessage());
         }
@@ -227,34 +406,278 @@ public class InventoryService {
     
     /**
      * Remove stock from inventory item
+     * Batch-tracked items are drawn from their first-expiring lot first
      */
     public boolean removeStock(int itemId, int quantity, String reason) {
+        List<LotService.LotDraw> draws = new ArrayList<>();
+        
+        try (Connection conn = Main.getDatabaseManager().getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try {
+                List<LotService.LotDraw> consumed = consumeStock(conn, Map.of(itemId, quantity), reason, null);
+                if (consumed == null) {
+                    conn.rollback();
+                    return false;
+                }
+                draws.addAll(consumed);
+                conn.commit();
+            } catch (Throwable e) {
+                // Whatever failed, setAutoCommit below would otherwise commit the stock without its movement
+                conn.rollback();
+                Main.getLotService().restoreLots(draws);
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            
+            logger.info("Stock removed successfully: " + quantity + " units from item ID " + itemId);
+        } catch (SQLException e) {
+            logger.severe("Error removing stock from item ID " + itemId + ": " + e.getMessage());
+            return false;
+        }
+        
+        publishStockChange(itemId);
+        return true;
+    }
+    
+    /**
+     * Receive a delivery as a new lot with its own expiration date and cost
+     * Stock the item already holds outside any lot becomes an opening lot first, keeping the
+     * expiration date it was entered with once the item's date follows its lots.
+     */
+    public boolean receiveLot(InventoryLot lot, String reason) {
         String sql = """
             UPDATE inventory_items 
-            SET current_stock = current_stock - ?, date_modified = CURRENT_TIMESTAMP
+            SET current_stock = current_stock + ?, cost_price = COALESCE(?, cost_price),
+                last_restocked = CURRENT_DATE, date_modified = CURRENT_TIMESTAMP, row_version = row_version + 1
+            WHERE id = ?
+            """;
+        
+        try (Connection conn = Main.getDatabaseManager().getConnection()) {
+            conn.setAutoCommit(false);
+            InventoryLot openingLot = null;
+            
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                openingLot = openingLot(conn, lot.getInventoryItemId());
+                if (openingLot != null) {
+                    Main.getLotService().insertLot(conn, openingLot);
+                }
+                
+                stmt.setInt(1, lot.getQuantityReceived());
+                stmt.setBigDecimal(2, lot.getCostPrice());
+                stmt.setInt(3, lot.getInventoryItemId());
+                
+                if (stmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    if (openingLot != null) {
+                        Main.getLotService().discardLot(openingLot);
+                    }
+                    return false;
+                }
+                
+                Main.getLotService().insertLot(conn, lot);
+                recordStockMovement(conn, lot.getInventoryItemId(), "IN", lot.getQuantityReceived(), reason, null, lot.getId());
+                refreshExpirationDate(conn, lot.getInventoryItemId());
+                conn.commit();
+            } catch (Throwable e) {
+                // Whatever failed, setAutoCommit below would otherwise commit the lot without its movement
+                conn.rollback();
+                if (openingLot != null) {
+                    Main.getLotService().discardLot(openingLot);
+                }
+                Main.getLotService().discardLot(lot);
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            
+            logger.info("Lot received: " + lot.getQuantityReceived() + " units for item ID " + lot.getInventoryItemId());
+        } catch (SQLException e) {
+            logger.severe("Error receiving lot for item ID " + lot.getInventoryItemId() + ": " + e.getMessage());
+            return false;
+        }
+        
+        publishStockChange(lot.getInventoryItemId());
+        return true;
+    }
+    
+    /**
+     * A lot for the stock an item holds outside its lots, e.g. from before lot tracking, dated and
+     * costed as the item was; null if every unit is already in a lot
+     * The stock itself does not change, so no movement is recorded for it.
+     */
+    private InventoryLot openingLot(Connection conn, int itemId) throws SQLException {
+        String sql = """
+            SELECT ii.current_stock - COALESCE((SELECT SUM(l.quantity_remaining) FROM inventory_lots l
+                                                WHERE l.inventory_item_id = ii.id), 0) AS untracked,
+                   ii.expiration_date, ii.cost_price
+            FROM inventory_items ii
+            WHERE ii.id = ?
+            """;
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, itemId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || rs.getInt("untracked") <= 0) {
+                    return null;
+                }
+                InventoryLot lot = new InventoryLot(itemId, rs.getInt("untracked"), readDate(rs, "expiration_date"),
+                        rs.getBigDecimal("cost_price"));
+                lot.setLotNumber("OPENING");
+                return lot;
+            }
+        }
+    }
+    
+    /**
+     * Get the open lots of an item in the order they will be consumed
+     */
+    public List<InventoryLot> getOpenLots(int itemId) {
+        try {
+            return Main.getLotService().getOpenLots(Main.getDatabaseManager().getConnection(), itemId);
+        } catch (SQLException e) {
+            logger.severe("Error getting lots for item ID " + itemId + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Take stock out of several items inside the caller's transaction, first-expiring lot first
+     * The stock decrements, lot updates, movements and expiry refreshes each run as one batch.
+     * Stock not covered by lots (e.g. from before lot tracking) is consumed after the lots.
+     * Callers must restore the returned draws through LotService if they roll back.
+     * @param quantities quantity to take per inventory item ID
+     * @return the lot draws, or null if any item does not have enough stock
+     */
+    List<LotService.LotDraw> consumeStock(Connection conn, Map<Integer, Integer> quantities, String reason,
+                                          Integer userId) throws SQLException {
+        if (quantities.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        String sql = """
+            UPDATE inventory_items 
+            SET current_stock = current_stock - ?, date_modified = CURRENT_TIMESTAMP, row_version = row_version + 1
             WHERE id = ? AND current_stock >= ?
             """;
         
-        try (Connection conn = Main.getDatabaseManager().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        List<Integer> itemIds = new ArrayList<>(quantities.keySet());
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int itemId : itemIds) {
+                stmt.setInt(1, quantities.get(itemId));
+                stmt.setInt(2, itemId);
+                stmt.setInt(3, quantities.get(itemId));
+                stmt.addBatch();
+            }
             
-            stmt.setInt(1, quantity);
-            stmt.setInt(2, itemId);
-            stmt.setInt(3, quantity);
+            int[] updated = stmt.executeBatch();
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] == 0) {
+                    logger.warning("Insufficient stock for item ID " + itemIds.get(i));
+                    return null;
+                }
+            }
+        }
+        
+        List<LotService.LotDraw> draws = new ArrayList<>();
+        try {
+            // drawLots puts back its own draws if it fails
+            draws.addAll(Main.getLotService().drawLots(conn, quantities));
+            Map<Integer, Integer> untracked = new HashMap<>(quantities);
+            Set<Integer> drawnItems = new LinkedHashSet<>();
+            String movementSql = """
+                INSERT INTO stock_movements (inventory_item_id, movement_type, quantity, reason, user_id, lot_id)
+                VALUES (?, 'OUT', ?, ?, ?, ?)
+                """;
             
-            int rowsAffected = stmt.executeUpdate();
+            try (PreparedStatement stmt = conn.prepareStatement(movementSql)) {
+                for (LotService.LotDraw draw : draws) {
+                    int itemId = draw.lot().getInventoryItemId();
+                    addMovementBatch(stmt, itemId, draw.quantity(), reason, userId, draw.lot().getId());
+                    untracked.merge(itemId, -draw.quantity(), Integer::sum);
+                    drawnItems.add(itemId);
+                }
+                for (Map.Entry<Integer, Integer> entry : untracked.entrySet()) {
+                    if (entry.getValue() > 0) {
+                        addMovementBatch(stmt, entry.getKey(), entry.getValue(), reason, userId, null);
+                    }
+                }
+                stmt.executeBatch();
+            }
             
-            if (rowsAffected > 0) {
-                // Record stock movement
-                recordStockMovement(itemId, "OUT", quantity, reason, null);
-                logger.info("Stock removed successfully: " + quantity + " units from item ID " + itemId);
-                return true;
+            refreshExpirationDates(conn, drawnItems);
+        } catch (Throwable e) {
+            // The caller only restores draws it was handed
+            Main.getLotService().restoreLots(draws);
+            throw e;
+        }
+        
+        return draws;
+    }
+    
+    /**
+     * The part of each quantity the item's stock still covers, inside the caller's transaction
+     * Items with no stock left, or no longer in inventory, are left out.
+     */
+    Map<Integer, Integer> coveredByStock(Connection conn, Map<Integer, Integer> quantities) throws SQLException {
+        Map<Integer, Integer> covered = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            Integer stock = getCurrentStock(conn, entry.getKey());
+            int taken = stock != null ? Math.min(entry.getValue(), stock) : 0;
+            if (taken > 0) {
+                covered.put(entry.getKey(), taken);
             }
-        } catch (SQLException e) {
-            logger.severe("Error removing stock from item ID " + itemId + ": " + e.getMessage());
+        }
+        return covered;
+    }
+    
+    private void addMovementBatch(PreparedStatement stmt, int itemId, int quantity, String reason, Integer userId,
+                                  Integer lotId) throws SQLException {
+        stmt.setInt(1, itemId);
+        stmt.setInt(2, quantity);
+        stmt.setString(3, reason);
+        stmt.setObject(4, userId);
+        stmt.setObject(5, lotId);
+        stmt.addBatch();
+    }
+    
+    /**
+     * Keep the item's expiration date equal to the lot that will be consumed next,
+     * so expiry queries on inventory_items keep working for batch-tracked items
+     */
+    private void refreshExpirationDate(Connection conn, int itemId) throws SQLException {
+        refreshExpirationDates(conn, Set.of(itemId));
+    }
+    
+    private void refreshExpirationDates(Connection conn, Set<Integer> itemIds) throws SQLException {
+        if (itemIds.isEmpty()) {
+            return;
         }
         
-        return false;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE inventory_items SET expiration_date = ? WHERE id = ?")) {
+            for (int itemId : itemIds) {
+                LocalDate earliest = Main.getLotService().getEarliestExpiration(conn, itemId);
+                stmt.setString(1, earliest != null ? earliest.toString() : null);
+                stmt.setInt(2, itemId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+    
+    /**
+     * Get items at or below their reorder point, with forecast-based order quantities
+     */
+    public List<InventoryItem> getItemsToReorder() {
+        List<InventoryItem> items = new ArrayList<>();
+        for (InventoryItem item : getAllInventoryItems()) {
+            if (item.needsReorder() && item.getReorderQuantity() > 0) {
+                items.add(item);
+            }
+        }
+        return items;
     }
     
     /**
@@ -262,16 +685,7 @@ public class InventoryService {
      */
     public List<InventoryItem> getLowStockItems() {
         List<InventoryItem> items = new ArrayList<>();
-        String sql = """
-            SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
-                   ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
-                   ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
-                   p.name, p.description, p.price, p.category, p.barcode, p.unit
-            FROM inventory_items ii
-            JOIN products p ON ii.product_id = p.id
-            WHERE ii.current_stock <= ii.low_stock_threshold AND ii.is_active = 1
-            ORDER BY ii.current_stock ASC
-            """;
+        String sql = LOW_STOCK_SQL;
         
         try (Connection conn = Main.getDatabaseManager().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
@@ -292,16 +706,7 @@ public class InventoryService {
      */
     public List<InventoryItem> getCriticalStockItems() {
         List<InventoryItem> items = new ArrayList<>();
-        String sql = """
-            SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
-                   ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
-                   ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
-                   p.name, p.description, p.price, p.category, p.barcode, p.unit
-            FROM inventory_items ii
-            JOIN products p ON ii.product_id = p.id
-            WHERE ii.current_stock <= ii.critical_stock_threshold AND ii.is_active = 1
-            ORDER BY ii.current_stock ASC
-            """;
+        String sql = CRITICAL_STOCK_SQL;
         
         try (Connection conn = Main.getDatabaseManager().getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql);
@@ -321,15 +726,71 @@ public class InventoryService {
      * Get expired items
      */
     public List<InventoryItem> getExpiredItems() {
+        List<InventoryItem> items = new ArrayList<>();
+        String sql = EXPIRED_ITEMS_SQL;
+        
+        try (Connection conn = Main.getDatabaseManager().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            
+            while (rs.next()) {
+                items.add(mapResultSetToInventoryItem(rs));
+            }
+        } catch (SQLException e) {
+            logger.severe("Error getting expired items: " + e.getMessage());
+        }
+        
+        return items;
+    }
+    
+    /**
+     * Current stock of an item on the caller's connection, or null if there is no such item
+     */
+    private Integer getCurrentStock(Connection conn, int itemId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT current_stock FROM inventory_items WHERE id = ?")) {
+            stmt.setInt(1, itemId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+    
+    /**
+     * Record stock movement for the audit trail on the caller's connection, optionally tied to a lot
+     */
+    private void recordStockMovement(Connection conn, int itemId, String movementType, int quantity, String reason,
+                                     Integer userId, Integer lotId) throws SQLException {
+        String sql = """
+            INSERT INTO stock_movements (inventory_item_id, movement_type, quantity, reason, user_id, lot_id)
+            VALUES (?, ?, ?, ?, ?, ?)
+            """;
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, itemId);
+            stmt.setString(2, movementType);
+            stmt.setInt(3, quantity);
+            stmt.setString(4, reason);
+            stmt.setObject(5, userId);
+            stmt.setObject(6, lotId);
+            
+            stmt.executeUpdate();
+        }
+    }
+    
+    /**
+     * Get active, in-stock items that have an expiration date, for the expiry scheduler
+     */
+    public List<InventoryItem> getPerishableItems() {
         List<InventoryItem> items = new ArrayList<>();
         String sql = """
             SELECT ii.id, ii.product_id, ii.current_stock, ii.minimum_stock, ii.maximum_stock,
                    ii.cost_price, ii.expiration_date, ii.supplier, ii.location, ii.last_restocked,
                    ii.date_created, ii.date_modified, ii.is_active, ii.low_stock_threshold, ii.critical_stock_threshold,
+                   ii.row_version, p.row_version AS product_row_version,
                    p.name, p.description, p.price, p.category, p.barcode, p.unit
             FROM inventory_items ii
             JOIN products p ON ii.product_id = p.id
-            WHERE ii.expiration_date < CURRENT_DATE AND ii.is_active = 1 AND ii.current_stock > 0
+            WHERE ii.expiration_date IS NOT NULL AND ii.current_stock > 0 AND ii.is_active = 1
             ORDER BY ii.expiration_date ASC
             """;
         
@@ -341,34 +802,75 @@ public class InventoryService {
                 items.add(mapResultSetToInventoryItem(rs));
             }
         } catch (SQLException e) {
-            logger.severe("Error getting expired items: " + e.getMessage());
+            logger.severe("Error getting perishable items: " + e.getMessage());
         }
         
         return items;
     }
     
     /**
-     * Record stock movement for audit trail
+     * Tell the alert engine and expiry scheduler about an item right after its stock changed
      */
-    private void recordStockMovement(int itemId, String movementType, int quantity, String reason, Integer userId) {
+    void publishStockChange(int itemId) {
+        try (Connection conn = Main.getDatabaseManager().getConnection()) {
+            publishStockChange(conn, itemId);
+        } catch (SQLException e) {
+            logger.severe("Error publishing stock change for item ID " + itemId + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Same on the caller's connection, for background threads that must not use the shared one;
+     * an item that no longer exists stops being alerted and tracked
+     */
+    void publishStockChange(Connection conn, int itemId) throws SQLException {
         String sql = """
-            INSERT INTO stock_movements (inventory_item_id, movement_type, quantity, reason, user_id)
-            VALUES (?, ?, ?, ?, ?)
+            SELECT ii.current_stock, ii.low_stock_threshold, ii.critical_stock_threshold, ii.expiration_date, p.name
+            FROM inventory_items ii
+            JOIN products p ON ii.product_id = p.id
+            WHERE ii.id = ?
             """;
         
-        try (Connection conn = Main.getDatabaseManager().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, itemId);
-            stmt.setString(2, movementType);
-            stmt.setInt(3, quantity);
-            stmt.setString(4, reason);
-            stmt.setObject(5, userId);
             
-            stmt.executeUpdate();
-        } catch (SQLException e) {
-            logger.severe("Error recording stock movement: " + e.getMessage());
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    Main.getStockAlertService().onStockChanged(itemId, rs.getString("name"),
+                            rs.getInt("current_stock"), rs.getInt("low_stock_threshold"),
+                            rs.getInt("critical_stock_threshold"));
+                    trackExpiry(itemId, rs.getString("name"), readDate(rs, "expiration_date"), rs.getInt("current_stock"));
+                } else {
+                    Main.getStockAlertService().clear(itemId);
+                    Main.getExpiryScheduler().untrack(itemId);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Keep the expiry scheduler in line with an item; sold-out items cannot expire on the shelf
+     */
+    private void trackExpiry(int itemId, String itemName, LocalDate expirationDate, int currentStock) {
+        if (currentStock > 0) {
+            Main.getExpiryScheduler().track(itemId, itemName, expirationDate);
+        } else {
+            Main.getExpiryScheduler().untrack(itemId);
+        }
+    }
+    
+    /**
+     * Read a date column stored either as epoch milliseconds (setDate) or as SQLite date text
+     */
+    private LocalDate readDate(ResultSet rs, String column) throws SQLException {
+        Object value = rs.getObject(column);
+        if (value == null) {
+            return null;
+        } else if (value instanceof Number millis) {
+            return Instant.ofEpochMilli(millis.longValue()).atZone(ZoneId.systemDefault()).toLocalDate();
         }
+        String text = value.toString();
+        return LocalDate.parse(text.length() > 10 ? text.substring(0, 10) : text);
     }
     
     /**
@@ -382,17 +884,16 @@ public class InventoryService {
         item.setMinimumStock(rs.getInt("minimum_stock"));
         item.setMaximumStock(rs.getInt("maximum_stock"));
         item.setCostPrice(rs.getBigDecimal("cost_price"));
-        item.setExpirationDate(rs.getDate("expiration_date") != null ? 
-                              rs.getDate("expiration_date").toLocalDate() : null);
+        item.setExpirationDate(readDate(rs, "expiration_date"));
         item.setSupplier(rs.getString("supplier"));
         item.setLocation(rs.getString("location"));
-        item.setLastRestocked(rs.getDate("last_restocked") != null ? 
-                             rs.getDate("last_restocked").toLocalDate() : null);
-        item.setDateCreated(rs.getDate("date_created").toLocalDate());
-        item.setDateModified(rs.getDate("date_modified").toLocalDate());
+        item.setLastRestocked(readDate(rs, "last_restocked"));
+        item.setDateCreated(readDate(rs, "date_created"));
+        item.setDateModified(readDate(rs, "date_modified"));
         item.setActive(rs.getBoolean("is_active"));
         item.setLowStockThreshold(rs.getInt("low_stock_threshold"));
         item.setCriticalStockThreshold(rs.getInt("critical_stock_threshold"));
+        item.setRowVersion(rs.getInt("row_version"));
         
         // Create and set product
         Product product = new Product();
@@ -403,8 +904,13 @@ public class InventoryService {
         product.setCategory(rs.getString("category"));
         product.setBarcode(rs.getString("barcode"));
         product.setUnit(rs.getString("unit"));
+        product.setRowVersion(rs.getInt("product_row_version"));
         item.setProduct(product);
         
+        // Attach the forecast-based reorder plan
+        item.setReorderPoint(Main.getForecastService().getReorderPoint(item));
+        item.setSuggestedReorderQuantity(Main.getForecastService().getSuggestedQuantity(item));
+        
         return item;
     }
 }
@@ -0,0 +1,232 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.models.InventoryLot;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+/**
+ * Lot store for batch-tracked inventory
+ * Keeps the open lots of each item in an in-memory heap ordered first-expired-first-out (FEFO),
+ * so drawing stock for a sale costs O(log lots) instead of a sorted query.
+ * Statements run on the caller's connection so they join the caller's transaction.
+ */
+public class LotService {
+    private static final Logger logger = Logger.getLogger(LotService.class.getName());
+    
+    // Earliest expiry first; undated lots last; ties broken by delivery order
+    private static final Comparator<InventoryLot> FEFO_ORDER = Comparator
+            .comparing(InventoryLot::getExpirationDate, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparingInt(InventoryLot::getId);
+    
+    /**
+     * Quantity taken from one lot
+     */
+    public record LotDraw(InventoryLot lot, int quantity) {
+    }
+    
+    private final Map<Integer, PriorityQueue<InventoryLot>> openLots = new HashMap<>();
+    
+    /**
+     * Get the open lots of an item in consumption order
+     */
+    public synchronized List<InventoryLot> getOpenLots(Connection conn, int itemId) throws SQLException {
+        List<InventoryLot> lots = new ArrayList<>(lotsFor(conn, itemId));
+        lots.sort(FEFO_ORDER);
+        return lots;
+    }
+    
+    /**
+     * Check if an item has any open lots
+     */
+    public synchronized boolean hasOpenLots(Connection conn, int itemId) throws SQLException {
+        return !lotsFor(conn, itemId).isEmpty();
+    }
+    
+    /**
+     * Expiration date of the lot that will be consumed next, or null if there is none
+     */
+    public synchronized LocalDate getEarliestExpiration(Connection conn, int itemId) throws SQLException {
+        InventoryLot next = lotsFor(conn, itemId).peek();
+        return next != null ? next.getExpirationDate() : null;
+    }
+    
+    /**
+     * Insert a new lot and add it to the item's heap
+     * If the caller's transaction rolls back, it must call {@link #discardLot(InventoryLot)}
+     */
+    public synchronized void insertLot(Connection conn, InventoryLot lot) throws SQLException {
+        String sql = """
+            INSERT INTO inventory_lots (inventory_item_id, lot_number, quantity_received, quantity_remaining,
+                                        expiration_date, cost_price)
+            VALUES (?, ?, ?, ?, ?, ?)
+            """;
+        
+        PriorityQueue<InventoryLot> heap = lotsFor(conn, lot.getInventoryItemId());
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, lot.getInventoryItemId());
+            stmt.setString(2, lot.getLotNumber());
+            stmt.setInt(3, lot.getQuantityReceived());
+            stmt.setInt(4, lot.getQuantityRemaining());
+            stmt.setString(5, lot.getExpirationDate() != null ? lot.getExpirationDate().toString() : null);
+            stmt.setBigDecimal(6, lot.getCostPrice());
+            stmt.executeUpdate();
+            lot.setId(DatabaseManager.getLastInsertId(conn));
+        }
+        
+        heap.add(lot);
+    }
+    
+    /**
+     * Undo {@link #insertLot(Connection, InventoryLot)} in memory after a rollback
+     */
+    public synchronized void discardLot(InventoryLot lot) {
+        PriorityQueue<InventoryLot> heap = openLots.get(lot.getInventoryItemId());
+        if (heap != null) {
+            heap.remove(lot);
+        }
+    }
+    
+    /**
+     * Take up to the requested quantities from the lots of several items, first-expiring lot first
+     * Returns what was taken, which is less than requested for items whose lots run out;
+     * all lot updates go to the database as one batch.
+     * If the caller's transaction rolls back, it must call {@link #restoreLots(List)}
+     */
+    public synchronized List<LotDraw> drawLots(Connection conn, Map<Integer, Integer> quantities) throws SQLException {
+        List<LotDraw> draws = new ArrayList<>();
+        
+        // Loading a later item's lots can fail after earlier items were drawn in memory
+        try {
+            for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+                PriorityQueue<InventoryLot> heap = lotsFor(conn, entry.getKey());
+                int remaining = entry.getValue();
+                
+                while (remaining > 0 && !heap.isEmpty()) {
+                    InventoryLot lot = heap.peek();
+                    int taken = Math.min(remaining, lot.getQuantityRemaining());
+                    lot.setQuantityRemaining(lot.getQuantityRemaining() - taken);
+                    remaining -= taken;
+                    draws.add(new LotDraw(lot, taken));
+                    
+                    if (lot.isDepleted()) {
+                        heap.poll();
+                    }
+                }
+            }
+            
+            if (draws.isEmpty()) {
+                return draws;
+            }
+            
+            String sql = "UPDATE inventory_lots SET quantity_remaining = quantity_remaining - ? WHERE id = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (LotDraw draw : draws) {
+                    stmt.setInt(1, draw.quantity());
+                    stmt.setInt(2, draw.lot().getId());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        } catch (Throwable e) {
+            restoreLots(draws);
+            throw e;
+        }
+        
+        return draws;
+    }
+    
+    /**
+     * Put drawn quantities back after the caller's transaction rolled back
+     */
+    public synchronized void restoreLots(List<LotDraw> draws) {
+        for (LotDraw draw : draws) {
+            InventoryLot lot = draw.lot();
+            boolean wasDepleted = lot.isDepleted();
+            lot.setQuantityRemaining(lot.getQuantityRemaining() + draw.quantity());
+            
+            PriorityQueue<InventoryLot> heap = openLots.get(lot.getInventoryItemId());
+            if (heap != null && wasDepleted && !heap.contains(lot)) {
+                heap.add(lot);
+            }
+        }
+    }
+    
+    /**
+     * Drop the cached heap of an item so it is reloaded from the database on next use
+     */
+    public synchronized void invalidate(int itemId) {
+        openLots.remove(itemId);
+    }
+    
+    /**
+     * Drop every cached heap
+     */
+    public synchronized void invalidateAll() {
+        openLots.clear();
+    }
+    
+    /**
+     * Get the heap of an item, loading its open lots on first use; caller holds the lock
+     */
+    private PriorityQueue<InventoryLot> lotsFor(Connection conn, int itemId) throws SQLException {
+        PriorityQueue<InventoryLot> heap = openLots.get(itemId);
+        if (heap != null) {
+            return heap;
+        }
+        
+        String sql = """
+            SELECT id, inventory_item_id, lot_number, quantity_received, quantity_remaining,
+                   expiration_date, cost_price, received_date
+            FROM inventory_lots
+            WHERE inventory_item_id = ? AND quantity_remaining > 0
+            """;
+        
+        heap = new PriorityQueue<>(FEFO_ORDER);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, itemId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    heap.add(mapResultSetToLot(rs));
+                }
+            }
+        }
+        
+        openLots.put(itemId, heap);
+        logger.fine("Loaded " + heap.size() + " open lots for item ID " + itemId);
+        return heap;
+    }
+    
+    /**
+     * Map ResultSet to InventoryLot object
+     */
+    private InventoryLot mapResultSetToLot(ResultSet rs) throws SQLException {
+        InventoryLot lot = new InventoryLot();
+        
+        lot.setId(rs.getInt("id"));
+        lot.setInventoryItemId(rs.getInt("inventory_item_id"));
+        lot.setLotNumber(rs.getString("lot_number"));
+        lot.setQuantityReceived(rs.getInt("quantity_received"));
+        lot.setQuantityRemaining(rs.getInt("quantity_remaining"));
+        String expiration = rs.getString("expiration_date");
+        lot.setExpirationDate(expiration != null ? LocalDate.parse(expiration) : null);
+        lot.setCostPrice(rs.getBigDecimal("cost_price"));
+        String received = rs.getString("received_date");
+        lot.setReceivedDate(received != null ? LocalDate.parse(received.substring(0, 10)) : null);
+        
+        return lot;
+    }
+}
@@ -0,0 +1,108 @@
+package com.cofitearia.milktea.services;
+
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * One copy of the live database with the SQLite backup API, made a few pages at a time
+ * SQLite calls back after every step; the pause there leaves the source unlocked so checkouts are
+ * not held up. A write to the source restarts the copy, so when writes keep restarting it the source
+ * connection opens a read transaction and the last pass finishes while writers wait for that one pass.
+ */
+class PacedCopy implements DB.ProgressObserver {
+    private static final Logger logger = Logger.getLogger(PacedCopy.class.getName());
+    
+    private static final int PAGES_PER_STEP = 128;
+    private static final long STEP_PAUSE_MILLIS = 5;
+    private static final int MAX_PACED_RESTARTS = 3;
+    // Busy waits are counted over the whole copy, not per step
+    private static final int BUSY_SLEEP_MILLIS = 20;
+    private static final int BUSY_RETRIES = 1000;
+    
+    private Connection source;
+    private int pageCount;
+    private int lastRemaining = Integer.MAX_VALUE;
+    private int restarts;
+    private boolean locked;
+    
+    /**
+     * Copy the main database of a connection to a file or SQLite URI, replacing its contents
+     */
+    void copy(Connection source, String destination) throws SQLException {
+        this.source = source;
+        DB db = source.unwrap(SQLiteConnection.class).getDatabase();
+        int rc;
+        try {
+            rc = db.backup("main", destination, this, BUSY_SLEEP_MILLIS, BUSY_RETRIES, PAGES_PER_STEP);
+        } finally {
+            unlockSource();
+        }
+        if (rc != 0) {
+            throw new SQLException("Copy stopped with SQLite error code " + rc);
+        }
+    }
+    
+    int getPageCount() {
+        return pageCount;
+    }
+    
+    /**
+     * Times the copy started over because another connection wrote to the database meanwhile
+     */
+    int getRestarts() {
+        return restarts;
+    }
+    
+    @Override
+    public void progress(int remaining, int pageCount) {
+        this.pageCount = pageCount;
+        if (remaining > lastRemaining) {
+            restarts++;
+        }
+        lastRemaining = remaining;
+        if (remaining == 0) {
+            return;
+        }
+        
+        if (restarts < MAX_PACED_RESTARTS) {
+            try {
+                Thread.sleep(STEP_PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (!locked) {
+            lockSource();
+        }
+    }
+    
+    private void lockSource() {
+        // A second connection would deadlock: a waiting writer stops the copy taking new read locks
+        try (Statement stmt = source.createStatement()) {
+            stmt.execute("BEGIN");
+            locked = true;
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                rs.next();
+            }
+            logger.info("Copy restarted " + restarts + " times; holding a read lock for the last pass");
+        } catch (SQLException e) {
+            logger.warning("Failed to lock the database for the copy: " + e.getMessage());
+        }
+    }
+    
+    private void unlockSource() {
+        if (locked) {
+            try (Statement stmt = source.createStatement()) {
+                stmt.execute("COMMIT");
+            } catch (SQLException e) {
+                logger.warning("Failed to release the copy's read lock: " + e.getMessage());
+            }
+            locked = false;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.ImportResult;
+import com.cofitearia.milktea.utils.CsvReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Bulk import of products and their inventory from CSV
+ * The file is parsed one record at a time, each row is validated, and valid rows are upserted in
+ * batches keyed on barcode, committing every few thousand rows so checkouts are never held up for
+ * long. Importing the same file again updates the same products. Rejected rows go to an error file
+ * beside the input, with the line number and the reason, so they can be fixed and imported again.
+ *
+ * Columns are matched by header name: barcode, name and price are required; description, category
+ * and unit are optional. Rows with a current_stock value also set the product's inventory, along
+ * with any of minimum_stock, maximum_stock, cost_price, supplier, location and expiration_date.
+ * The stock they set is recorded in the movement ledger as an adjustment, like a stock level edit.
+ */
+public class ProductImportService {
+    private static final Logger logger = Logger.getLogger(ProductImportService.class.getName());
+    
+    private static final int BATCH_SIZE = 1000;
+    private static final int TRANSACTION_ROWS = 20_000;
+    private static final int MAX_ERROR_SAMPLES = 20;
+    
+    private static final List<String> REQUIRED_COLUMNS = List.of("barcode", "name", "price");
+    
+    private static final String PRODUCT_UPSERT_SQL = """
+        INSERT INTO products (barcode, name, description, price, category, unit)
+        VALUES (?, ?, ?, ?, ?, COALESCE(?, 'piece'))
+        ON CONFLICT(barcode) DO UPDATE SET
+            name = excluded.name,
+            description = COALESCE(excluded.description, products.description),
+            price = excluded.price,
+            category = COALESCE(excluded.category, products.category),
+            unit = COALESCE(?, products.unit),
+            is_active = 1,
+            date_modified = CURRENT_TIMESTAMP
+        """;
+    
+    // inventory_items has no unique key on product_id, so its upsert is an update followed by an insert if missing
+    private static final String INVENTORY_UPDATE_SQL = """
+        UPDATE inventory_items SET
+            current_stock = ?,
+            minimum_stock = COALESCE(?, minimum_stock),
+            maximum_stock = COALESCE(?, maximum_stock),
+            cost_price = COALESCE(?, cost_price),
+            supplier = COALESCE(?, supplier),
+            location = COALESCE(?, location),
+            expiration_date = COALESCE(?, expiration_date),
+            last_restocked = date('now', 'localtime'),
+            date_modified = CURRENT_TIMESTAMP
+        WHERE product_id = (SELECT id FROM products WHERE barcode = ?)
+        """;
+    
+    // Runs before the update, while current_stock still holds the level the import replaces
+    private static final String INVENTORY_ADJUSTMENT_SQL = """
+        INSERT INTO stock_movements (inventory_item_id, movement_type, quantity, reason)
+        SELECT i.id, 'ADJUSTMENT', ? - i.current_stock, 'Stock level imported'
+        FROM inventory_items i
+        JOIN products p ON p.id = i.product_id
+        WHERE p.barcode = ? AND i.current_stock <> ?
+        """;
+    
+    private static final String OPENING_STOCK_SQL = """
+        INSERT INTO stock_movements (inventory_item_id, movement_type, quantity, reason)
+        SELECT i.id, 'ADJUSTMENT', i.current_stock, 'Opening stock'
+        FROM inventory_items i
+        JOIN products p ON p.id = i.product_id
+        WHERE p.barcode = ? AND i.current_stock <> 0
+        """;
+    
+    private static final String INVENTORY_INSERT_SQL = """
+        INSERT INTO inventory_items (product_id, current_stock, minimum_stock, maximum_stock, cost_price,
+                                     supplier, location, expiration_date, last_restocked)
+        SELECT p.id, ?, COALESCE(?, 0), COALESCE(?, 1000), ?, ?, ?, ?, date('now', 'localtime')
+        FROM products p
+        WHERE p.barcode = ? AND NOT EXISTS (SELECT 1 FROM inventory_items i WHERE i.product_id = p.id)
+        """;
+    
+    /**
+     * A validated row of the file
+     */
+    private record ImportRow(String barcode, String name, String description, BigDecimal price, String category,
+                             String unit, Integer currentStock, Integer minimumStock, Integer maximumStock,
+                             BigDecimal costPrice, String supplier, String location, String expirationDate) {
+        
+        boolean hasInventory() {
+            return currentStock != null;
+        }
+    }
+    
+    /**
+     * Import a CSV file of products, stopping early if the calling thread is interrupted
+     * Rows committed before a database error or an interruption stay imported.
+     */
+    public ImportResult importCsv(Path file) {
+        long start = System.nanoTime();
+        ErrorLog errors = new ErrorLog(errorFileFor(file));
+        long rowsRead = 0;
+        long committed = 0;
+        boolean completed = false;
+        
+        try (CsvReader csv = new CsvReader(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+             Connection conn = Main.getDatabaseManager().openConnection();
+             PreparedStatement productStmt = conn.prepareStatement(PRODUCT_UPSERT_SQL);
+             PreparedStatement inventoryUpdateStmt = conn.prepareStatement(INVENTORY_UPDATE_SQL);
+             PreparedStatement inventoryInsertStmt = conn.prepareStatement(INVENTORY_INSERT_SQL);
+             PreparedStatement adjustmentStmt = conn.prepareStatement(INVENTORY_ADJUSTMENT_SQL);
+             PreparedStatement openingStockStmt = conn.prepareStatement(OPENING_STOCK_SQL)) {
+            
+            Files.deleteIfExists(errors.file);
+            
+            String[] header = csv.readRecord();
+            if (header != null) {
+                // Spreadsheet programs often start UTF-8 files with a byte order mark
+                header[0] = header[0].replace("\uFEFF", "");
+            }
+            Map<String, Integer> columns = header == null ? Map.of() : mapColumns(header);
+            for (String required : REQUIRED_COLUMNS) {
+                if (!columns.containsKey(required)) {
+                    errors.fail("The file needs a header row with the columns " + String.join(", ", REQUIRED_COLUMNS));
+                    return errors.result(false, 0, 0, start);
+                }
+            }
+            errors.setHeader(header);
+            
+            List<ImportRow> batch = new ArrayList<>(BATCH_SIZE);
+            Set<String> barcodes = new HashSet<>();
+            long imported = 0;
+            
+            conn.setAutoCommit(false);
+            try {
+                String[] record;
+                while ((record = csv.readRecord()) != null) {
+                    if (record.length == 1 && record[0].isBlank()) {
+                        continue;
+                    }
+                    rowsRead++;
+                    
+                    try {
+                        ImportRow row = parseRow(record, header.length, columns);
+                        if (!barcodes.add(row.barcode())) {
+                            throw new IllegalArgumentException("Barcode " + row.barcode() + " appears earlier in the file");
+                        }
+                        batch.add(row);
+                    } catch (IllegalArgumentException e) {
+                        errors.reject(csv.getRecordLine(), record, e.getMessage());
+                        continue;
+                    }
+                    
+                    if (batch.size() == BATCH_SIZE) {
+                        imported += writeBatch(batch, productStmt, inventoryUpdateStmt, inventoryInsertStmt,
+                                adjustmentStmt, openingStockStmt);
+                        if (imported - committed >= TRANSACTION_ROWS) {
+                            conn.commit();
+                            committed = imported;
+                            if (Thread.currentThread().isInterrupted()) {
+                                logger.info("Product import cancelled after " + committed + " rows");
+                                return errors.result(false, rowsRead, committed, start);
+                            }
+                        }
+                    }
+                }
+                
+                imported += writeBatch(batch, productStmt, inventoryUpdateStmt, inventoryInsertStmt,
+                        adjustmentStmt, openingStockStmt);
+                conn.commit();
+                committed = imported;
+                completed = true;
+            } catch (Throwable e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException | IOException e) {
+            logger.severe("Error importing products from " + file + ": " + e.getMessage());
+            errors.fail("Import stopped: " + e.getMessage());
+        } finally {
+            errors.close();
+        }
+        
+        ImportResult result = errors.result(completed, rowsRead, committed, start);
+        logger.info("Product import from " + file + ": " + result);
+        return result;
+    }
+    
+    /**
+     * Error file for an import, e.g. products.errors.csv for products.csv
+     */
+    public static Path errorFileFor(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + ".errors.csv");
+    }
+    
+    private int writeBatch(List<ImportRow> batch, PreparedStatement productStmt,
+                           PreparedStatement inventoryUpdateStmt, PreparedStatement inventoryInsertStmt,
+                           PreparedStatement adjustmentStmt, PreparedStatement openingStockStmt) throws SQLException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        
+        for (ImportRow row : batch) {
+            productStmt.setString(1, row.barcode());
+            productStmt.setString(2, row.name());
+            productStmt.setString(3, row.description());
+            productStmt.setBigDecimal(4, row.price());
+            productStmt.setString(5, row.category());
+            productStmt.setString(6, row.unit());
+            // A row without a unit keeps the one an existing product has; only new products default to piece
+            productStmt.setString(7, row.unit());
+            productStmt.addBatch();
+        }
+        productStmt.executeBatch();
+        
+        // Products go first so the inventory rows can find them by barcode
+        List<ImportRow> inventoryRows = new ArrayList<>();
+        for (ImportRow row : batch) {
+            if (!row.hasInventory()) {
+                continue;
+            }
+            inventoryRows.add(row);
+            adjustmentStmt.setInt(1, row.currentStock());
+            adjustmentStmt.setString(2, row.barcode());
+            adjustmentStmt.setInt(3, row.currentStock());
+            adjustmentStmt.addBatch();
+            bindInventory(inventoryUpdateStmt, row);
+            inventoryUpdateStmt.addBatch();
+            bindInventory(inventoryInsertStmt, row);
+            inventoryInsertStmt.addBatch();
+        }
+        if (!inventoryRows.isEmpty()) {
+            adjustmentStmt.executeBatch();
+            inventoryUpdateStmt.executeBatch();
+            int[] inserted = inventoryInsertStmt.executeBatch();
+            
+            // Only the items this batch created start their ledger with the imported stock
+            boolean hasOpeningStock = false;
+            for (int i = 0; i < inserted.length; i++) {
+                if (inserted[i] > 0) {
+                    hasOpeningStock = true;
+                    openingStockStmt.setString(1, inventoryRows.get(i).barcode());
+                    openingStockStmt.addBatch();
+                }
+            }
+            if (hasOpeningStock) {
+                openingStockStmt.executeBatch();
+            }
+        }
+        
+        int rows = batch.size();
+        batch.clear();
+        return rows;
+    }
+    
+    private void bindInventory(PreparedStatement stmt, ImportRow row) throws SQLException {
+        stmt.setInt(1, row.currentStock());
+        stmt.setObject(2, row.minimumStock());
+        stmt.setObject(3, row.maximumStock());
+        stmt.setBigDecimal(4, row.costPrice());
+        stmt.setString(5, row.supplier());
+        stmt.setString(6, row.location());
+        stmt.setString(7, row.expirationDate());
+        stmt.setString(8, row.barcode());
+    }
+    
+    private Map<String, Integer> mapColumns(String[] header) {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            String name = header[i].trim().toLowerCase(Locale.ROOT);
+            columns.putIfAbsent(name.replace(' ', '_'), i);
+        }
+        return columns;
+    }
+    
+    /**
+     * Validate a record against the header
+     * @throws IllegalArgumentException with the reason the row is rejected
+     */
+    private ImportRow parseRow(String[] record, int fieldCount, Map<String, Integer> columns) {
+        if (record.length != fieldCount) {
+            throw new IllegalArgumentException("Expected " + fieldCount + " fields but found " + record.length);
+        }
+        
+        String barcode = text(record, columns, "barcode");
+        String name = text(record, columns, "name");
+        if (barcode == null) {
+            throw new IllegalArgumentException("Barcode is required");
+        }
+        if (name == null) {
+            throw new IllegalArgumentException("Name is required");
+        }
+        BigDecimal price = amount(record, columns, "price");
+        if (price == null) {
+            throw new IllegalArgumentException("Price is required");
+        }
+        
+        String expirationDate = text(record, columns, "expiration_date");
+        if (expirationDate != null) {
+            try {
+                expirationDate = LocalDate.parse(expirationDate).toString();
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("expiration_date must be a date like 2024-12-31");
+            }
+        }
+        
+        return new ImportRow(barcode, name,
+                text(record, columns, "description"),
+                price,
+                text(record, columns, "category"),
+                text(record, columns, "unit"),
+                count(record, columns, "current_stock"),
+                count(record, columns, "minimum_stock"),
+                count(record, columns, "maximum_stock"),
+                amount(record, columns, "cost_price"),
+                text(record, columns, "supplier"),
+                text(record, columns, "location"),
+                expirationDate);
+    }
+    
+    private static String text(String[] record, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null) {
+            return null;
+        }
+        String value = record[index].trim();
+        return value.isEmpty() ? null : value;
+    }
+    
+    private static Integer count(String[] record, Map<String, Integer> columns, String column) {
+        String value = text(record, columns, column);
+        if (value == null) {
+            return null;
+        }
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(column + " must be a whole number of 0 or more, not '" + value + "'");
+    }
+    
+    private static BigDecimal amount(String[] record, Map<String, Integer> columns, String column) {
+        String value = text(record, columns, column);
+        if (value == null) {
+            return null;
+        }
+        try {
+            BigDecimal amount = new BigDecimal(value.replace(",", ""));
+            if (amount.signum() >= 0) {
+                return amount.setScale(2, RoundingMode.HALF_UP);
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(column + " must be an amount of 0 or more, not '" + value + "'");
+    }
+    
+    /**
+     * Rejected rows of one import, written to the error file as they are found
+     */
+    private static class ErrorLog {
+        private final Path file;
+        private final List<String> samples = new ArrayList<>();
+        private String[] header = new String[0];
+        private BufferedWriter writer;
+        private long rejected;
+        
+        ErrorLog(Path file) {
+            this.file = file;
+        }
+        
+        void setHeader(String[] header) {
+            this.header = header;
+        }
+        
+        void reject(int line, String[] record, String reason) {
+            rejected++;
+            if (samples.size() < MAX_ERROR_SAMPLES) {
+                samples.add("Line " + line + ": " + reason);
+            }
+            
+            try {
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                    writeRecord("line", "error", header);
+                }
+                writeRecord(String.valueOf(line), reason, record);
+            } catch (IOException e) {
+                logger.warning("Could not write import error file " + file + ": " + e.getMessage());
+            }
+        }
+        
+        /**
+         * Record a problem with the import as a whole
+         */
+        void fail(String reason) {
+            samples.add(reason);
+        }
+        
+        ImportResult result(boolean completed, long rowsRead, long rowsImported, long startNanos) {
+            return new ImportResult(completed, rowsRead, rowsImported, rejected, samples,
+                    rejected > 0 ? file : null, (System.nanoTime() - startNanos) / 1_000_000);
+        }
+        
+        void close() {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warning("Could not close import error file " + file + ": " + e.getMessage());
+            }
+        }
+        
+        private void writeRecord(String line, String reason, String[] fields) throws IOException {
+            writer.write(line);
+            writer.write(',');
+            writer.write(quote(reason));
+            for (String field : fields) {
+                writer.write(',');
+                writer.write(quote(field));
+            }
+            writer.write("\r\n");
+        }
+        
+        private static String quote(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+}
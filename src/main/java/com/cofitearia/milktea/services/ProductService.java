@@ -2,6 +2,7 @@ package com.cofitearia.milktea.services;
 
 import com.cofitearia.milktea.Main;
 import com.cofitearia.milktea.models.Product;
+import com.cofitearia.milktea.models.UpdateResult;
 
 import java.math.BigDecimal;
 import java.sql.Connection;
@@ -11,6 +12,8 @@ import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -19,6 +22,9 @@ import java.util.logging.Logger;
 public class ProductService {
     private static final Logger logger = Logger.getLogger(ProductService.class.getName());
     
+    // Compare-and-set attempts before an edit that keeps conflicting is given up
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+    
     /**
      * Get all active products
      */
@@ -26,7 +32,7 @@ public class ProductService {
         List<Product> products = new ArrayList<>();
         String sql = """
             SELECT id, name, description, price, category, barcode, unit,
-                   date_created, date_modified, is_active, alt_text, large_text_description
+                   date_created, date_modified, is_active, alt_text, large_text_description, row_version
             FROM products 
             WHERE is_active = 1
             ORDER BY name
@@ -52,7 +58,7 @@ public class ProductService {
     public Product getProductById(int productId) {
         String sql = """
             SELECT id, name, description, price, category, barcode, unit,
-                   date_created, date_modified, is_active, alt_text, large_text_description
+                   date_created, date_modified, is_active, alt_text, large_text_description, row_version
             FROM products 
             WHERE id = ? AND is_active = 1
             """;
@@ -81,7 +87,7 @@ public class ProductService {
         List<Product> products = new ArrayList<>();
         String sql = """
             SELECT id, name, description, price, category, barcode, unit,
-                   date_created, date_modified, is_active, alt_text, large_text_description
+                   date_created, date_modified, is_active, alt_text, large_text_description, row_version
             FROM products 
             WHERE category = ? AND is_active = 1
             ORDER BY name
@@ -139,14 +145,18 @@ public class ProductService {
     }
     
     /**
-     * Update product
+     * Update product unless another terminal changed it since it was loaded
+     * The update only applies to the row version the product was loaded with; on success the product
+     * carries the new version.
+     * @return UPDATED, CONFLICT with the product as it now stands, NOT_FOUND, or FAILED on a database error
      */
-    public boolean updateProduct(Product product) {
+    public UpdateResult<Product> updateProduct(Product product) {
         String sql = """
             UPDATE products 
             SET name = ?, description = ?, price = ?, category = ?, barcode = ?, unit = ?,
-                alt_text = ?, large_text_description = ?, date_modified = CURRENT_TIMESTAMP
-            WHERE id = ?
+                alt_text = ?, large_text_description = ?, date_modified = CURRENT_TIMESTAMP,
+                row_version = row_version + 1
+            WHERE id = ? AND row_version = ?
             """;
         
         try (Connection conn = Main.getDatabaseManager().getConnection();
@@ -161,18 +171,77 @@ public class ProductService {
             stmt.setString(7, product.getAltText());
             stmt.setString(8, product.getLargeTextDescription());
             stmt.setInt(9, product.getId());
+            stmt.setInt(10, product.getRowVersion());
             
             int rowsAffected = stmt.executeUpdate();
             
             if (rowsAffected > 0) {
+                product.setRowVersion(product.getRowVersion() + 1);
                 logger.info("Product updated successfully: " + product.getName());
-                return true;
+                return new UpdateResult<>(UpdateResult.Status.UPDATED, product, 1);
             }
         } catch (SQLException e) {
             logger.severe("Error updating product " + product.getName() + ": " + e.getMessage());
+            return new UpdateResult<>(UpdateResult.Status.FAILED, null, 1);
         }
         
-        return false;
+        Product current = getProductById(product.getId());
+        if (current == null) {
+            return new UpdateResult<>(UpdateResult.Status.NOT_FOUND, null, 1);
+        }
+        logger.info("Product ID " + product.getId() + " was changed on another terminal; not updated");
+        return new UpdateResult<>(UpdateResult.Status.CONFLICT, current, 1);
+    }
+    
+    /**
+     * Apply an edit to the latest version of a product, reloading the product and applying the edit
+     * again each time another terminal changed it first
+     */
+    public UpdateResult<Product> updateProduct(int productId, Consumer<Product> edit) {
+        UpdateResult<Product> result = null;
+        
+        for (int attempt = 1; attempt <= MAX_UPDATE_ATTEMPTS; attempt++) {
+            Product product = getProductById(productId);
+            if (product == null) {
+                return new UpdateResult<>(UpdateResult.Status.NOT_FOUND, null, attempt);
+            }
+            edit.accept(product);
+            result = updateProduct(product);
+            if (!result.isConflict()) {
+                return new UpdateResult<>(result.getStatus(), result.getCurrent(), attempt);
+            }
+        }
+        
+        logger.warning("Product ID " + productId + " kept changing on other terminals; gave up after "
+                + MAX_UPDATE_ATTEMPTS + " attempts");
+        return new UpdateResult<>(UpdateResult.Status.CONFLICT, result.getCurrent(), MAX_UPDATE_ATTEMPTS);
+    }
+    
+    /**
+     * Save an edit made to a product loaded earlier, reapplied to its latest version: only the fields
+     * the edit changed are overwritten, so changes made meanwhile on other terminals are kept
+     * @param loaded the product as it was loaded, before the edit
+     */
+    public UpdateResult<Product> saveProductEdit(Product loaded, Product edited) {
+        return updateProduct(edited.getId(), latest -> {
+            reapply(loaded.getName(), edited.getName(), latest::setName);
+            reapply(loaded.getDescription(), edited.getDescription(), latest::setDescription);
+            reapply(loaded.getPrice(), edited.getPrice(), latest::setPrice);
+            reapply(loaded.getCategory(), edited.getCategory(), latest::setCategory);
+            reapply(loaded.getBarcode(), edited.getBarcode(), latest::setBarcode);
+            reapply(loaded.getUnit(), edited.getUnit(), latest::setUnit);
+            reapply(loaded.getAltText(), edited.getAltText(), latest::setAltText);
+            reapply(loaded.getLargeTextDescription(), edited.getLargeTextDescription(), latest::setLargeTextDescription);
+        });
+    }
+    
+    /**
+     * Set a field of the latest version of a row only if the edit changed it
+     */
+    private static <T> void reapply(T before, T after, Consumer<T> setter) {
+        if (!Objects.equals(before, after)) {
+            setter.accept(after);
+        }
     }
     
     /**
@@ -205,7 +274,7 @@ public class ProductService {
         List<Product> products = new ArrayList<>();
         String sql = """
             SELECT id, name, description, price, category, barcode, unit,
-                   date_created, date_modified, is_active, alt_text, large_text_description
+                   date_created, date_modified, is_active, alt_text, large_text_description, row_version
             FROM products 
             WHERE (name LIKE ? OR description LIKE ? OR barcode LIKE ?) AND is_active = 1
             ORDER BY name
@@ -293,6 +362,7 @@ public class ProductService {
         product.setActive(rs.getBoolean("is_active"));
         product.setAltText(rs.getString("alt_text"));
         product.setLargeTextDescription(rs.getString("large_text_description"));
+        product.setRowVersion(rs.getInt("row_version"));
         
         return product;
     }
@@ -0,0 +1,204 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Read-only in-memory replica of the database for reports
+ * The live file is copied into an in-memory SQLite database with the backup API, paced so checkouts
+ * keep committing during the copy. Each refresh builds a new copy and swaps it in, so reports running
+ * on the old one are never blocked. The live database is polled cheaply through PRAGMA data_version,
+ * and a new copy is only made when something changed, at most once per refresh interval.
+ */
+public class ReadReplica {
+    private static final Logger logger = Logger.getLogger(ReadReplica.class.getName());
+    
+    private static final String REPLICA_URI = "file:read-replica-%d?mode=memory&cache=shared";
+    private static final long CHECK_SECONDS = 5;
+    // Readers that looked up the old copy just before a swap get this long to open it
+    private static final long RETIRE_DELAY_SECONDS = 30;
+    
+    private record Copy(String uri, Connection keepAlive) {
+    }
+    
+    private volatile Copy current;
+    private volatile LocalDateTime verifiedAt;
+    private volatile LocalDateTime refreshedAt = LocalDateTime.MIN;
+    private volatile int refreshSeconds = 60;
+    private Connection watch;
+    private long copiedVersion = -1;
+    private int generation;
+    
+    private ScheduledExecutorService executor;
+    
+    /**
+     * Minimum seconds between two copies of the live database, usually from system settings
+     */
+    public void setRefreshSeconds(int refreshSeconds) {
+        if (refreshSeconds < CHECK_SECONDS) {
+            throw new IllegalArgumentException("Replica refresh interval must be at least " + CHECK_SECONDS + " seconds");
+        }
+        this.refreshSeconds = refreshSeconds;
+    }
+    
+    /**
+     * Make the first copy in the background and keep it up to date
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "read-replica");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::refreshIfChanged, 0, CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Stop refreshing and drop the replica; reads go to the live database again
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        Copy copy = current;
+        current = null;
+        verifiedAt = null;
+        if (copy != null) {
+            close(copy.keepAlive());
+        }
+        if (watch != null) {
+            close(watch);
+            watch = null;
+        }
+    }
+    
+    /**
+     * True once a copy is available and reads are being served from memory
+     */
+    public boolean isActive() {
+        return current != null;
+    }
+    
+    /**
+     * Time the replica was last known to match the live database, or null while reads go to the live database
+     */
+    public LocalDateTime getDataAsOf() {
+        return current == null ? null : verifiedAt;
+    }
+    
+    /**
+     * How far the replica may lag behind the live database; zero while reads go to the live database
+     */
+    public Duration getStaleness() {
+        LocalDateTime asOf = getDataAsOf();
+        return asOf == null ? Duration.ZERO : Duration.between(asOf, LocalDateTime.now());
+    }
+    
+    /**
+     * Open a read-only connection to the replica, or to the live database until the first copy is ready
+     */
+    public Connection openConnection() throws SQLException {
+        Copy copy = current;
+        if (copy != null) {
+            Connection conn = DriverManager.getConnection("jdbc:sqlite:" + copy.uri());
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                // A copy closed since it was looked up opens as a new empty database
+                if (rs.next() && rs.getInt(1) > 0) {
+                    stmt.execute("PRAGMA query_only = ON");
+                    return conn;
+                }
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            conn.close();
+        }
+        return Main.getDatabaseManager().openConnection();
+    }
+    
+    /**
+     * Copy the live database now if it changed since the last copy and the refresh interval has passed
+     */
+    private void refreshIfChanged() {
+        try {
+            if (watch == null) {
+                watch = Main.getDatabaseManager().openConnection();
+            }
+            LocalDateTime checkedAt = LocalDateTime.now();
+            long version = dataVersion();
+            if (version == copiedVersion) {
+                verifiedAt = checkedAt;
+                return;
+            }
+            if (current != null && checkedAt.isBefore(refreshedAt.plusSeconds(refreshSeconds))) {
+                return;
+            }
+            refresh(version, checkedAt);
+        } catch (SQLException e) {
+            logger.warning("Failed to refresh the read replica: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Keep the scheduled refreshes running
+            logger.severe("Unexpected error refreshing the read replica: " + e.getMessage());
+        }
+    }
+    
+    private void refresh(long version, LocalDateTime startedAt) throws SQLException {
+        long start = System.nanoTime();
+        String uri = REPLICA_URI.formatted(++generation);
+        Connection keepAlive = DriverManager.getConnection("jdbc:sqlite:" + uri);
+        PacedCopy copy = new PacedCopy();
+        try {
+            copy.copy(watch, uri);
+        } catch (SQLException e) {
+            close(keepAlive);
+            throw e;
+        }
+        
+        Copy previous = current;
+        current = new Copy(uri, keepAlive);
+        copiedVersion = version;
+        refreshedAt = startedAt;
+        verifiedAt = startedAt;
+        if (previous != null) {
+            executor.schedule(() -> close(previous.keepAlive()), RETIRE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+        logger.info("Read replica refreshed: " + copy.getPageCount() + " pages in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+    
+    /**
+     * Counter that changes whenever another connection commits to the live database
+     */
+    private long dataVersion() throws SQLException {
+        try (Statement stmt = watch.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA data_version")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+    
+    private void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.warning("Failed to close read replica connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.models.Sale;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checkouts taken recently, by idempotency key
+ * Answers a repeated submit of the same checkout from memory; the unique key column on sales catches
+ * the repeats this no longer holds, e.g. after a restart.
+ */
+public class RecentCheckouts {
+    // A busy day's sales, many times over
+    private static final int CAPACITY = 10_000;
+    
+    private final Map<String, Sale> sales = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Sale> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    
+    /**
+     * The sale taken for a key, or null if none was taken recently
+     */
+    public synchronized Sale get(String idempotencyKey) {
+        return sales.get(idempotencyKey);
+    }
+    
+    /**
+     * Remember a sale that was taken; sales without a key are ignored
+     */
+    public synchronized void put(Sale sale) {
+        if (sale.getIdempotencyKey() != null) {
+            sales.put(sale.getIdempotencyKey(), sale);
+        }
+    }
+}
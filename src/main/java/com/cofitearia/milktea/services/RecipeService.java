@@ -0,0 +1,319 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.database.RowChangeBus;
+import com.cofitearia.milktea.models.ConsumptionVector;
+import com.cofitearia.milktea.models.RecipeComponent;
+import com.cofitearia.milktea.models.SaleItem;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Recipe (bill of materials) service
+ * Every product is precompiled into a flat consumption vector of inventory items, so a checkout
+ * adds up a few arrays instead of walking recipes and add-ons per sale line.
+ * A product without a recipe consumes its own inventory item one to one.
+ */
+public class RecipeService {
+    private static final Logger logger = Logger.getLogger(RecipeService.class.getName());
+    
+    /**
+     * Vectors by product ID, and the product of each active inventory item they were compiled from
+     */
+    private record Compiled(Map<Integer, ConsumptionVector> vectors, Map<Integer, Integer> activeItems) {
+    }
+    
+    // Null until first use or after a recipe or inventory link changed
+    private volatile Compiled compiled;
+    // Bumped on every invalidation, so vectors compiled from rows changed meanwhile are not kept
+    private final AtomicInteger generation = new AtomicInteger();
+    
+    // Checks the links of updated items after every sale, so it is opened once; only used on the bus thread
+    private DatabaseManager linkCheckManager;
+    private Connection linkCheck;
+    
+    /**
+     * Get the direct components of a product's recipe
+     */
+    public List<RecipeComponent> getRecipe(int productId) {
+        List<RecipeComponent> components = new ArrayList<>();
+        String sql = """
+            SELECT r.id, r.product_id, r.component_product_id, r.quantity, p.name
+            FROM recipe_components r
+            JOIN products p ON r.component_product_id = p.id
+            WHERE r.product_id = ?
+            ORDER BY p.name
+            """;
+        
+        try (Connection conn = Main.getDatabaseManager().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setInt(1, productId);
+            ResultSet rs = stmt.executeQuery();
+            
+            while (rs.next()) {
+                RecipeComponent component = new RecipeComponent(rs.getInt("product_id"),
+                        rs.getInt("component_product_id"), rs.getInt("quantity"));
+                component.setId(rs.getInt("id"));
+                component.setComponentName(rs.getString("name"));
+                components.add(component);
+            }
+        } catch (SQLException e) {
+            logger.severe("Error getting recipe for product ID " + productId + ": " + e.getMessage());
+        }
+        
+        return components;
+    }
+    
+    /**
+     * Replace a product's recipe; an empty list removes it
+     * @return false if the recipe would make a product contain itself or could not be saved
+     */
+    public boolean saveRecipe(int productId, List<RecipeComponent> components) {
+        try (Connection conn = Main.getDatabaseManager().getConnection()) {
+            conn.setAutoCommit(false);
+            
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "DELETE FROM recipe_components WHERE product_id = ?")) {
+                    stmt.setInt(1, productId);
+                    stmt.executeUpdate();
+                }
+                
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO recipe_components (product_id, component_product_id, quantity) VALUES (?, ?, ?)")) {
+                    for (RecipeComponent component : components) {
+                        stmt.setInt(1, productId);
+                        stmt.setInt(2, component.getComponentProductId());
+                        stmt.setInt(3, component.getQuantity());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                
+                // Compile inside the transaction so a cycle is rejected before it is stored
+                compile(conn);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                invalidateAll();
+            }
+            
+            logger.info("Recipe saved for product ID " + productId + " with " + components.size() + " components");
+            return true;
+        } catch (SQLException e) {
+            logger.severe("Error saving recipe for product ID " + productId + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Get the consumption vector of one unit of a product
+     */
+    public ConsumptionVector getConsumptionVector(int productId) {
+        try {
+            return getConsumptionVector(Main.getDatabaseManager().getConnection(), productId);
+        } catch (SQLException e) {
+            logger.severe("Error compiling recipe for product ID " + productId + ": " + e.getMessage());
+            return ConsumptionVector.EMPTY;
+        }
+    }
+    
+    /**
+     * Get the consumption vector of one unit of a product on the caller's connection
+     */
+    public ConsumptionVector getConsumptionVector(Connection conn, int productId) throws SQLException {
+        return compiled(conn).vectors().getOrDefault(productId, ConsumptionVector.EMPTY);
+    }
+    
+    /**
+     * Add up what a list of sale lines consumes, per inventory item in ID order
+     */
+    public Map<Integer, Integer> explode(Connection conn, List<SaleItem> items) throws SQLException {
+        Map<Integer, ConsumptionVector> vectors = compiled(conn).vectors();
+        Map<Integer, Integer> totals = new TreeMap<>();
+        
+        for (SaleItem item : items) {
+            vectors.getOrDefault(item.getProduct().getId(), ConsumptionVector.EMPTY).addTo(totals, item.getQuantity());
+        }
+        
+        return totals;
+    }
+    
+    /**
+     * Drop the compiled vectors so they are rebuilt on next use
+     * Writes in this process are picked up through the row change bus; call after other changes
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        compiled = null;
+    }
+    
+    /**
+     * Invalidate on every committed change to products, recipes or the items products draw from
+     */
+    public void subscribe(RowChangeBus bus) {
+        bus.subscribe("products", changes -> invalidateAll());
+        bus.subscribe("recipe_components", changes -> invalidateAll());
+        bus.subscribe("inventory_items", changes -> {
+            if (changes.stream().anyMatch(change -> change.operation() != RowChangeBus.Operation.UPDATE)
+                    || linksChanged(changes)) {
+                invalidateAll();
+            }
+        });
+    }
+    
+    /**
+     * Whether updated inventory items were activated, deactivated or moved to another product since
+     * the vectors were compiled; stock updates come with every sale and leave the links alone
+     */
+    private boolean linksChanged(List<RowChangeBus.RowChange> changes) {
+        Compiled current = compiled;
+        if (current == null) {
+            return false;
+        }
+        
+        StringJoiner ids = new StringJoiner(", ");
+        changes.forEach(change -> ids.add(String.valueOf(change.rowId())));
+        Map<Integer, Integer> activeItems = new HashMap<>();
+        try {
+            if (linkCheck == null || linkCheckManager != Main.getDatabaseManager()) {
+                closeLinkCheck();
+                linkCheckManager = Main.getDatabaseManager();
+                linkCheck = linkCheckManager.openConnection();
+            }
+            try (PreparedStatement stmt = linkCheck.prepareStatement(
+                    "SELECT id, product_id FROM inventory_items WHERE is_active = 1 AND id IN (" + ids + ")");
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    activeItems.put(rs.getInt("id"), rs.getInt("product_id"));
+                }
+            }
+        } catch (SQLException e) {
+            logger.warning("Could not check inventory links, recompiling recipes: " + e.getMessage());
+            closeLinkCheck();
+            return true;
+        }
+        
+        return changes.stream().map(change -> (int) change.rowId())
+                .anyMatch(id -> !Objects.equals(activeItems.get(id), current.activeItems().get(id)));
+    }
+    
+    private void closeLinkCheck() {
+        if (linkCheck != null) {
+            try {
+                linkCheck.close();
+            } catch (SQLException e) {
+                logger.warning("Failed to close inventory link check connection: " + e.getMessage());
+            }
+            linkCheck = null;
+        }
+    }
+    
+    private Compiled compiled(Connection conn) throws SQLException {
+        Compiled current = compiled;
+        if (current == null) {
+            synchronized (this) {
+                current = compiled;
+                if (current == null) {
+                    int compiledGeneration = generation.get();
+                    current = compile(conn);
+                    if (generation.get() == compiledGeneration) {
+                        compiled = current;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Load every recipe and inventory link and flatten each product into a consumption vector
+     */
+    private Compiled compile(Connection conn) throws SQLException {
+        Map<Integer, List<RecipeComponent>> recipes = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT product_id, component_product_id, quantity FROM recipe_components");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                recipes.computeIfAbsent(rs.getInt("product_id"), id -> new ArrayList<>())
+                        .add(new RecipeComponent(rs.getInt("product_id"), rs.getInt("component_product_id"),
+                                rs.getInt("quantity")));
+            }
+        }
+        
+        // A product draws from its first active item
+        Map<Integer, Integer> activeItems = new HashMap<>();
+        Map<Integer, Integer> inventoryItems = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT id, product_id FROM inventory_items WHERE is_active = 1 ORDER BY id");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                activeItems.put(rs.getInt("id"), rs.getInt("product_id"));
+                inventoryItems.putIfAbsent(rs.getInt("product_id"), rs.getInt("id"));
+            }
+        }
+        
+        Map<Integer, ConsumptionVector> vectors = new HashMap<>();
+        Set<Integer> products = new HashSet<>(recipes.keySet());
+        products.addAll(inventoryItems.keySet());
+        for (int productId : products) {
+            flatten(productId, recipes, inventoryItems, vectors, new HashSet<>());
+        }
+        
+        logger.fine("Compiled consumption vectors for " + vectors.size() + " products");
+        return new Compiled(vectors, activeItems);
+    }
+    
+    /**
+     * Depth-first expansion of one product, memoized in the compiled map
+     */
+    private ConsumptionVector flatten(int productId, Map<Integer, List<RecipeComponent>> recipes,
+                                      Map<Integer, Integer> inventoryItems, Map<Integer, ConsumptionVector> compiled,
+                                      Set<Integer> path) throws SQLException {
+        ConsumptionVector done = compiled.get(productId);
+        if (done != null) {
+            return done;
+        }
+        if (!path.add(productId)) {
+            throw new SQLException("Recipe of product ID " + productId + " contains itself");
+        }
+        
+        ConsumptionVector vector;
+        List<RecipeComponent> recipe = recipes.get(productId);
+        if (recipe != null) {
+            Map<Integer, Integer> totals = new HashMap<>();
+            for (RecipeComponent component : recipe) {
+                flatten(component.getComponentProductId(), recipes, inventoryItems, compiled, path)
+                        .addTo(totals, component.getQuantity());
+            }
+            vector = ConsumptionVector.of(totals);
+        } else if (inventoryItems.containsKey(productId)) {
+            vector = ConsumptionVector.of(Map.of(inventoryItems.get(productId), 1));
+        } else {
+            vector = ConsumptionVector.EMPTY; // Not stock-tracked
+        }
+        
+        path.remove(productId);
+        compiled.put(productId, vector);
+        return vector;
+    }
+}
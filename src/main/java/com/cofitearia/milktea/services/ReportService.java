@@ -0,0 +1,239 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.SalesReportRow;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Sales reporting service
+ * Every report is aggregated by SQLite and streamed row by row to the caller, so no full set of
+ * sales is ever loaded. Past days are read from the rollup tables kept by RollupService; only
+ * today's partial day is aggregated from the raw sales. Reports open their own connection to the
+ * in-memory read replica and are meant to run off the FX thread.
+ */
+public class ReportService {
+    private static final Logger logger = Logger.getLogger(ReportService.class.getName());
+    
+    // Every query takes four parameters: the rollup day range, then the raw sale_date range
+    private static final String PERIOD_SQL = """
+        SELECT %s AS label,
+               SUM(transactions) AS transactions,
+               SUM(voided) AS voided,
+               SUM(quantity) AS quantity,
+               ROUND(SUM(revenue), 2) AS revenue
+        FROM (SELECT substr(hour, 1, 10) AS day, transactions, voided, quantity, revenue
+              FROM sales_hourly
+              WHERE hour >= ? AND hour < ?
+              UNION ALL
+              SELECT substr(s.sale_date, 1, 10), 1, s.is_voided,
+                     CASE WHEN s.is_voided = 0
+                          THEN (SELECT COALESCE(SUM(si.quantity), 0) FROM sale_items si WHERE si.sale_id = s.id)
+                          ELSE 0 END,
+                     CASE WHEN s.is_voided = 0 THEN s.total ELSE 0 END
+              FROM sales s
+              WHERE s.sale_date >= ? AND s.sale_date < ?)
+        GROUP BY label
+        ORDER BY label
+        """;
+    
+    // Transactions are per product per day, so a category counts a sale once for each of its products
+    private static final String ITEM_SQL = """
+        SELECT %s AS label,
+               SUM(r.transactions) AS transactions,
+               0 AS voided,
+               SUM(r.quantity) AS quantity,
+               ROUND(SUM(r.revenue), 2) AS revenue
+        FROM (SELECT product_id, transactions, quantity, revenue
+              FROM sales_daily_product
+              WHERE day >= ? AND day < ?
+              UNION ALL
+              SELECT si.product_id, COUNT(DISTINCT s.id), SUM(si.quantity), SUM(si.total_price)
+              FROM sales s
+              JOIN sale_items si ON si.sale_id = s.id
+              WHERE s.sale_date >= ? AND s.sale_date < ? AND s.is_voided = 0
+              GROUP BY si.product_id) r
+        JOIN products p ON p.id = r.product_id
+        GROUP BY %s
+        ORDER BY revenue DESC
+        """;
+    
+    private static final String CASHIER_SQL = """
+        SELECT COALESCE(u.first_name || ' ' || u.last_name, 'Unassigned') AS label,
+               c.transactions, c.voided, 0 AS quantity, ROUND(c.revenue, 2) AS revenue
+        FROM (SELECT cashier_id, SUM(transactions) AS transactions, SUM(voided) AS voided, SUM(revenue) AS revenue
+              FROM (SELECT cashier_id, transactions, voided, revenue
+                    FROM sales_daily_cashier
+                    WHERE day >= ? AND day < ?
+                    UNION ALL
+                    SELECT COALESCE(cashier_id, 0), 1, is_voided, CASE WHEN is_voided = 0 THEN total ELSE 0 END
+                    FROM sales
+                    WHERE sale_date >= ? AND sale_date < ?)
+              GROUP BY cashier_id) c
+        LEFT JOIN users u ON u.id = c.cashier_id
+        ORDER BY c.revenue DESC
+        """;
+    
+    private static final String HOURLY_SQL = """
+        SELECT substr(hour, 12, 2) || ':00' AS label,
+               SUM(transactions) AS transactions,
+               SUM(voided) AS voided,
+               SUM(quantity) AS quantity,
+               ROUND(SUM(revenue), 2) AS revenue
+        FROM (SELECT hour, transactions, voided, quantity, revenue
+              FROM sales_hourly
+              WHERE hour >= ? AND hour < ?
+              UNION ALL
+              SELECT substr(s.sale_date, 1, 13), 1, s.is_voided,
+                     CASE WHEN s.is_voided = 0
+                          THEN (SELECT COALESCE(SUM(si.quantity), 0) FROM sale_items si WHERE si.sale_id = s.id)
+                          ELSE 0 END,
+                     CASE WHEN s.is_voided = 0 THEN s.total ELSE 0 END
+              FROM sales s
+              WHERE s.sale_date >= ? AND s.sale_date < ?)
+        GROUP BY label
+        ORDER BY label
+        """;
+    
+    /**
+     * Available reports
+     */
+    public enum ReportType {
+        DAILY_REVENUE("Daily Revenue", PERIOD_SQL.formatted("day")),
+        WEEKLY_REVENUE("Weekly Revenue", PERIOD_SQL.formatted("strftime('%Y-W%W', day)")),
+        MONTHLY_REVENUE("Monthly Revenue", PERIOD_SQL.formatted("substr(day, 1, 7)")),
+        BY_HOUR("Sales by Hour of Day", HOURLY_SQL),
+        BY_CATEGORY("Sales by Category", ITEM_SQL.formatted("COALESCE(p.category, 'Uncategorized')", "label")),
+        BY_PRODUCT("Sales by Product", ITEM_SQL.formatted("p.name", "p.id")),
+        BY_CASHIER("Sales by Cashier", CASHIER_SQL);
+        
+        private final String displayName;
+        private final String sql;
+        
+        ReportType(String displayName, String sql) {
+            this.displayName = displayName;
+            this.sql = sql;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+        
+        String getSql() {
+            return sql;
+        }
+        
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+    
+    /**
+     * Run a report over sales from one date up to and including another, handing each row to a sink
+     * Stops early if the calling thread is interrupted, e.g. when a JavaFX Task is cancelled.
+     * @return true if the report ran to the end
+     */
+    public boolean streamReport(ReportType type, LocalDate from, LocalDate to, Consumer<SalesReportRow> sink) {
+        long start = System.nanoTime();
+        int rows = 0;
+        
+        try (Connection conn = Main.getReadReplica().openConnection();
+             PreparedStatement stmt = conn.prepareStatement(type.getSql())) {
+            
+            stmt.setFetchSize(256);
+            bindRange(stmt, from, to);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        logger.info(type.getDisplayName() + " report cancelled after " + rows + " rows");
+                        return false;
+                    }
+                    sink.accept(mapResultSetToRow(rs));
+                    rows++;
+                }
+            }
+        } catch (SQLException e) {
+            logger.severe("Error running " + type.getDisplayName() + " report: " + e.getMessage());
+            return false;
+        }
+        
+        logger.info(type.getDisplayName() + " report: " + rows + " rows in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return true;
+    }
+    
+    /**
+     * Run a report and collect its rows
+     */
+    public List<SalesReportRow> getReport(ReportType type, LocalDate from, LocalDate to) {
+        List<SalesReportRow> rows = new ArrayList<>();
+        streamReport(type, from, to, rows::add);
+        return rows;
+    }
+    
+    /**
+     * Totals over a date range: revenue, transactions and void rate
+     */
+    public SalesReportRow getSummary(LocalDate from, LocalDate to) {
+        // One group over the whole range
+        String sql = PERIOD_SQL.formatted("'total'");
+        
+        try (Connection conn = Main.getReadReplica().openConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            bindRange(stmt, from, to);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return new SalesReportRow(from + " to " + to, 0, 0, 0, BigDecimal.ZERO);
+                }
+                return new SalesReportRow(from + " to " + to, rs.getInt("transactions"), rs.getInt("voided"),
+                        rs.getInt("quantity"), readAmount(rs, "revenue"));
+            }
+        } catch (SQLException e) {
+            logger.severe("Error getting sales summary: " + e.getMessage());
+            return new SalesReportRow(from + " to " + to, 0, 0, 0, BigDecimal.ZERO);
+        }
+    }
+    
+    /**
+     * Bind an inclusive date range: days before today come from the rollups, today from the raw sales
+     */
+    private void bindRange(PreparedStatement stmt, LocalDate from, LocalDate to) throws SQLException {
+        LocalDate today = LocalDate.now();
+        LocalDate end = to.plusDays(1);
+        stmt.setString(1, from.toString());
+        stmt.setString(2, (end.isBefore(today) ? end : today).toString());
+        stmt.setString(3, (from.isAfter(today) ? from : today).toString());
+        stmt.setString(4, end.toString());
+    }
+    
+    /**
+     * Map ResultSet to SalesReportRow object
+     */
+    private SalesReportRow mapResultSetToRow(ResultSet rs) throws SQLException {
+        return new SalesReportRow(
+            rs.getString("label"),
+            rs.getInt("transactions"),
+            rs.getInt("voided"),
+            rs.getInt("quantity"),
+            readAmount(rs, "revenue")
+        );
+    }
+    
+    private BigDecimal readAmount(ResultSet rs, String column) throws SQLException {
+        BigDecimal amount = rs.getBigDecimal(column);
+        return amount != null ? amount.setScale(2, RoundingMode.HALF_UP) : BigDecimal.ZERO.setScale(2);
+    }
+}
@@ -0,0 +1,360 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.Sale;
+import com.cofitearia.milktea.models.SaleItem;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Sales rollup service
+ * Keeps per day × product, per day × cashier and per hour totals of sales so reports read a few
+ * rows per day instead of every sale. Checkout adds each sale inside its own transaction; a rebuild
+ * recomputes everything from the raw sales, one month per worker, and must be run after sales are
+ * changed any other way (e.g. voided).
+ */
+public class RollupService {
+    private static final Logger logger = Logger.getLogger(RollupService.class.getName());
+    
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH");
+    private static final int MAX_REBUILD_THREADS = 4;
+    
+    // %1$s is the schema of the sales tables and %2$s the filter on sales s, so the same aggregation
+    // serves month chunks, archived months and catch-up
+    private static final String PRODUCT_SQL = """
+        SELECT substr(s.sale_date, 1, 10) AS day, si.product_id,
+               COUNT(DISTINCT s.id) AS transactions, SUM(si.quantity) AS quantity, SUM(si.total_price) AS revenue
+        FROM %1$s.sales s
+        JOIN %1$s.sale_items si ON si.sale_id = s.id
+        WHERE s.is_voided = 0 AND %2$s
+        GROUP BY day, si.product_id
+        """;
+    
+    private static final String CASHIER_SQL = """
+        SELECT substr(s.sale_date, 1, 10) AS day, COALESCE(s.cashier_id, 0) AS cashier,
+               COUNT(*) AS transactions, SUM(s.is_voided) AS voided,
+               SUM(CASE WHEN s.is_voided = 0 THEN s.total ELSE 0 END) AS revenue
+        FROM %1$s.sales s
+        WHERE %2$s
+        GROUP BY day, cashier
+        """;
+    
+    private static final String HOURLY_SQL = """
+        SELECT substr(s.sale_date, 1, 13) AS hour,
+               COUNT(*) AS transactions, SUM(s.is_voided) AS voided,
+               SUM(CASE WHEN s.is_voided = 0
+                        THEN (SELECT COALESCE(SUM(si.quantity), 0) FROM %1$s.sale_items si WHERE si.sale_id = s.id)
+                        ELSE 0 END) AS quantity,
+               SUM(CASE WHEN s.is_voided = 0 THEN s.total ELSE 0 END) AS revenue
+        FROM %1$s.sales s
+        WHERE %2$s
+        GROUP BY hour
+        """;
+    
+    private record ProductTotal(String day, int productId, int transactions, int quantity, BigDecimal revenue) {
+    }
+    
+    private record CashierTotal(String day, int cashierId, int transactions, int voided, BigDecimal revenue) {
+    }
+    
+    private record HourTotal(String hour, int transactions, int voided, int quantity, BigDecimal revenue) {
+    }
+    
+    /**
+     * Totals to add to the rollup tables
+     */
+    private record Rollup(List<ProductTotal> products, List<CashierTotal> cashiers, List<HourTotal> hours) {
+        Rollup() {
+            this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        }
+    }
+    
+    /**
+     * Add a sale to the rollups; call inside the transaction that inserts it
+     */
+    public void recordSale(Connection conn, Sale sale) throws SQLException {
+        String day = sale.getSaleDate().toLocalDate().toString();
+        int voided = sale.isVoided() ? 1 : 0;
+        BigDecimal revenue = sale.isVoided() ? BigDecimal.ZERO : sale.getTotal();
+        int cashierId = sale.getCashier() != null ? sale.getCashier().getId() : 0;
+        
+        Rollup rollup = new Rollup();
+        if (!sale.isVoided()) {
+            Map<Integer, ProductTotal> byProduct = new LinkedHashMap<>();
+            for (SaleItem item : sale.getItems()) {
+                byProduct.merge(item.getProduct().getId(),
+                        new ProductTotal(day, item.getProduct().getId(), 1, item.getQuantity(), item.getTotalPrice()),
+                        (a, b) -> new ProductTotal(day, a.productId(), 1, a.quantity() + b.quantity(), a.revenue().add(b.revenue())));
+            }
+            rollup.products().addAll(byProduct.values());
+        }
+        rollup.cashiers().add(new CashierTotal(day, cashierId, 1, voided, revenue));
+        rollup.hours().add(new HourTotal(sale.getSaleDate().format(HOUR_FORMAT), 1, voided,
+                sale.isVoided() ? 0 : sale.getItemCount(), revenue));
+        
+        apply(conn, rollup);
+    }
+    
+    /**
+     * Check whether the rollups are missing while there are sales, e.g. on a database from an older version
+     */
+    public boolean needsRebuild() {
+        String sql = """
+            SELECT (EXISTS (SELECT 1 FROM sales) OR EXISTS (SELECT 1 FROM sales_partitions))
+                   AND NOT EXISTS (SELECT 1 FROM sales_hourly)
+            """;
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() && rs.getBoolean(1);
+        } catch (SQLException e) {
+            logger.severe("Error checking sales rollups: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Recompute every rollup from the raw sales, including archived months
+     * Months are aggregated in parallel on their own connections, up to the highest sale ID seen at the
+     * start. The tables are then replaced in one transaction, which also folds in any sale committed in
+     * the meantime, so checkouts running during a rebuild are never lost.
+     * @return true if the rollups were rebuilt
+     */
+    public boolean rebuild() {
+        long start = System.nanoTime();
+        String rangeSql = "SELECT MIN(sale_date), MAX(sale_date), MAX(id) FROM sales";
+        Set<LocalDate> months = new TreeSet<>();
+        int watermark;
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(rangeSql)) {
+                String firstMonth = rs.getString(1);
+                String lastMonth = rs.getString(2);
+                watermark = rs.getInt(3);
+                if (firstMonth != null) {
+                    LocalDate end = LocalDate.parse(lastMonth.substring(0, 7) + "-01");
+                    for (LocalDate month = LocalDate.parse(firstMonth.substring(0, 7) + "-01");
+                         !month.isAfter(end); month = month.plusMonths(1)) {
+                        months.add(month);
+                    }
+                }
+            }
+            for (SalesArchive.Partition partition : Main.getSalesArchive().getPartitions(conn)) {
+                months.add(partition.month().atDay(1));
+                watermark = Math.max(watermark, partition.maxSaleId());
+            }
+        } catch (SQLException e) {
+            logger.severe("Error reading sales range: " + e.getMessage());
+            return false;
+        }
+        
+        List<Rollup> chunks = new ArrayList<>();
+        if (!months.isEmpty()) {
+            int highestSaleId = watermark;
+            List<Callable<Rollup>> tasks = new ArrayList<>();
+            for (LocalDate month : months) {
+                tasks.add(() -> aggregateMonth(month, highestSaleId));
+            }
+            
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.min(MAX_REBUILD_THREADS, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "rollup-rebuild");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                for (Future<Rollup> future : pool.invokeAll(tasks)) {
+                    chunks.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning("Sales rollup rebuild interrupted");
+                return false;
+            } catch (ExecutionException e) {
+                logger.severe("Error aggregating sales for rollups: " + e.getCause().getMessage());
+                return false;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            conn.setAutoCommit(false);
+            
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("DELETE FROM sales_daily_product");
+                stmt.executeUpdate("DELETE FROM sales_daily_cashier");
+                stmt.executeUpdate("DELETE FROM sales_hourly");
+                
+                for (Rollup chunk : chunks) {
+                    apply(conn, chunk);
+                }
+                Rollup latest = new Rollup();
+                aggregate(conn, "main", latest, "s.id > ?", watermark);
+                apply(conn, latest);
+                
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.severe("Error rebuilding sales rollups: " + e.getMessage());
+            return false;
+        }
+        
+        logger.info("Sales rollups rebuilt from " + chunks.size() + " months in "
+                + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms");
+        return true;
+    }
+    
+    /**
+     * Aggregate one calendar month of sales on a connection of its own, from its archive file if it has one
+     */
+    private Rollup aggregateMonth(LocalDate month, int watermark) throws SQLException, IOException {
+        Rollup rollup = new Rollup();
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            Main.getSalesArchive().forEachSegment(conn, month, month.plusMonths(1), schema ->
+                    aggregate(conn, schema, rollup, "s.sale_date >= ? AND s.sale_date < ? AND s.id <= ?",
+                            month.toString(), month.plusMonths(1).toString(), watermark));
+        }
+        return rollup;
+    }
+    
+    /**
+     * Add up the sales matching a filter into rollup totals
+     */
+    private void aggregate(Connection conn, String schema, Rollup rollup, String filter, Object... params)
+            throws SQLException {
+        try (PreparedStatement stmt = prepare(conn, PRODUCT_SQL.formatted(schema, filter), params);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rollup.products().add(new ProductTotal(rs.getString("day"), rs.getInt("product_id"),
+                        rs.getInt("transactions"), rs.getInt("quantity"), readAmount(rs)));
+            }
+        }
+        
+        try (PreparedStatement stmt = prepare(conn, CASHIER_SQL.formatted(schema, filter), params);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rollup.cashiers().add(new CashierTotal(rs.getString("day"), rs.getInt("cashier"),
+                        rs.getInt("transactions"), rs.getInt("voided"), readAmount(rs)));
+            }
+        }
+        
+        try (PreparedStatement stmt = prepare(conn, HOURLY_SQL.formatted(schema, filter), params);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rollup.hours().add(new HourTotal(rs.getString("hour"), rs.getInt("transactions"),
+                        rs.getInt("voided"), rs.getInt("quantity"), readAmount(rs)));
+            }
+        }
+    }
+    
+    /**
+     * Add totals to the rollup tables, creating rows that do not exist yet
+     */
+    private void apply(Connection conn, Rollup rollup) throws SQLException {
+        String productSql = """
+            INSERT INTO sales_daily_product (day, product_id, transactions, quantity, revenue)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (day, product_id) DO UPDATE SET
+                transactions = transactions + excluded.transactions,
+                quantity = quantity + excluded.quantity,
+                revenue = revenue + excluded.revenue
+            """;
+        
+        String cashierSql = """
+            INSERT INTO sales_daily_cashier (day, cashier_id, transactions, voided, revenue)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (day, cashier_id) DO UPDATE SET
+                transactions = transactions + excluded.transactions,
+                voided = voided + excluded.voided,
+                revenue = revenue + excluded.revenue
+            """;
+        
+        String hourSql = """
+            INSERT INTO sales_hourly (hour, transactions, voided, quantity, revenue)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (hour) DO UPDATE SET
+                transactions = transactions + excluded.transactions,
+                voided = voided + excluded.voided,
+                quantity = quantity + excluded.quantity,
+                revenue = revenue + excluded.revenue
+            """;
+        
+        try (PreparedStatement stmt = conn.prepareStatement(productSql)) {
+            for (ProductTotal total : rollup.products()) {
+                stmt.setString(1, total.day());
+                stmt.setInt(2, total.productId());
+                stmt.setInt(3, total.transactions());
+                stmt.setInt(4, total.quantity());
+                stmt.setBigDecimal(5, total.revenue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        
+        try (PreparedStatement stmt = conn.prepareStatement(cashierSql)) {
+            for (CashierTotal total : rollup.cashiers()) {
+                stmt.setString(1, total.day());
+                stmt.setInt(2, total.cashierId());
+                stmt.setInt(3, total.transactions());
+                stmt.setInt(4, total.voided());
+                stmt.setBigDecimal(5, total.revenue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        
+        try (PreparedStatement stmt = conn.prepareStatement(hourSql)) {
+            for (HourTotal total : rollup.hours()) {
+                stmt.setString(1, total.hour());
+                stmt.setInt(2, total.transactions());
+                stmt.setInt(3, total.voided());
+                stmt.setInt(4, total.quantity());
+                stmt.setBigDecimal(5, total.revenue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+    
+    private PreparedStatement prepare(Connection conn, String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        }
+        return stmt;
+    }
+    
+    private BigDecimal readAmount(ResultSet rs) throws SQLException {
+        BigDecimal amount = rs.getBigDecimal("revenue");
+        return amount != null ? amount : BigDecimal.ZERO;
+    }
+}
@@ -0,0 +1,546 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.Product;
+import com.cofitearia.milktea.models.Sale;
+import com.cofitearia.milktea.models.SaleItem;
+import com.cofitearia.milktea.models.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal that confirms a checkout as soon as the sale is safely on disk
+ * Each sale is appended to a file next to the database and synced together with any sales submitted
+ * meanwhile, so checkout costs one sequential write whatever the database is doing: a backup, a vacuum
+ * or another terminal holding the lock. A background thread then records the sales in SQLite in order,
+ * retrying while the database is busy. Every sale is recorded in the same transaction as the journal
+ * position it was read at, so replaying the journal after a crash skips the sales already recorded.
+ * A sale the database refuses for any other reason is moved to a rejected file next to the journal
+ * and reported, so the sales after it are still recorded. Once everything is recorded and the file
+ * has grown, it is cut back to its header.
+ *
+ * File layout: a header (magic, version, journal ID) followed by records of payload length, CRC-32
+ * and payload (sequence number, sale header with its idempotency key, sale lines). A torn record at
+ * the end, from a crash during a write that was never confirmed, is cut off on start. The rejected
+ * file holds records in the same format, without a header.
+ */
+public class SaleJournal {
+    private static final Logger logger = Logger.getLogger(SaleJournal.class.getName());
+    
+    private static final int MAGIC = 0x4D534A31; // "MSJ1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 16;
+    private static final int RECORD_OVERHEAD = 4 + 4;
+    private static final long CHECKPOINT_BYTES = 256 * 1024;
+    private static final long MIN_RETRY_MILLIS = 50;
+    private static final long MAX_RETRY_MILLIS = 5000;
+    
+    /**
+     * A sale that is on disk but may not be in the database yet
+     */
+    private record Entry(long sequence, Sale sale) {
+    }
+    
+    // Appends are serialized into this buffer; whoever syncs first writes everything buffered so far
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final List<ByteBuffer> unwritten = new ArrayList<>();
+    private final List<Entry> unsynced = new ArrayList<>();
+    private long lastSequence;
+    private long syncedSequence;
+    private volatile long appliedSequence;
+    
+    private final BlockingQueue<Entry> toApply = new LinkedBlockingQueue<>();
+    private final SalesService salesService = new SalesService();
+    
+    private FileChannel channel;
+    private FileLock fileLock;
+    private String journalId;
+    private volatile boolean running;
+    private ExecutorService executor;
+    
+    /**
+     * Open the journal next to the database, queue the sales it holds that are not recorded yet and
+     * start recording in the background
+     * @return false if another process has the journal open, in which case checkouts go straight to
+     *         the database
+     */
+    public synchronized boolean start() {
+        if (running) {
+            return true;
+        }
+        Path file = journalFile();
+        
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            fileLock = channel.tryLock();
+            if (fileLock == null) {
+                logger.warning("Sale journal " + file + " is in use by another process; checkouts go straight to the database");
+                channel.close();
+                channel = null;
+                return false;
+            }
+            
+            List<Entry> entries = open();
+            long applied = loadAppliedSequence();
+            appliedSequence = applied;
+            lastSequence = Math.max(applied, entries.isEmpty() ? 0 : entries.get(entries.size() - 1).sequence());
+            syncedSequence = lastSequence;
+            
+            int replayed = 0;
+            for (Entry entry : entries) {
+                if (entry.sequence() > applied) {
+                    toApply.add(entry);
+                    replayed++;
+                }
+            }
+            if (replayed > 0) {
+                logger.info("Replaying " + replayed + " journaled sales not yet recorded in the database");
+            }
+        } catch (IOException | SQLException e) {
+            logger.severe("Failed to open sale journal " + file + ": " + e.getMessage());
+            closeFile();
+            return false;
+        }
+        
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sale-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::applyLoop);
+        running = true;
+        return true;
+    }
+    
+    /**
+     * Stop recording; sales still queued stay in the journal and are replayed on the next start
+     */
+    public synchronized void shutdown() {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        synchronized (syncLock) {
+            closeFile();
+        }
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Number of journaled sales not recorded in the database yet
+     */
+    public long getBacklog() {
+        synchronized (appendLock) {
+            return lastSequence - appliedSequence;
+        }
+    }
+    
+    /**
+     * Log a sale and wait until it is on disk; it is recorded in the database shortly after
+     * @return true once the sale is durable; false if the journal could not be written, after which
+     *         the journal stops and checkouts go straight to the database
+     */
+    public boolean append(Sale sale) {
+        long sequence;
+        synchronized (appendLock) {
+            if (!running) {
+                return false;
+            }
+            sequence = ++lastSequence;
+            try {
+                unwritten.add(frame(encode(sequence, sale)));
+            } catch (IOException e) {
+                // Only thrown for values that cannot be encoded, e.g. text over 64 KB
+                lastSequence--;
+                logger.severe("Failed to journal sale " + sale.getTransactionNumber() + ": " + e.getMessage());
+                return false;
+            }
+            unsynced.add(new Entry(sequence, sale));
+        }
+        
+        synchronized (syncLock) {
+            if (syncedSequence >= sequence) {
+                // Synced by whoever held the lock before
+                return true;
+            }
+            if (!running || channel == null) {
+                // The write that held this sale failed, or the journal was shut down
+                return false;
+            }
+            
+            List<ByteBuffer> buffers;
+            List<Entry> entries;
+            synchronized (appendLock) {
+                buffers = new ArrayList<>(unwritten);
+                entries = new ArrayList<>(unsynced);
+                unwritten.clear();
+                unsynced.clear();
+            }
+            
+            try {
+                ByteBuffer[] batch = buffers.toArray(new ByteBuffer[0]);
+                long size = channel.size();
+                long written = 0;
+                long expected = buffers.stream().mapToLong(ByteBuffer::remaining).sum();
+                channel.position(size);
+                while (written < expected) {
+                    written += channel.write(batch);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                running = false;
+                logger.severe("Sale journal write failed, checkouts go straight to the database: " + e.getMessage());
+                return false;
+            }
+            
+            syncedSequence = entries.get(entries.size() - 1).sequence();
+            toApply.addAll(entries);
+            logger.fine("Synced " + entries.size() + " journaled sales");
+            return true;
+        }
+    }
+    
+    private Path journalFile() {
+        Path databaseFile = Main.getDatabaseManager().getDatabaseFile();
+        return databaseFile.resolveSibling(databaseFile.getFileName() + ".sales-journal");
+    }
+    
+    /**
+     * Read the header and every complete record, writing a header first for a new file
+     */
+    private List<Entry> open() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long size = channel.size();
+        
+        if (size < HEADER_SIZE) {
+            UUID id = UUID.randomUUID();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION)
+                    .putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+            journalId = id.toString();
+            return entries;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a sale journal");
+        }
+        if (buffer.getInt() != VERSION) {
+            // Left in place, so the version that wrote it can still record its sales
+            throw new IOException("sale journal was written by another version");
+        }
+        journalId = new UUID(buffer.getLong(), buffer.getLong()).toString();
+        
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_OVERHEAD) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            entries.add(decode(payload));
+        }
+        
+        if (buffer.position() < size) {
+            logger.warning("Cutting " + (size - buffer.position()) + " bytes of an unfinished record off the sale journal");
+            channel.truncate(buffer.position());
+            channel.force(true);
+        }
+        return entries;
+    }
+    
+    private long loadAppliedSequence() throws SQLException {
+        try (Connection conn = Main.getDatabaseManager().openConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT applied_sequence FROM sale_journal_positions WHERE journal_id = ?")) {
+            stmt.setString(1, journalId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+    
+    private void closeFile() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to close sale journal: " + e.getMessage());
+        }
+        fileLock = null;
+        channel = null;
+    }
+    
+    /**
+     * Record journaled sales in order on the journal's own connection, waiting out a busy database
+     * Any other failure would fail again on every retry, so that sale is set aside instead.
+     */
+    private void applyLoop() {
+        Connection conn = null;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Entry entry = toApply.take();
+                long retryMillis = MIN_RETRY_MILLIS;
+                
+                while (true) {
+                    Exception failure;
+                    try {
+                        if (conn == null) {
+                            conn = Main.getDatabaseManager().openConnection();
+                        }
+                        salesService.processJournaledSale(conn, entry.sale(), journalId, entry.sequence());
+                        break;
+                    } catch (SQLException e) {
+                        failure = e;
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    
+                    boolean busy = failure instanceof SQLException sqlException && SalesService.isBusy(sqlException);
+                    if (conn == null || busy) {
+                        // The sale is confirmed and stays in the journal, so it is retried rather than dropped
+                        logger.warning("Journaled sale " + entry.sale().getTransactionNumber()
+                                + " not recorded yet, retrying in " + retryMillis + " ms: " + failure.getMessage());
+                        Thread.sleep(retryMillis);
+                        retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+                    } else if (reject(conn, entry, failure)) {
+                        break;
+                    } else {
+                        Thread.sleep(MAX_RETRY_MILLIS);
+                    }
+                }
+                
+                appliedSequence = entry.sequence();
+                if (toApply.isEmpty()) {
+                    checkpoint();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.warning("Failed to close sale journal connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Append a sale the database refused to the rejected file and move the journal past it
+     * @return false if the rejected file could not be written, in which case the sale stays queued
+     */
+    private boolean reject(Connection conn, Entry entry, Exception failure) {
+        Path file = rejectedFile();
+        try (FileChannel rejected = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer record = frame(encode(entry.sequence(), entry.sale()));
+            while (record.hasRemaining()) {
+                rejected.write(record);
+            }
+            rejected.force(false);
+        } catch (IOException e) {
+            logger.severe("Journaled sale " + entry.sale().getTransactionNumber() + " could not be recorded ("
+                    + failure.getMessage() + ") nor set aside in " + file + ": " + e.getMessage());
+            return false;
+        }
+        
+        logger.severe("Journaled sale " + entry.sale().getTransactionNumber() + " could not be recorded and was "
+                + "moved to " + file + " to be entered by hand: " + failure);
+        try {
+            salesService.skipJournaledSale(conn, journalId, entry.sequence());
+        } catch (SQLException e) {
+            // The next recorded sale moves the position past it; until then a restart rejects it again
+            logger.warning("Failed to move the sale journal position past a rejected sale: " + e.getMessage());
+        }
+        return true;
+    }
+    
+    private Path rejectedFile() {
+        return journalFile().resolveSibling(journalFile().getFileName() + ".rejected");
+    }
+    
+    /**
+     * Cut the file back to its header once every sale in it is recorded and it has grown large
+     */
+    private void checkpoint() {
+        synchronized (syncLock) {
+            synchronized (appendLock) {
+                try {
+                    if (channel == null || appliedSequence != lastSequence || channel.size() < CHECKPOINT_BYTES) {
+                        return;
+                    }
+                    channel.truncate(HEADER_SIZE);
+                    channel.force(true);
+                    logger.fine("Sale journal cut back after sale " + appliedSequence);
+                } catch (IOException e) {
+                    logger.warning("Failed to cut back the sale journal: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private static ByteBuffer frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        return record;
+    }
+    
+    private static byte[] encode(long sequence, Sale sale) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(sequence);
+        out.writeUTF(sale.getTransactionNumber());
+        out.writeUTF(sale.getSaleDate().toString());
+        out.writeUTF(sale.getSubtotal().toString());
+        out.writeUTF(sale.getTax().toString());
+        out.writeUTF(sale.getDiscount().toString());
+        out.writeUTF(sale.getTotal().toString());
+        writeNullable(out, sale.getPaymentMethod());
+        writeNullable(out, sale.getCustomerInfo());
+        writeNullable(out, sale.getNotes());
+        out.writeBoolean(sale.isAccessibilityAssistanceUsed());
+        writeNullable(out, sale.getAccessibilityNotes());
+        writeNullable(out, sale.getIdempotencyKey());
+        
+        User cashier = sale.getCashier();
+        out.writeBoolean(cashier != null);
+        if (cashier != null) {
+            out.writeInt(cashier.getId());
+            writeNullable(out, cashier.getFirstName());
+            writeNullable(out, cashier.getLastName());
+        }
+        
+        out.writeInt(sale.getItems().size());
+        for (SaleItem item : sale.getItems()) {
+            Product product = item.getProduct();
+            out.writeInt(product.getId());
+            writeNullable(out, product.getName());
+            writeNullable(out, product.getCategory());
+            out.writeInt(item.getQuantity());
+            out.writeUTF(item.getUnitPrice().toString());
+            out.writeUTF(item.getTotalPrice().toString());
+            writeNullable(out, item.getNotes());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long sequence = in.readLong();
+        Sale sale = new Sale();
+        sale.setTransactionNumber(in.readUTF());
+        sale.setSaleDate(LocalDateTime.parse(in.readUTF()));
+        BigDecimal subtotal = new BigDecimal(in.readUTF());
+        BigDecimal tax = new BigDecimal(in.readUTF());
+        BigDecimal discount = new BigDecimal(in.readUTF());
+        BigDecimal total = new BigDecimal(in.readUTF());
+        sale.setPaymentMethod(readNullable(in));
+        sale.setCustomerInfo(readNullable(in));
+        sale.setNotes(readNullable(in));
+        sale.setAccessibilityAssistanceUsed(in.readBoolean());
+        sale.setAccessibilityNotes(readNullable(in));
+        sale.setIdempotencyKey(readNullable(in));
+        
+        if (in.readBoolean()) {
+            User cashier = new User();
+            cashier.setId(in.readInt());
+            cashier.setFirstName(readNullable(in));
+            cashier.setLastName(readNullable(in));
+            sale.setCashier(cashier);
+        }
+        
+        List<SaleItem> items = new ArrayList<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Product product = new Product();
+            product.setId(in.readInt());
+            product.setName(readNullable(in));
+            product.setCategory(readNullable(in));
+            SaleItem item = new SaleItem(product, in.readInt(), new BigDecimal(in.readUTF()));
+            item.setTotalPrice(new BigDecimal(in.readUTF()));
+            item.setNotes(readNullable(in));
+            items.add(item);
+        }
+        
+        // Totals as charged, not as recalculated from the lines
+        sale.setItems(items);
+        sale.setSubtotal(subtotal);
+        sale.setTax(tax);
+        sale.setDiscount(discount);
+        sale.setTotal(total);
+        return new Entry(sequence, sale);
+    }
+    
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,458 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Monthly sales archive
+ * Closed months of sales, their sale items and the stock movements recorded in the same months are
+ * moved out of the main database into one file per month (sales_YYYY_MM.db) next to it, so the main
+ * file only holds recent activity. The sales_partitions table lists the archived months. Queries over
+ * a date range ATTACH only the months they overlap, one at a time, and read the main tables last.
+ */
+public class SalesArchive {
+    private static final Logger logger = Logger.getLogger(SalesArchive.class.getName());
+    
+    private static final DateTimeFormatter SCHEMA_FORMAT = DateTimeFormatter.ofPattern("'sales_'yyyy_MM");
+    private static final String[] TABLES = {"sales", "sale_items", "stock_movements"};
+    private static final String[] INDEXES = {
+        "CREATE INDEX IF NOT EXISTS %s.idx_sales_date ON sales(sale_date)",
+        "CREATE INDEX IF NOT EXISTS %s.idx_sale_items_sale ON sale_items(sale_id)",
+        "CREATE INDEX IF NOT EXISTS %s.idx_stock_movements_date ON stock_movements(date_created)",
+        "CREATE INDEX IF NOT EXISTS %s.idx_stock_movements_inventory ON stock_movements(inventory_item_id)"
+    };
+    private static final long FIRST_RUN_DELAY_MINUTES = 10;
+    private static final int BATCH_SIZE = 2000;
+    private static final long BATCH_PAUSE_MILLIS = 50;
+    
+    // Last id and size of the next batch of a month's rows; %s is the table, then its date filter
+    private static final String BATCH_END_SQL = """
+        SELECT MAX(id), COUNT(*)
+        FROM (SELECT id FROM main.%s WHERE %s ORDER BY id LIMIT ?)
+        """;
+    
+    // Months with sales or stock movements before a cutoff; stock movement times are stored in UTC
+    private static final String CLOSED_MONTHS_SQL = """
+        SELECT substr(sale_date, 1, 7) AS month FROM sales WHERE sale_date < ?
+        UNION
+        SELECT substr(date_created, 1, 7) FROM stock_movements WHERE date_created < ?
+        ORDER BY month
+        """;
+    
+    /**
+     * An archived month and what its file held when it was last written
+     */
+    public record Partition(YearMonth month, String fileName, int sales, int voided, int maxSaleId) {
+    }
+    
+    /**
+     * A query to run against one copy of the sales tables, named by its schema; it may write what it reads
+     */
+    @FunctionalInterface
+    public interface SegmentQuery {
+        void run(String schema) throws SQLException, IOException;
+    }
+    
+    private volatile int hotMonths = 2;
+    
+    private ScheduledExecutorService executor;
+    
+    /**
+     * Months of sales kept in the main database, counting the current one; usually from system settings
+     */
+    public void setHotMonths(int hotMonths) {
+        if (hotMonths < 1) {
+            throw new IllegalArgumentException("At least the current month must stay in the main database");
+        }
+        this.hotMonths = hotMonths;
+    }
+    
+    /**
+     * Archive closed months in the background shortly after startup and then once a day
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sales-archive");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::archiveClosedMonths, FIRST_RUN_DELAY_MINUTES,
+                TimeUnit.DAYS.toMinutes(1), TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Stop the daily archiving
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+    
+    /**
+     * Directory of the monthly archive files, next to the database file
+     */
+    public Path getDirectory() {
+        Path databaseFile = Main.getDatabaseManager().getDatabaseFile();
+        return databaseFile.resolveSibling(databaseFile.getFileName() + ".archive");
+    }
+    
+    /**
+     * Archived months, oldest first
+     */
+    public List<Partition> getPartitions(Connection conn) throws SQLException {
+        List<Partition> partitions = new ArrayList<>();
+        String sql = "SELECT month, file_name, sales, voided, max_sale_id FROM sales_partitions ORDER BY month";
+        
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                partitions.add(new Partition(YearMonth.parse(rs.getString("month")), rs.getString("file_name"),
+                        rs.getInt("sales"), rs.getInt("voided"), rs.getInt("max_sale_id")));
+            }
+        }
+        return partitions;
+    }
+    
+    /**
+     * Run a query once for every copy of the sales tables that can hold rows of a date range: each
+     * archived month it overlaps, oldest first, then the main database. The query gets the schema to
+     * qualify sales, sale_items and stock_movements with; other tables resolve to the main database.
+     * Only one archived month is attached at a time, so the query must close its statements before returning.
+     * @param from first day of the range, or null for no lower bound
+     * @param to day after the range, or null for no upper bound
+     */
+    public void forEachSegment(Connection conn, LocalDate from, LocalDate to, SegmentQuery query)
+            throws SQLException, IOException {
+        for (Partition partition : getPartitions(conn)) {
+            LocalDate start = partition.month().atDay(1);
+            if ((to != null && !start.isBefore(to)) || (from != null && !from.isBefore(start.plusMonths(1)))) {
+                continue;
+            }
+            
+            Path file = getDirectory().resolve(partition.fileName());
+            if (!Files.isRegularFile(file)) {
+                throw new SQLException("Sales archive for " + partition.month() + " is missing: " + file);
+            }
+            String schema = attach(conn, file, partition.month());
+            try {
+                query.run(schema);
+            } finally {
+                detach(conn, schema);
+            }
+        }
+        query.run("main");
+    }
+    
+    /**
+     * Move every month older than the hot months out of the main database, a batch of rows per transaction
+     * @return the number of months archived
+     */
+    public synchronized int archiveClosedMonths() {
+        String cutoff = YearMonth.now().minusMonths(hotMonths - 1).atDay(1).toString();
+        int archived = 0;
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            List<YearMonth> months = new ArrayList<>();
+            try (PreparedStatement stmt = conn.prepareStatement(CLOSED_MONTHS_SQL)) {
+                stmt.setString(1, cutoff);
+                stmt.setString(2, cutoff);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        try {
+                            months.add(YearMonth.parse(rs.getString("month")));
+                        } catch (DateTimeParseException | NullPointerException e) {
+                            logger.warning("Skipping rows with an unreadable date: " + rs.getString("month"));
+                        }
+                    }
+                }
+            }
+            
+            Files.createDirectories(getDirectory());
+            for (YearMonth month : months) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                archiveMonth(conn, month);
+                archived++;
+            }
+        } catch (SQLException | IOException e) {
+            logger.severe("Error archiving sales: " + e.getMessage());
+        }
+        return archived;
+    }
+    
+    /**
+     * Copy the archive files that changed since the last copy into a directory, e.g. next to the backups
+     * @return the number of files copied
+     */
+    public synchronized int copyPartitions(Path target) throws IOException {
+        Path source = getDirectory();
+        if (!Files.isDirectory(source)) {
+            return 0;
+        }
+        
+        Files.createDirectories(target);
+        int copied = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(source, "sales_*.db")) {
+            for (Path file : stream) {
+                Path copy = target.resolve(file.getFileName());
+                if (Files.exists(copy) && Files.size(copy) == Files.size(file)
+                        // Copied times may lose precision below a millisecond
+                        && Files.getLastModifiedTime(copy).toMillis() == Files.getLastModifiedTime(file).toMillis()) {
+                    continue;
+                }
+                Path partial = copy.resolveSibling(copy.getFileName() + ".part");
+                Files.copy(file, partial, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(partial, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                copied++;
+            }
+        }
+        return copied;
+    }
+    
+    /**
+     * Move one month into its archive file a batch at a time and record it in the catalogue
+     * The month is catalogued before its first batch, so queries attach the file while rows move and find
+     * each row in exactly one place. Each batch of sales moves with its sale items in one short
+     * transaction, with a pause between batches so checkouts can take the write lock. A month left
+     * half moved, e.g. by an interruption, is finished by the next run; the file may also already hold
+     * rows of the month when older sales were imported after it was archived.
+     */
+    private void archiveMonth(Connection conn, YearMonth month) throws SQLException {
+        long start = System.nanoTime();
+        String from = month.atDay(1).toString();
+        String to = month.plusMonths(1).atDay(1).toString();
+        String schema = attach(conn, getDirectory().resolve(month.format(SCHEMA_FORMAT) + ".db"), month);
+        
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                // Only applies to a new file; stock compaction later releases the pages it frees
+                stmt.execute("PRAGMA " + schema + ".auto_vacuum = INCREMENTAL");
+                for (String table : TABLES) {
+                    createTable(conn, schema, table);
+                }
+                for (String index : INDEXES) {
+                    stmt.execute(index.formatted(schema));
+                }
+            }
+            
+            record(conn, schema, month);
+            
+            String salesFilter = "sale_date >= ? AND sale_date < ?";
+            String saleIds = "SELECT id FROM main.sales WHERE " + salesFilter + " AND id <= ?";
+            String movementsFilter = "date_created >= ? AND date_created < ?";
+            int sales = 0;
+            int items = 0;
+            int movements = 0;
+            
+            int lastId;
+            while (!Thread.currentThread().isInterrupted()
+                    && (lastId = batchEnd(conn, "sales", salesFilter, from, to)) > 0) {
+                conn.setAutoCommit(false);
+                try {
+                    sales += move(conn, schema, "sales", salesFilter + " AND id <= ?", from, to, lastId);
+                    items += move(conn, schema, "sale_items", "sale_id IN (" + saleIds + ")", from, to, lastId);
+                    delete(conn, "sale_items", "sale_id IN (" + saleIds + ")", from, to, lastId);
+                    delete(conn, "sales", salesFilter + " AND id <= ?", from, to, lastId);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                pause();
+            }
+            while (!Thread.currentThread().isInterrupted()
+                    && (lastId = batchEnd(conn, "stock_movements", movementsFilter, from, to)) > 0) {
+                conn.setAutoCommit(false);
+                try {
+                    movements += move(conn, schema, "stock_movements", movementsFilter + " AND id <= ?", from, to, lastId);
+                    delete(conn, "stock_movements", movementsFilter + " AND id <= ?", from, to, lastId);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                pause();
+            }
+            
+            record(conn, schema, month);
+            logger.info("Archived " + month + ": " + sales + " sales, " + items + " sale items and "
+                    + movements + " stock movements in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            detach(conn, schema);
+        }
+    }
+    
+    /**
+     * Create an archive table with the columns of the main one, adding columns the main table gained since
+     */
+    private void createTable(Connection conn, String schema, String table) throws SQLException {
+        List<String[]> columns = new ArrayList<>();
+        List<String> primaryKey = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA main.table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(new String[] {rs.getString("name"), rs.getString("type")});
+                if (rs.getInt("pk") > 0) {
+                    primaryKey.add(rs.getString("name"));
+                }
+            }
+        }
+        
+        // Constraints and foreign keys stay behind: archived rows are never written by the application
+        StringJoiner definitions = new StringJoiner(", ");
+        for (String[] column : columns) {
+            definitions.add(column[0] + " " + column[1]);
+        }
+        if (!primaryKey.isEmpty()) {
+            definitions.add("PRIMARY KEY (" + String.join(", ", primaryKey) + ")");
+        }
+        
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + schema + "." + table + " (" + definitions + ")");
+            
+            Set<String> existing = new HashSet<>();
+            try (ResultSet rs = stmt.executeQuery("PRAGMA " + schema + ".table_info(" + table + ")")) {
+                while (rs.next()) {
+                    existing.add(rs.getString("name"));
+                }
+            }
+            for (String[] column : columns) {
+                if (!existing.contains(column[0])) {
+                    stmt.execute("ALTER TABLE " + schema + "." + table + " ADD COLUMN " + column[0] + " " + column[1]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Last id of the next batch of a table's rows that match a date filter, or 0 if none are left
+     */
+    private int batchEnd(Connection conn, String table, String filter, String from, String to) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(BATCH_END_SQL.formatted(table, filter))) {
+            stmt.setString(1, from);
+            stmt.setString(2, to);
+            stmt.setInt(3, BATCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getInt(2) > 0 ? rs.getInt(1) : 0;
+            }
+        }
+    }
+    
+    private int move(Connection conn, String schema, String table, String filter, String from, String to,
+                     int lastId) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA main.table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+        
+        String columnList = String.join(", ", columns);
+        String sql = "INSERT INTO " + schema + "." + table + " (" + columnList + ") SELECT " + columnList
+                + " FROM main." + table + " WHERE " + filter;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, from);
+            stmt.setString(2, to);
+            stmt.setInt(3, lastId);
+            return stmt.executeUpdate();
+        }
+    }
+    
+    private void delete(Connection conn, String table, String filter, String from, String to, int lastId)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM main." + table + " WHERE " + filter)) {
+            stmt.setString(1, from);
+            stmt.setString(2, to);
+            stmt.setInt(3, lastId);
+            stmt.executeUpdate();
+        }
+    }
+    
+    private void pause() {
+        try {
+            Thread.sleep(BATCH_PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Store what the archive file of a month now holds
+     */
+    private void record(Connection conn, String schema, YearMonth month) throws SQLException {
+        String sql = """
+            INSERT INTO sales_partitions (month, file_name, sales, voided, max_sale_id, sale_items, stock_movements)
+            SELECT ?, ?,
+                   (SELECT COUNT(*) FROM %1$s.sales),
+                   (SELECT COALESCE(SUM(is_voided), 0) FROM %1$s.sales),
+                   (SELECT COALESCE(MAX(id), 0) FROM %1$s.sales),
+                   (SELECT COUNT(*) FROM %1$s.sale_items),
+                   (SELECT COUNT(*) FROM %1$s.stock_movements)
+            WHERE true
+            ON CONFLICT (month) DO UPDATE SET
+                file_name = excluded.file_name,
+                sales = excluded.sales,
+                voided = excluded.voided,
+                max_sale_id = excluded.max_sale_id,
+                sale_items = excluded.sale_items,
+                stock_movements = excluded.stock_movements,
+                date_archived = CURRENT_TIMESTAMP
+            """.formatted(schema);
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, month.toString());
+            stmt.setString(2, schema + ".db");
+            stmt.executeUpdate();
+        }
+    }
+    
+    private String attach(Connection conn, Path file, YearMonth month) throws SQLException {
+        String schema = month.format(SCHEMA_FORMAT);
+        try (PreparedStatement stmt = conn.prepareStatement("ATTACH DATABASE ? AS " + schema)) {
+            stmt.setString(1, file.toString());
+            stmt.execute();
+        }
+        return schema;
+    }
+    
+    private void detach(Connection conn, String schema) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DETACH DATABASE " + schema);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.Sale;
+import com.cofitearia.milktea.models.SaleItem;
+import com.cofitearia.milktea.models.SalesCubeCell;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory columnar cube of sale lines for ad-hoc pivots
+ * Every completed sale line is one row, stored column by column in primitive arrays. Product, hour,
+ * cashier and payment method are dictionary-encoded to small int codes; filters build a bitmap per
+ * predicate and AND them word by word, and group-bys aggregate the selected rows on all cores.
+ * The cube is loaded once in the background, with closed months scanned from their binary
+ * snapshots and only the open period read through JDBC; checkout then appends each new sale,
+ * so it never has to go back to the database.
+ */
+public class SalesCube {
+    private static final Logger logger = Logger.getLogger(SalesCube.class.getName());
+    
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    // Group-bys with more cells than this aggregate into a map instead of dense arrays
+    private static final int MAX_DENSE_CELLS = 1 << 18;
+    // Bitmap words per group-by task, i.e. 16384 rows
+    private static final int WORDS_PER_TASK = 256;
+    
+    // %s is the schema of the sales tables: main or an attached archive month
+    private static final String LOAD_SQL = """
+        SELECT s.id AS sale_id, s.sale_date, s.payment_method, COALESCE(s.cashier_id, 0) AS cashier_id,
+               si.product_id, si.quantity, si.total_price
+        FROM %1$s.sales s
+        JOIN %1$s.sale_items si ON si.sale_id = s.id
+        WHERE s.is_voided = 0 AND s.sale_date >= ?
+        """;
+    
+    /**
+     * Dimensions a pivot can filter and group by
+     */
+    public enum Dimension {
+        PRODUCT("Product"),
+        HOUR("Hour"),
+        CASHIER("Cashier"),
+        PAYMENT_METHOD("Payment Method");
+        
+        private final String displayName;
+        
+        Dimension(String displayName) {
+            this.displayName = displayName;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+        
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+    
+    /**
+     * Immutable view of the first size rows; appends only write past it, so queries need no lock
+     */
+    private record Columns(int size, int[] day, int[][] dimensions, int[] quantity, long[] revenueCents,
+                           String[][] labels) {
+    }
+    
+    private final SalesSnapshotService snapshotService = new SalesSnapshotService();
+    private final List<Sale> pending = new ArrayList<>();
+    private Builder builder;
+    private boolean loading;
+    private volatile Columns columns = new Builder().publish();
+    
+    /**
+     * Load the cube on a background thread
+     */
+    public void start() {
+        Thread loader = new Thread(this::load, "sales-cube-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    /**
+     * Load every completed sale line from the database, replacing the current contents
+     * Sales checked out while loading are queued and appended afterwards unless the load already saw them.
+     */
+    public void load() {
+        synchronized (this) {
+            if (loading) {
+                return;
+            }
+            loading = true;
+        }
+        
+        long start = System.nanoTime();
+        Builder loaded = new Builder();
+        int[] lastSaleId = {0};
+        int snapshotLines = 0;
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            
+            Map<Integer, String> products = loadNames(conn, "SELECT id, name FROM products");
+            Map<Integer, String> cashiers = loadNames(conn, "SELECT id, first_name || ' ' || last_name FROM users");
+            
+            // Closed months come from their snapshots; JDBC only reads the sales after the last one
+            List<YearMonth> months = snapshotService.prepareClosedMonths();
+            for (YearMonth month : months) {
+                lastSaleId[0] = Math.max(lastSaleId[0], snapshotService.scan(month,
+                        (saleId, epochDay, hour, productId, cashierId, paymentMethod, quantity, revenueCents) ->
+                                loaded.append(epochDay, hour, productName(products, productId), cashierName(cashiers, cashierId),
+                                        paymentLabel(paymentMethod), quantity, revenueCents)));
+            }
+            snapshotLines = loaded.size;
+            
+            // Months whose snapshot could not be written may already be archived
+            LocalDate from = months.isEmpty() ? null : months.get(months.size() - 1).plusMonths(1).atDay(1);
+            Main.getSalesArchive().forEachSegment(conn, from, null, schema -> {
+                try (PreparedStatement stmt = conn.prepareStatement(LOAD_SQL.formatted(schema))) {
+                    stmt.setFetchSize(4096);
+                    stmt.setString(1, from == null ? "" : from.toString());
+                    
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        String lastDate = "";
+                        int epochDay = 0;
+                        
+                        while (rs.next()) {
+                            String saleDate = rs.getString("sale_date");
+                            // Lines come out roughly in sale order, so the date is only parsed when the day changes
+                            if (!saleDate.regionMatches(0, lastDate, 0, 10)) {
+                                epochDay = (int) LocalDate.parse(saleDate.substring(0, 10)).toEpochDay();
+                                lastDate = saleDate;
+                            }
+                            int hour = saleDate.length() >= 13 ? Integer.parseInt(saleDate.substring(11, 13)) : 0;
+                            
+                            loaded.append(epochDay, hour, productName(products, rs.getInt("product_id")),
+                                    cashierName(cashiers, rs.getInt("cashier_id")), paymentLabel(rs.getString("payment_method")),
+                                    rs.getInt("quantity"), cents(rs.getBigDecimal("total_price")));
+                            lastSaleId[0] = Math.max(lastSaleId[0], rs.getInt("sale_id"));
+                        }
+                    }
+                }
+            });
+        } catch (SQLException | IOException e) {
+            logger.severe("Error loading sales cube: " + e.getMessage());
+            synchronized (this) {
+                loading = false;
+                pending.clear();
+            }
+            return;
+        }
+        
+        synchronized (this) {
+            for (Sale sale : pending) {
+                if (sale.getId() > lastSaleId[0]) {
+                    appendSale(loaded, sale);
+                }
+            }
+            pending.clear();
+            builder = loaded;
+            columns = loaded.publish();
+            loading = false;
+        }
+        
+        logger.info("Sales cube loaded " + loaded.size + " lines (" + snapshotLines + " from snapshots) in "
+                + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms");
+    }
+    
+    /**
+     * Append a sale that was just committed; ignored until the cube has been loaded
+     */
+    public synchronized void append(Sale sale) {
+        if (loading) {
+            pending.add(sale);
+            return;
+        }
+        if (builder == null) {
+            return;
+        }
+        appendSale(builder, sale);
+        columns = builder.publish();
+    }
+    
+    public int getRowCount() {
+        return columns.size();
+    }
+    
+    /**
+     * Values a dimension currently takes, e.g. to fill a filter list
+     */
+    public List<String> getValues(Dimension dimension) {
+        return List.of(columns.labels()[dimension.ordinal()]);
+    }
+    
+    /**
+     * Pivot the sale lines sold from one date up to and including another
+     * @param selections values to keep per dimension; dimensions left out are not filtered
+     * @param dimensions dimensions to group by, in label order; none gives a single total
+     * @return one cell per combination that has sales, highest revenue first
+     */
+    public List<SalesCubeCell> groupBy(LocalDate from, LocalDate to, Map<Dimension, Set<String>> selections,
+                                       Dimension... dimensions) {
+        long start = System.nanoTime();
+        Columns snapshot = columns;
+        long[] bitmap = filter(snapshot, (int) from.toEpochDay(), (int) to.toEpochDay(), selections);
+        
+        int[][] keyColumns = new int[dimensions.length][];
+        int[] radix = new int[dimensions.length];
+        long cells = 1;
+        for (int d = 0; d < dimensions.length; d++) {
+            keyColumns[d] = snapshot.dimensions()[dimensions[d].ordinal()];
+            radix[d] = Math.max(1, snapshot.labels()[dimensions[d].ordinal()].length);
+            cells *= radix[d];
+        }
+        long cellCount = cells;
+        
+        int tasks = (bitmap.length + WORDS_PER_TASK - 1) / WORDS_PER_TASK;
+        Accumulator totals = IntStream.range(0, tasks).parallel().collect(
+                () -> new Accumulator(cellCount),
+                (accumulator, task) -> accumulator.add(snapshot, bitmap, task, keyColumns, radix),
+                Accumulator::merge);
+        
+        List<SalesCubeCell> result = new ArrayList<>();
+        totals.forEach((key, lines, quantity, cents) -> {
+            String[] labels = new String[dimensions.length];
+            long rest = key;
+            for (int d = dimensions.length - 1; d >= 0; d--) {
+                labels[d] = snapshot.labels()[dimensions[d].ordinal()][(int) (rest % radix[d])];
+                rest /= radix[d];
+            }
+            result.add(new SalesCubeCell(Arrays.asList(labels), lines, quantity, BigDecimal.valueOf(cents, 2)));
+        });
+        result.sort(Comparator.comparing(SalesCubeCell::getRevenue).reversed());
+        
+        logger.fine("Sales cube pivot over " + snapshot.size() + " lines took "
+                + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms");
+        return result;
+    }
+    
+    /**
+     * Bitmap of the rows in a day range whose dimension values are selected, one bit per row
+     * Each 64-row word is computed independently, so the words are spread over all cores.
+     */
+    private long[] filter(Columns snapshot, int fromDay, int toDay, Map<Dimension, Set<String>> selections) {
+        List<int[]> filterColumns = new ArrayList<>();
+        List<boolean[]> allowed = new ArrayList<>();
+        for (Map.Entry<Dimension, Set<String>> selection : selections.entrySet()) {
+            String[] labels = snapshot.labels()[selection.getKey().ordinal()];
+            boolean[] keep = new boolean[labels.length];
+            for (int code = 0; code < labels.length; code++) {
+                keep[code] = selection.getValue().contains(labels[code]);
+            }
+            filterColumns.add(snapshot.dimensions()[selection.getKey().ordinal()]);
+            allowed.add(keep);
+        }
+        
+        int size = snapshot.size();
+        int[] day = snapshot.day();
+        long[] bitmap = new long[(size + 63) >>> 6];
+        
+        IntStream.range(0, bitmap.length).parallel().forEach(word -> {
+            int base = word << 6;
+            int end = Math.min(base + 64, size);
+            
+            long bits = 0;
+            for (int row = base; row < end; row++) {
+                if (day[row] >= fromDay && day[row] <= toDay) {
+                    bits |= 1L << (row - base);
+                }
+            }
+            
+            for (int f = 0; f < filterColumns.size() && bits != 0; f++) {
+                int[] column = filterColumns.get(f);
+                boolean[] keep = allowed.get(f);
+                long matches = 0;
+                for (int row = base; row < end; row++) {
+                    if (keep[column[row]]) {
+                        matches |= 1L << (row - base);
+                    }
+                }
+                bits &= matches;
+            }
+            
+            bitmap[word] = bits;
+        });
+        
+        return bitmap;
+    }
+    
+    private static void appendSale(Builder target, Sale sale) {
+        if (sale.isVoided()) {
+            return;
+        }
+        int epochDay = (int) sale.getSaleDate().toLocalDate().toEpochDay();
+        int hour = sale.getSaleDate().getHour();
+        String cashier = sale.getCashier() != null ? sale.getCashier().getFullName() : "Unassigned";
+        String payment = paymentLabel(sale.getPaymentMethod());
+        
+        for (SaleItem item : sale.getItems()) {
+            target.append(epochDay, hour, item.getProduct().getName(), cashier, payment, item.getQuantity(),
+                    cents(item.getTotalPrice()));
+        }
+    }
+    
+    /**
+     * An amount in whole cents, rounded the same way whether it was loaded, just sold or exported
+     */
+    static long cents(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+    
+    private static Map<Integer, String> loadNames(Connection conn, String sql) throws SQLException {
+        Map<Integer, String> names = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                names.put(rs.getInt(1), rs.getString(2));
+            }
+        }
+        return names;
+    }
+    
+    private static String productName(Map<Integer, String> products, int productId) {
+        return products.getOrDefault(productId, "Product #" + productId);
+    }
+    
+    private static String cashierName(Map<Integer, String> cashiers, int cashierId) {
+        return cashiers.getOrDefault(cashierId, "Unassigned");
+    }
+    
+    private static String paymentLabel(String paymentMethod) {
+        return paymentMethod == null || paymentMethod.isBlank() ? "Unspecified" : paymentMethod;
+    }
+    
+    /**
+     * Growable columns and dimension dictionaries; only touched while holding the cube's lock
+     */
+    private static class Builder {
+        private final Map<String, Integer>[] codes;
+        private final List<String>[] values;
+        private final String[][] publishedLabels;
+        private int size;
+        private int[] day = new int[INITIAL_CAPACITY];
+        private final int[][] dimensions = new int[Dimension.values().length][INITIAL_CAPACITY];
+        private int[] quantity = new int[INITIAL_CAPACITY];
+        private long[] revenueCents = new long[INITIAL_CAPACITY];
+        
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Builder() {
+            int count = Dimension.values().length;
+            codes = new Map[count];
+            values = new List[count];
+            publishedLabels = new String[count][];
+            for (int d = 0; d < count; d++) {
+                codes[d] = new HashMap<>();
+                values[d] = new ArrayList<>();
+            }
+            // Hours are pre-seeded so their code is the hour itself and they sort naturally
+            for (int hour = 0; hour < 24; hour++) {
+                encode(Dimension.HOUR, String.format("%02d:00", hour));
+            }
+        }
+        
+        void append(int epochDay, int hour, String product, String cashier, String payment, int lineQuantity, long cents) {
+            if (size == day.length) {
+                int capacity = size * 2;
+                day = Arrays.copyOf(day, capacity);
+                for (int d = 0; d < dimensions.length; d++) {
+                    dimensions[d] = Arrays.copyOf(dimensions[d], capacity);
+                }
+                quantity = Arrays.copyOf(quantity, capacity);
+                revenueCents = Arrays.copyOf(revenueCents, capacity);
+            }
+            
+            day[size] = epochDay;
+            dimensions[Dimension.PRODUCT.ordinal()][size] = encode(Dimension.PRODUCT, product);
+            dimensions[Dimension.HOUR.ordinal()][size] = hour;
+            dimensions[Dimension.CASHIER.ordinal()][size] = encode(Dimension.CASHIER, cashier);
+            dimensions[Dimension.PAYMENT_METHOD.ordinal()][size] = encode(Dimension.PAYMENT_METHOD, payment);
+            quantity[size] = lineQuantity;
+            revenueCents[size] = cents;
+            size++;
+        }
+        
+        private int encode(Dimension dimension, String value) {
+            int d = dimension.ordinal();
+            Integer code = codes[d].get(value);
+            if (code == null) {
+                code = values[d].size();
+                codes[d].put(value, code);
+                values[d].add(value);
+            }
+            return code;
+        }
+        
+        Columns publish() {
+            String[][] labels = new String[values.length][];
+            for (int d = 0; d < values.length; d++) {
+                // Label arrays are only copied when a dimension gained a value
+                if (publishedLabels[d] == null || publishedLabels[d].length != values[d].size()) {
+                    publishedLabels[d] = values[d].toArray(new String[0]);
+                }
+                labels[d] = publishedLabels[d];
+            }
+            return new Columns(size, day, dimensions.clone(), quantity, revenueCents, labels);
+        }
+    }
+    
+    /**
+     * Per-task group-by totals: dense arrays indexed by cell, or a map when there are too many cells
+     */
+    private static class Accumulator {
+        private final long[] lines;
+        private final long[] quantity;
+        private final long[] cents;
+        private final Map<Long, long[]> sparse;
+        
+        Accumulator(long cells) {
+            boolean dense = cells <= MAX_DENSE_CELLS;
+            lines = dense ? new long[(int) cells] : null;
+            quantity = dense ? new long[(int) cells] : null;
+            cents = dense ? new long[(int) cells] : null;
+            sparse = dense ? null : new HashMap<>();
+        }
+        
+        void add(Columns snapshot, long[] bitmap, int task, int[][] keyColumns, int[] radix) {
+            int lastWord = Math.min(bitmap.length, (task + 1) * WORDS_PER_TASK);
+            for (int word = task * WORDS_PER_TASK; word < lastWord; word++) {
+                long bits = bitmap[word];
+                while (bits != 0) {
+                    int row = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    
+                    long key = 0;
+                    for (int d = 0; d < keyColumns.length; d++) {
+                        key = key * radix[d] + keyColumns[d][row];
+                    }
+                    add(key, 1, snapshot.quantity()[row], snapshot.revenueCents()[row]);
+                }
+            }
+        }
+        
+        private void add(long key, long lineCount, long lineQuantity, long lineCents) {
+            if (sparse == null) {
+                lines[(int) key] += lineCount;
+                quantity[(int) key] += lineQuantity;
+                cents[(int) key] += lineCents;
+            } else {
+                long[] totals = sparse.computeIfAbsent(key, k -> new long[3]);
+                totals[0] += lineCount;
+                totals[1] += lineQuantity;
+                totals[2] += lineCents;
+            }
+        }
+        
+        void merge(Accumulator other) {
+            other.forEach(this::add);
+        }
+        
+        void forEach(CellConsumer consumer) {
+            if (sparse == null) {
+                for (int key = 0; key < lines.length; key++) {
+                    if (lines[key] > 0) {
+                        consumer.accept(key, lines[key], quantity[key], cents[key]);
+                    }
+                }
+            } else {
+                sparse.forEach((key, totals) -> consumer.accept(key, totals[0], totals[1], totals[2]));
+            }
+        }
+    }
+    
+    @FunctionalInterface
+    private interface CellConsumer {
+        void accept(long key, long lines, long quantity, long cents);
+    }
+}
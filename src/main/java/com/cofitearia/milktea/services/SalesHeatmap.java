@@ -0,0 +1,166 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.Sale;
+import com.cofitearia.milktea.models.SaleItem;
+import com.cofitearia.milktea.models.SalesHeatmapBucket;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * Live sales per quarter-hour for the dashboard heatmap
+ * Completed sales are counted into a ring of fifteen-minute buckets of atomic counters, so
+ * registers checking out at the same time never wait on each other and the dashboard reads
+ * today's activity without going to the database.
+ */
+public class SalesHeatmap {
+    private static final Logger logger = Logger.getLogger(SalesHeatmap.class.getName());
+    
+    public static final int BUCKET_MINUTES = 15;
+    public static final int BUCKETS_PER_DAY = 24 * 60 / BUCKET_MINUTES;
+    
+    private static final long BUCKET_SECONDS = BUCKET_MINUTES * 60L;
+    // Two days of buckets, so none of today's is ever reused for a late sale from yesterday
+    private static final int CAPACITY = BUCKETS_PER_DAY * 2;
+    private static final long EMPTY = -1;
+    private static final long CLAIMING = -2;
+    
+    private static final String TODAY_SQL = """
+        SELECT s.sale_date, s.total, COALESCE(SUM(si.quantity), 0) AS units
+        FROM sales s
+        LEFT JOIN sale_items si ON si.sale_id = s.id
+        WHERE s.sale_date >= ? AND s.is_voided = 0
+        GROUP BY s.id
+        """;
+    
+    // Quarter-hour each ring position currently counts, EMPTY, or CLAIMING while it is being reset
+    private final AtomicLongArray slots = new AtomicLongArray(CAPACITY);
+    private final AtomicLongArray transactions = new AtomicLongArray(CAPACITY);
+    private final AtomicLongArray units = new AtomicLongArray(CAPACITY);
+    private final AtomicLongArray centavos = new AtomicLongArray(CAPACITY);
+    
+    public SalesHeatmap() {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots.set(i, EMPTY);
+        }
+    }
+    
+    /**
+     * Seed the heatmap from today's sales in one pass, so it survives a restart
+     */
+    public void loadToday() {
+        int sales = 0;
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection();
+             PreparedStatement stmt = conn.prepareStatement(TODAY_SQL)) {
+            
+            stmt.setString(1, LocalDate.now().toString());
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    LocalDateTime soldAt = LocalDateTime.parse(rs.getString("sale_date"), SalesService.SALE_DATE_FORMAT);
+                    add(slotOf(soldAt), rs.getLong("units"), toCentavos(rs.getBigDecimal("total")));
+                    sales++;
+                }
+            }
+        } catch (SQLException e) {
+            logger.severe("Error loading today's sales heatmap: " + e.getMessage());
+            return;
+        }
+        
+        logger.info("Sales heatmap loaded " + sales + " sales from today");
+    }
+    
+    /**
+     * Count a completed sale; safe to call from any number of registers at once
+     */
+    public void record(Sale sale) {
+        if (sale.isVoided()) {
+            return;
+        }
+        long saleUnits = 0;
+        for (SaleItem item : sale.getItems()) {
+            saleUnits += item.getQuantity();
+        }
+        add(slotOf(sale.getSaleDate()), saleUnits, toCentavos(sale.getTotal()));
+    }
+    
+    /**
+     * Today's quarter-hours from midnight, empty ones included
+     */
+    public List<SalesHeatmapBucket> getToday() {
+        LocalDateTime midnight = LocalDate.now().atStartOfDay();
+        long firstSlot = slotOf(midnight);
+        
+        List<SalesHeatmapBucket> buckets = new ArrayList<>(BUCKETS_PER_DAY);
+        for (int i = 0; i < BUCKETS_PER_DAY; i++) {
+            LocalDateTime start = midnight.plusMinutes((long) i * BUCKET_MINUTES);
+            buckets.add(read(firstSlot + i, start));
+        }
+        return buckets;
+    }
+    
+    private void add(long slot, long saleUnits, long saleCentavos) {
+        int index = (int) Math.floorMod(slot, (long) CAPACITY);
+        long current = slots.get(index);
+        while (current != slot) {
+            if (current == CLAIMING) {
+                Thread.onSpinWait();
+            } else if (current > slot) {
+                return; // Older than anything the ring still holds
+            } else if (slots.compareAndSet(index, current, CLAIMING)) {
+                // Only the thread that claimed the position clears it; the others wait for the new slot
+                transactions.set(index, 0);
+                units.set(index, 0);
+                centavos.set(index, 0);
+                slots.set(index, slot);
+                break;
+            }
+            current = slots.get(index);
+        }
+        
+        transactions.incrementAndGet(index);
+        units.addAndGet(index, saleUnits);
+        centavos.addAndGet(index, saleCentavos);
+    }
+    
+    private SalesHeatmapBucket read(long slot, LocalDateTime start) {
+        LocalDateTime end = start.plusMinutes(BUCKET_MINUTES);
+        int index = (int) Math.floorMod(slot, (long) CAPACITY);
+        if (slots.get(index) != slot) {
+            return new SalesHeatmapBucket(start, end, 0, 0, BigDecimal.ZERO.setScale(2));
+        }
+        
+        long bucketTransactions = transactions.get(index);
+        long bucketUnits = units.get(index);
+        long bucketCentavos = centavos.get(index);
+        if (slots.get(index) != slot) {
+            // Reused for a newer quarter-hour while reading
+            return new SalesHeatmapBucket(start, end, 0, 0, BigDecimal.ZERO.setScale(2));
+        }
+        return new SalesHeatmapBucket(start, end, bucketTransactions, bucketUnits, BigDecimal.valueOf(bucketCentavos, 2));
+    }
+    
+    /**
+     * Quarter-hours since the epoch in local time, so every day has the same buckets
+     */
+    private static long slotOf(LocalDateTime dateTime) {
+        return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), BUCKET_SECONDS);
+    }
+    
+    private static long toCentavos(BigDecimal amount) {
+        return amount == null ? 0 : amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+}
@@ -0,0 +1,356 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.models.Sale;
+import com.cofitearia.milktea.models.SaleItem;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.SQLiteException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Sales service for processing checkouts
+ * Records the sale, its items and the matching stock decrements in one transaction.
+ * Sale lines are exploded through their recipes first, so an order of any size becomes
+ * one batched decrement per inventory item. The sales rollups are updated in the same transaction.
+ * Checkouts can go through the sale journal instead, which records them here in the background.
+ */
+public class SalesService {
+    private static final Logger logger = Logger.getLogger(SalesService.class.getName());
+    
+    // Sale timestamps are stored as local time text so reports can group them by day and hour
+    public static final DateTimeFormatter SALE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    
+    // A keyed sale that finds the database busy is tried this often in all
+    private static final int MAX_BUSY_ATTEMPTS = 3;
+    private static final long BUSY_RETRY_MILLIS = 100;
+    
+    /**
+     * Outcome of storing a sale
+     * @param repeat true if a sale with the same idempotency key was already stored, so nothing was
+     */
+    private record Recorded(Set<Integer> touchedItems, boolean repeat) {
+    }
+    
+    private final InventoryService inventoryService = new InventoryService();
+    private final RollupService rollupService = new RollupService();
+    
+    /**
+     * Take a checkout through the sale journal when it is running, so the customer only waits for the
+     * sale to reach disk; otherwise process it right away
+     * @return true if the sale was logged or recorded, now or by an earlier submit with the same key
+     */
+    public boolean submitSale(Sale sale) {
+        SaleJournal journal = Main.getSaleJournal();
+        if (!journal.isRunning()) {
+            return processSale(sale);
+        }
+        if (isRecentRepeat(sale)) {
+            return true;
+        }
+        if (!journal.append(sale)) {
+            return false;
+        }
+        Main.getRecentCheckouts().put(sale);
+        return true;
+    }
+    
+    /**
+     * Process a sale: store it and take its items out of stock
+     * A sale with an idempotency key is stored at most once, so it is safe to submit again, and is
+     * retried when the database is busy; a repeat gets the transaction number and ID of the original.
+     * @return true if the sale was recorded, now or before; false if it failed or an item was out of stock
+     */
+    public boolean processSale(Sale sale) {
+        if (isRecentRepeat(sale)) {
+            return true;
+        }
+        
+        Recorded recorded;
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = Main.getDatabaseManager().getConnection()) {
+                recorded = recordSale(conn, sale, null, 0);
+                break;
+            } catch (SQLException e) {
+                // Without a key, a retry could not tell whether the failed attempt had been stored
+                if (!isBusy(e) || sale.getIdempotencyKey() == null || attempt == MAX_BUSY_ATTEMPTS) {
+                    logger.severe("Error processing sale " + sale.getTransactionNumber() + ": " + e.getMessage());
+                    return false;
+                }
+                logger.warning("Database busy processing sale " + sale.getTransactionNumber() + ", retrying");
+                try {
+                    Thread.sleep(BUSY_RETRY_MILLIS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        
+        if (recorded == null) {
+            return false;
+        }
+        Main.getRecentCheckouts().put(sale);
+        if (recorded.repeat()) {
+            logger.info("Sale " + sale.getTransactionNumber() + " was already recorded for this checkout");
+            return true;
+        }
+        logger.info("Sale processed successfully: " + sale.getTransactionNumber());
+        
+        for (int itemId : recorded.touchedItems()) {
+            inventoryService.publishStockChange(itemId);
+        }
+        publishSale(sale);
+        return true;
+    }
+    
+    /**
+     * Record a sale read back from the sale journal on the journal's connection, together with the
+     * journal position it was read at, so a replay never records it twice
+     * The customer already has the order, so a sale whose stock ran out meanwhile is still recorded;
+     * it takes the stock there is, and each item it falls short on is reported for a recount.
+     */
+    void processJournaledSale(Connection conn, Sale sale, String journalId, long sequence) throws SQLException {
+        Recorded recorded = recordSale(conn, sale, journalId, sequence);
+        if (recorded.repeat()) {
+            return;
+        }
+        try {
+            for (int itemId : recorded.touchedItems()) {
+                inventoryService.publishStockChange(conn, itemId);
+            }
+            publishSale(sale);
+        } catch (SQLException | RuntimeException e) {
+            // Recorded already; the journal must not treat the sale as failed
+            logger.warning("Journaled sale " + sale.getTransactionNumber() + " recorded, but alerts and dashboards "
+                    + "were not updated: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Move the journal position past a sale that is set aside instead of recorded
+     */
+    void skipJournaledSale(Connection conn, String journalId, long sequence) throws SQLException {
+        saveJournalPosition(conn, journalId, sequence);
+    }
+    
+    /**
+     * Store a sale and take its items out of stock in one transaction
+     * @param journalId sale journal the sale was read from, or null for a sale taken directly
+     * @return what was stored, or null if a direct sale was rejected for stock
+     */
+    private Recorded recordSale(Connection conn, Sale sale, String journalId, long sequence) throws SQLException {
+        List<LotService.LotDraw> draws = new ArrayList<>();
+        Set<Integer> touchedItems = Set.of();
+        conn.setAutoCommit(false);
+        
+        try {
+            if (journalId != null) {
+                // Transaction numbers are only unique to the millisecond; keep both sales
+                if (transactionNumberExists(conn, sale.getTransactionNumber())) {
+                    sale.setTransactionNumber(sale.getTransactionNumber() + "-" + sequence);
+                }
+                saveJournalPosition(conn, journalId, sequence);
+            }
+            
+            int saleId = insertSale(conn, sale);
+            if (saleId == 0) {
+                // Stored before under the same key; only the journal position is new
+                loadOriginal(conn, sale);
+                conn.commit();
+                return new Recorded(Set.of(), true);
+            }
+            insertSaleItems(conn, saleId, sale.getItems());
+            rollupService.recordSale(conn, sale);
+            
+            Integer cashierId = sale.getCashier() != null ? sale.getCashier().getId() : null;
+            String reason = "Sale " + sale.getTransactionNumber();
+            
+            Map<Integer, Integer> consumption = Main.getRecipeService().explode(conn, sale.getItems());
+            Savepoint beforeStock = conn.setSavepoint();
+            List<LotService.LotDraw> consumed = inventoryService.consumeStock(conn, consumption, reason, cashierId);
+            if (consumed == null && journalId == null) {
+                conn.rollback();
+                logger.warning("Sale " + sale.getTransactionNumber() + " rejected: insufficient stock");
+                return null;
+            } else if (consumed == null) {
+                conn.rollback(beforeStock);
+                Map<Integer, Integer> covered = inventoryService.coveredByStock(conn, consumption);
+                reportShortfall(sale, consumption, covered);
+                // Nothing else can write until this transaction ends, so the covered part is always there
+                consumed = inventoryService.consumeStock(conn, covered, reason, cashierId);
+            }
+            draws.addAll(consumed);
+            touchedItems = consumption.keySet();
+            
+            conn.commit();
+            sale.setId(saleId);
+            return new Recorded(touchedItems, false);
+        } catch (Throwable e) {
+            // Whatever failed, setAutoCommit below would otherwise commit the half-recorded sale
+            conn.rollback();
+            Main.getLotService().restoreLots(draws);
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+    
+    /**
+     * Log each item a journaled sale needed more of than was in stock
+     */
+    private void reportShortfall(Sale sale, Map<Integer, Integer> needed, Map<Integer, Integer> covered) {
+        for (Map.Entry<Integer, Integer> entry : needed.entrySet()) {
+            int shortfall = entry.getValue() - covered.getOrDefault(entry.getKey(), 0);
+            if (shortfall > 0) {
+                logger.severe("Journaled sale " + sale.getTransactionNumber() + " was " + shortfall
+                        + " short of inventory item ID " + entry.getKey() + "; its stock is now 0, recount it");
+            }
+        }
+    }
+    
+    /**
+     * Answer a repeated submit of a recent checkout from memory, without touching the database
+     * The repeat gets the original's transaction number and ID; the ID is 0 while the original is
+     * still in the sale journal.
+     */
+    private boolean isRecentRepeat(Sale sale) {
+        Sale original = sale.getIdempotencyKey() != null
+                ? Main.getRecentCheckouts().get(sale.getIdempotencyKey())
+                : null;
+        if (original == null) {
+            return false;
+        }
+        if (original != sale) {
+            sale.setTransactionNumber(original.getTransactionNumber());
+            sale.setId(original.getId());
+        }
+        logger.info("Sale " + sale.getTransactionNumber() + " was already taken for this checkout");
+        return true;
+    }
+    
+    static boolean isBusy(SQLException e) {
+        if (!(e instanceof SQLiteException sqlite)) {
+            return false;
+        }
+        // Extended codes such as SQLITE_BUSY_RECOVERY share the primary code in the low byte
+        int primary = sqlite.getResultCode().code & 0xff;
+        return primary == SQLiteErrorCode.SQLITE_BUSY.code || primary == SQLiteErrorCode.SQLITE_LOCKED.code;
+    }
+    
+    /**
+     * Add a committed sale to the in-memory dashboards
+     */
+    private void publishSale(Sale sale) {
+        Main.getSalesCube().append(sale);
+        Main.getBestsellerTracker().record(sale);
+        Main.getSalesHeatmap().record(sale);
+    }
+    
+    private boolean transactionNumberExists(Connection conn, String transactionNumber) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM sales WHERE transaction_number = ?")) {
+            stmt.setString(1, transactionNumber);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+    
+    /**
+     * Give a repeat the transaction number and ID its key was stored with
+     */
+    private void loadOriginal(Connection conn, Sale sale) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT id, transaction_number FROM sales WHERE idempotency_key = ?")) {
+            stmt.setString(1, sale.getIdempotencyKey());
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    sale.setId(rs.getInt("id"));
+                    sale.setTransactionNumber(rs.getString("transaction_number"));
+                }
+            }
+        }
+    }
+    
+    private void saveJournalPosition(Connection conn, String journalId, long sequence) throws SQLException {
+        String sql = """
+            INSERT INTO sale_journal_positions (journal_id, applied_sequence) VALUES (?, ?)
+            ON CONFLICT (journal_id) DO UPDATE SET applied_sequence = excluded.applied_sequence,
+                                                   date_modified = CURRENT_TIMESTAMP
+            """;
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, journalId);
+            stmt.setLong(2, sequence);
+            stmt.executeUpdate();
+        }
+    }
+    
+    /**
+     * Insert the sale header and return its ID, or 0 if a sale with its idempotency key exists
+     */
+    private int insertSale(Connection conn, Sale sale) throws SQLException {
+        String sql = """
+            INSERT INTO sales (transaction_number, subtotal, tax, discount, total, payment_method,
+                               customer_info, cashier_id, sale_date, notes,
+                               accessibility_assistance_used, accessibility_notes, idempotency_key)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (idempotency_key) DO NOTHING
+            """;
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, sale.getTransactionNumber());
+            stmt.setBigDecimal(2, sale.getSubtotal());
+            stmt.setBigDecimal(3, sale.getTax());
+            stmt.setBigDecimal(4, sale.getDiscount());
+            stmt.setBigDecimal(5, sale.getTotal());
+            stmt.setString(6, sale.getPaymentMethod());
+            stmt.setString(7, sale.getCustomerInfo());
+            stmt.setObject(8, sale.getCashier() != null ? sale.getCashier().getId() : null);
+            stmt.setString(9, sale.getSaleDate().format(SALE_DATE_FORMAT));
+            stmt.setString(10, sale.getNotes());
+            stmt.setBoolean(11, sale.isAccessibilityAssistanceUsed());
+            stmt.setString(12, sale.getAccessibilityNotes());
+            stmt.setString(13, sale.getIdempotencyKey());
+            if (stmt.executeUpdate() == 0) {
+                return 0;
+            }
+        }
+        
+        return DatabaseManager.getLastInsertId(conn);
+    }
+    
+    /**
+     * Insert all sale lines in one batch
+     */
+    private void insertSaleItems(Connection conn, int saleId, List<SaleItem> items) throws SQLException {
+        String sql = """
+            INSERT INTO sale_items (sale_id, product_id, quantity, unit_price, total_price, notes)
+            VALUES (?, ?, ?, ?, ?, ?)
+            """;
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (SaleItem item : items) {
+                stmt.setInt(1, saleId);
+                stmt.setInt(2, item.getProduct().getId());
+                stmt.setInt(3, item.getQuantity());
+                stmt.setBigDecimal(4, item.getUnitPrice());
+                stmt.setBigDecimal(5, item.getTotalPrice());
+                stmt.setString(6, item.getNotes());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Binary snapshots of the sale lines of closed months
+ * Each month is written once to a file of fixed-width little-endian records next to the database,
+ * and read back through a memory mapping, so scanning history needs no JDBC, text timestamps or
+ * decimal parsing. A snapshot stores the month's sale count, voided count and highest sale ID; it
+ * is rewritten whenever these no longer match the database.
+ *
+ * File layout: a header (magic, version, month, record count, sale count, voided count, highest
+ * sale ID, header size, payment method names) followed by 32-byte records of sale ID, epoch day,
+ * product ID, cashier ID (0 for none), quantity, revenue in cents, hour and payment method code.
+ */
+public class SalesSnapshotService {
+    private static final Logger logger = Logger.getLogger(SalesSnapshotService.class.getName());
+    
+    private static final int MAGIC = 0x43465453; // "CFTS"
+    private static final int VERSION = 1;
+    public static final int RECORD_SIZE = 32;
+    
+    private static final int OFFSET_SALE_ID = 0;
+    private static final int OFFSET_EPOCH_DAY = 4;
+    private static final int OFFSET_PRODUCT_ID = 8;
+    private static final int OFFSET_CASHIER_ID = 12;
+    private static final int OFFSET_QUANTITY = 16;
+    private static final int OFFSET_REVENUE_CENTS = 20;
+    private static final int OFFSET_HOUR = 28;
+    private static final int OFFSET_PAYMENT = 29;
+    
+    // %s is the schema of the sales tables: main or an attached archive month
+    private static final String EXPORT_SQL = """
+        SELECT s.id, s.sale_date, s.payment_method, COALESCE(s.cashier_id, 0) AS cashier_id,
+               si.product_id, si.quantity, si.total_price
+        FROM %1$s.sales s
+        JOIN %1$s.sale_items si ON si.sale_id = s.id
+        WHERE s.is_voided = 0 AND s.sale_date >= ? AND s.sale_date < ?
+        """;
+    
+    private static final String FINGERPRINT_SQL = """
+        SELECT substr(sale_date, 1, 7) AS month, COUNT(*) AS sales, SUM(is_voided) AS voided, MAX(id) AS max_id
+        FROM %s.sales
+        WHERE sale_date < ?
+        GROUP BY month
+        """;
+    
+    /**
+     * Receives the fields of one snapshot record without any object being created for it
+     */
+    @FunctionalInterface
+    public interface LineVisitor {
+        void visit(int saleId, int epochDay, int hour, int productId, int cashierId, String paymentMethod,
+                   int quantity, long revenueCents);
+    }
+    
+    /**
+     * What a snapshot was taken of; a snapshot is current while the database still gives the same
+     */
+    private record Fingerprint(int sales, int voided, int maxSaleId) {
+        
+        /**
+         * The fingerprint of a month whose sales are split over several segments
+         */
+        Fingerprint plus(Fingerprint other) {
+            return new Fingerprint(sales + other.sales, voided + other.voided, Math.max(maxSaleId, other.maxSaleId));
+        }
+    }
+    
+    /**
+     * A mapped snapshot file
+     */
+    private record Snapshot(Fingerprint fingerprint, MappedByteBuffer buffer, int headerSize, int recordCount,
+                            String[] paymentMethods) {
+    }
+    
+    private final Map<YearMonth, Snapshot> mapped = new HashMap<>();
+    
+    /**
+     * Make sure every closed month with sales has a current snapshot, exporting missing or stale ones
+     * @return the months that can be scanned, oldest first, up to the first one that could not be
+     *         written; the months after it are left to the database
+     */
+    public synchronized List<YearMonth> prepareClosedMonths() {
+        YearMonth current = YearMonth.now();
+        Map<YearMonth, Fingerprint> expected = new TreeMap<>();
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            Main.getSalesArchive().forEachSegment(conn, null, current.atDay(1), schema -> {
+                try (PreparedStatement stmt = conn.prepareStatement(FINGERPRINT_SQL.formatted(schema))) {
+                    stmt.setString(1, current.atDay(1).toString());
+                    
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            expected.merge(YearMonth.parse(rs.getString("month")),
+                                    new Fingerprint(rs.getInt("sales"), rs.getInt("voided"), rs.getInt("max_id")),
+                                    Fingerprint::plus);
+                        }
+                    }
+                }
+            });
+            
+            List<YearMonth> ready = new ArrayList<>();
+            for (Map.Entry<YearMonth, Fingerprint> entry : expected.entrySet()) {
+                YearMonth month = entry.getKey();
+                Snapshot snapshot = map(month);
+                if (snapshot == null || !snapshot.fingerprint().equals(entry.getValue())) {
+                    mapped.remove(month);
+                    export(conn, month, entry.getValue());
+                    snapshot = map(month);
+                }
+                if (snapshot == null) {
+                    break;
+                }
+                ready.add(month);
+            }
+            return ready;
+        } catch (SQLException | IOException e) {
+            logger.severe("Error preparing sales snapshots: " + e.getMessage());
+            return List.of();
+        }
+    }
+    
+    /**
+     * Scan every line of a month's snapshot straight from the mapped file
+     * @return the highest sale ID in the snapshot, or -1 if the month has no snapshot
+     */
+    public synchronized int scan(YearMonth month, LineVisitor visitor) {
+        Snapshot snapshot = mapped.get(month);
+        if (snapshot == null) {
+            return -1;
+        }
+        
+        ByteBuffer buffer = snapshot.buffer();
+        String[] paymentMethods = snapshot.paymentMethods();
+        int end = snapshot.headerSize() + snapshot.recordCount() * RECORD_SIZE;
+        for (int position = snapshot.headerSize(); position < end; position += RECORD_SIZE) {
+            int payment = buffer.get(position + OFFSET_PAYMENT);
+            visitor.visit(
+                buffer.getInt(position + OFFSET_SALE_ID),
+                buffer.getInt(position + OFFSET_EPOCH_DAY),
+                buffer.get(position + OFFSET_HOUR),
+                buffer.getInt(position + OFFSET_PRODUCT_ID),
+                buffer.getInt(position + OFFSET_CASHIER_ID),
+                payment >= 0 ? paymentMethods[payment] : null,
+                buffer.getInt(position + OFFSET_QUANTITY),
+                buffer.getLong(position + OFFSET_REVENUE_CENTS)
+            );
+        }
+        return snapshot.fingerprint().maxSaleId();
+    }
+    
+    /**
+     * Directory of the snapshot files, next to the database file
+     */
+    public Path getDirectory() {
+        Path databaseFile = Main.getDatabaseManager().getDatabaseFile();
+        return databaseFile.resolveSibling(databaseFile.getFileName() + ".snapshots");
+    }
+    
+    private Path fileFor(YearMonth month) {
+        return getDirectory().resolve("sales-" + month + ".bin");
+    }
+    
+    /**
+     * Write a month's sale lines to its snapshot file; the file is replaced atomically
+     */
+    private void export(Connection conn, YearMonth month, Fingerprint fingerprint) throws SQLException, IOException {
+        long start = System.nanoTime();
+        List<String> paymentMethods = new ArrayList<>();
+        Map<String, Integer> paymentCodes = new HashMap<>();
+        ByteBuffer[] buffer = { ByteBuffer.allocate(RECORD_SIZE * 1024).order(ByteOrder.LITTLE_ENDIAN) };
+        
+        // An archived month can still gain rows in the main database, e.g. from an import of old sales
+        Main.getSalesArchive().forEachSegment(conn, month.atDay(1), month.plusMonths(1).atDay(1), schema -> {
+            try (PreparedStatement stmt = conn.prepareStatement(EXPORT_SQL.formatted(schema))) {
+                stmt.setFetchSize(4096);
+                stmt.setString(1, month.atDay(1).toString());
+                stmt.setString(2, month.plusMonths(1).atDay(1).toString());
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    String lastDate = "";
+                    int epochDay = 0;
+                    ByteBuffer records = buffer[0];
+                    
+                    while (rs.next()) {
+                        String saleDate = rs.getString("sale_date");
+                        if (!saleDate.regionMatches(0, lastDate, 0, 10)) {
+                            epochDay = (int) LocalDate.parse(saleDate.substring(0, 10)).toEpochDay();
+                            lastDate = saleDate;
+                        }
+                        String paymentMethod = rs.getString("payment_method");
+                        int payment = -1;
+                        if (paymentMethod != null) {
+                            payment = paymentCodes.computeIfAbsent(paymentMethod, name -> {
+                                paymentMethods.add(name);
+                                return paymentMethods.size() - 1;
+                            });
+                        }
+                        
+                        if (records.remaining() < RECORD_SIZE) {
+                            ByteBuffer larger = ByteBuffer.allocate(records.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                            larger.put(records.flip());
+                            records = larger;
+                        }
+                        int position = records.position();
+                        records.putInt(position + OFFSET_SALE_ID, rs.getInt("id"));
+                        records.putInt(position + OFFSET_EPOCH_DAY, epochDay);
+                        records.putInt(position + OFFSET_PRODUCT_ID, rs.getInt("product_id"));
+                        records.putInt(position + OFFSET_CASHIER_ID, rs.getInt("cashier_id"));
+                        records.putInt(position + OFFSET_QUANTITY, rs.getInt("quantity"));
+                        records.putLong(position + OFFSET_REVENUE_CENTS, SalesCube.cents(rs.getBigDecimal("total_price")));
+                        records.put(position + OFFSET_HOUR, (byte) (saleDate.length() >= 13 ? Integer.parseInt(saleDate.substring(11, 13)) : 0));
+                        records.put(position + OFFSET_PAYMENT, (byte) payment);
+                        records.position(position + RECORD_SIZE);
+                    }
+                    buffer[0] = records;
+                }
+            }
+        });
+        ByteBuffer records = buffer[0];
+        int recordCount = records.position() / RECORD_SIZE;
+        
+        if (paymentMethods.size() > Byte.MAX_VALUE) {
+            throw new IOException("Too many payment methods in " + month + " for a snapshot");
+        }
+        
+        int namesSize = paymentMethods.stream().mapToInt(name -> 2 + name.getBytes(StandardCharsets.UTF_8).length).sum();
+        ByteBuffer header = ByteBuffer.allocate(48 + namesSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(month.getYear() * 100 + month.getMonthValue())
+              .putInt(recordCount).putInt(fingerprint.sales()).putInt(fingerprint.voided())
+              .putInt(fingerprint.maxSaleId());
+        int headerSizePosition = header.position();
+        header.putInt(0).putInt(paymentMethods.size());
+        for (String name : paymentMethods) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            header.putShort((short) bytes.length).put(bytes);
+        }
+        // Records start on an 8-byte boundary so their longs are aligned in the mapping
+        int headerSize = (header.position() + 7) & ~7;
+        header.putInt(headerSizePosition, headerSize).position(headerSize).flip();
+        
+        Files.createDirectories(getDirectory());
+        Path target = fileFor(month);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            records.flip();
+            while (header.hasRemaining() || records.hasRemaining()) {
+                channel.write(new ByteBuffer[] {header, records});
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        logger.info("Sales snapshot " + month + " written: " + recordCount + " lines in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+    
+    /**
+     * Map a month's snapshot file if it exists and is readable
+     */
+    private Snapshot map(YearMonth month) {
+        Snapshot snapshot = mapped.get(month);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        
+        Path file = fileFor(month);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != month.getYear() * 100 + month.getMonthValue()) {
+                logger.warning("Ignoring unrecognized sales snapshot " + file);
+                return null;
+            }
+            
+            int recordCount = buffer.getInt(12);
+            Fingerprint fingerprint = new Fingerprint(buffer.getInt(16), buffer.getInt(20), buffer.getInt(24));
+            int headerSize = buffer.getInt(28);
+            String[] paymentMethods = new String[buffer.getInt(32)];
+            int position = 36;
+            for (int i = 0; i < paymentMethods.length; i++) {
+                byte[] bytes = new byte[buffer.getShort(position)];
+                buffer.get(position + 2, bytes);
+                paymentMethods[i] = new String(bytes, StandardCharsets.UTF_8);
+                position += 2 + bytes.length;
+            }
+            
+            if ((long) headerSize + (long) recordCount * RECORD_SIZE > channel.size()) {
+                logger.warning("Ignoring truncated sales snapshot " + file);
+                return null;
+            }
+            
+            snapshot = new Snapshot(fingerprint, buffer, headerSize, recordCount, paymentMethods);
+            mapped.put(month, snapshot);
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Could not map sales snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
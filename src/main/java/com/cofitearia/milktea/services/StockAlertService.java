@@ -0,0 +1,137 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.models.InventoryItem;
+import com.cofitearia.milktea.models.StockAlert;
+import com.cofitearia.milktea.models.StockAlert.Level;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Stock alert engine that evaluates thresholds at the moment stock changes
+ * Publishes edge-triggered alerts (NORMAL -> LOW -> CRITICAL and back) instead of polling queries
+ */
+public class StockAlertService {
+    private static final Logger logger = Logger.getLogger(StockAlertService.class.getName());
+    
+    // Stock has to climb this fraction above a threshold before the alert clears
+    private static final double HYSTERESIS_RATIO = 0.2;
+    
+    /**
+     * Subscriber for stock alert events
+     */
+    @FunctionalInterface
+    public interface StockAlertListener {
+        void onStockAlert(StockAlert alert);
+    }
+    
+    private final Map<Integer, Level> levels = new ConcurrentHashMap<>();
+    private final List<StockAlertListener> listeners = new CopyOnWriteArrayList<>();
+    
+    public void addListener(StockAlertListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(StockAlertListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Seed the known levels, typically from InventoryService.getLowStockItems()
+     * Items not seeded are assumed to be at a normal level
+     */
+    public void prime(List<InventoryItem> items) {
+        for (InventoryItem item : items) {
+            levels.put(item.getId(), rawLevel(item.getCurrentStock(),
+                    item.getLowStockThreshold(), item.getCriticalStockThreshold()));
+        }
+        logger.info("Stock alert levels primed for " + items.size() + " items");
+    }
+    
+    /**
+     * Get the last known level of an item
+     */
+    public Level getLevel(int inventoryItemId) {
+        return levels.getOrDefault(inventoryItemId, Level.NORMAL);
+    }
+    
+    /**
+     * Evaluate an item after its stock changed and publish an alert if its level moved
+     * Called by stock writers (addStock, removeStock, checkout) right after the change is stored
+     * @return the alert that was published, or null if the level did not change
+     */
+    public StockAlert onStockChanged(int inventoryItemId, String itemName, int currentStock,
+                                     int lowStockThreshold, int criticalStockThreshold) {
+        Level[] transition = new Level[2];
+        
+        levels.compute(inventoryItemId, (id, previous) -> {
+            Level before = previous != null ? previous : Level.NORMAL;
+            transition[0] = before;
+            transition[1] = nextLevel(before, currentStock, lowStockThreshold, criticalStockThreshold);
+            return transition[1];
+        });
+        
+        if (transition[0] == transition[1]) {
+            return null;
+        }
+        
+        StockAlert alert = new StockAlert(inventoryItemId, itemName, transition[0], transition[1], currentStock);
+        publish(alert);
+        return alert;
+    }
+    
+    /**
+     * Forget an item, e.g. after it was deactivated
+     */
+    public void clear(int inventoryItemId) {
+        levels.remove(inventoryItemId);
+    }
+    
+    /**
+     * Next level with hysteresis: escalate as soon as a threshold is reached,
+     * but only step down once stock is clearly above the threshold again
+     */
+    private Level nextLevel(Level previous, int stock, int low, int critical) {
+        Level raw = rawLevel(stock, low, critical);
+        if (raw.ordinal() >= previous.ordinal()) {
+            return raw;
+        }
+        
+        Level next = previous;
+        while (next != Level.NORMAL) {
+            int threshold = next == Level.CRITICAL ? critical : low;
+            if (stock <= threshold + margin(threshold)) {
+                break;
+            }
+            next = Level.values()[next.ordinal() - 1];
+        }
+        return next.ordinal() < raw.ordinal() ? raw : next;
+    }
+    
+    private Level rawLevel(int stock, int low, int critical) {
+        if (stock <= critical) {
+            return Level.CRITICAL;
+        } else if (stock <= low) {
+            return Level.LOW;
+        }
+        return Level.NORMAL;
+    }
+    
+    private int margin(int threshold) {
+        return Math.max(1, (int) Math.round(threshold * HYSTERESIS_RATIO));
+    }
+    
+    private void publish(StockAlert alert) {
+        logger.info("Stock alert: " + alert);
+        for (StockAlertListener listener : listeners) {
+            try {
+                listener.onStockAlert(alert);
+            } catch (RuntimeException e) {
+                logger.warning("Stock alert listener failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stock movement compaction
+ * Once a day every item's stock level at the start of the retention window is folded from its
+ * previous snapshot and the movements since into stock_snapshots, and the movements before it are
+ * folded into daily totals per item and movement type in stock_movement_summaries. Movements are
+ * compacted in small batches, each in its own short transaction, in the main database and in the
+ * archived months alike. The pages they free are then returned to the file system with incremental
+ * vacuum, a few at a time.
+ */
+public class StockCompactionService {
+    private static final Logger logger = Logger.getLogger(StockCompactionService.class.getName());
+    
+    private static final long FIRST_RUN_DELAY_MINUTES = 20;
+    private static final int BATCH_SIZE = 2000;
+    private static final long BATCH_PAUSE_MILLIS = 50;
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // Same text form and clock as stock_movements.date_created
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    
+    private static final String LATEST_SQL = """
+        WITH %s
+        SELECT inventory_item_id, as_of, balance FROM latest
+        """.formatted(StockLedger.LATEST_SNAPSHOTS);
+    
+    // Movements of each item from its latest snapshot up to the cutoff; %s is the schema of the stock
+    // movements: main or an attached archive month
+    private static final String FOLD_SQL = """
+        WITH %s
+        SELECT m.inventory_item_id, SUM(%s) AS change
+        FROM %%s.stock_movements m
+        LEFT JOIN latest l ON l.inventory_item_id = m.inventory_item_id
+        WHERE m.date_created >= COALESCE(l.as_of, '') AND m.date_created < ?
+        GROUP BY m.inventory_item_id
+        """.formatted(StockLedger.LATEST_SNAPSHOTS, StockLedger.SIGNED_QUANTITY);
+    
+    private static final String BATCH_END_SQL = """
+        SELECT MAX(id), COUNT(*)
+        FROM (SELECT id FROM %s.stock_movements WHERE date_created < ? ORDER BY id LIMIT ?)
+        """;
+    
+    private static final String SUMMARIZE_SQL = """
+        INSERT INTO main.stock_movement_summaries (inventory_item_id, day, movement_type, movements, quantity)
+        SELECT inventory_item_id, date(date_created, 'localtime'), movement_type, COUNT(*), SUM(quantity)
+        FROM %s.stock_movements
+        WHERE date_created < ? AND id <= ?
+        GROUP BY inventory_item_id, date(date_created, 'localtime'), movement_type
+        ON CONFLICT (inventory_item_id, day, movement_type) DO UPDATE SET
+            movements = movements + excluded.movements,
+            quantity = quantity + excluded.quantity
+        """;
+    
+    private volatile int retentionDays = 90;
+    
+    private ScheduledExecutorService executor;
+    
+    /**
+     * Days of individual stock movements kept before they are compacted, usually from system settings
+     */
+    public void setRetentionDays(int retentionDays) {
+        if (retentionDays < 1) {
+            throw new IllegalArgumentException("Stock movements must be kept for at least one day");
+        }
+        this.retentionDays = retentionDays;
+    }
+    
+    /**
+     * Compact in the background shortly after startup and then once a day
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stock-compaction");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::compactNow, FIRST_RUN_DELAY_MINUTES,
+                TimeUnit.DAYS.toMinutes(1), TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Stop the daily compaction; a run cut short leaves every batch it committed consistent
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+    
+    /**
+     * Snapshot stock levels at the start of the retention window, compact the movements before it and
+     * reclaim the space they used
+     * @return the number of movements compacted
+     */
+    public synchronized int compactNow() {
+        long start = System.nanoTime();
+        // Local midnight, so the daily totals of compacted movements cover whole days
+        ZonedDateTime horizon = LocalDate.now().minusDays(retentionDays).atStartOfDay(ZoneId.systemDefault())
+                .withZoneSameInstant(ZoneOffset.UTC);
+        String cutoff = horizon.format(TIMESTAMP);
+        int[] compacted = {0};
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            int items = snapshot(conn, horizon.toLocalDate(), cutoff);
+            Main.getSalesArchive().forEachSegment(conn, null, horizon.toLocalDate().plusDays(1),
+                    schema -> compacted[0] += compact(conn, schema, cutoff));
+            long pages = reclaimSpace(conn);
+            
+            logger.info("Stock movements compacted before " + cutoff + " UTC: " + items + " item snapshots, "
+                    + compacted[0] + " movements summarized, " + pages + " pages reclaimed in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (SQLException | IOException e) {
+            logger.severe("Error compacting stock movements: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Keep the daily runs scheduled
+            logger.severe("Unexpected error compacting stock movements: " + e.getMessage());
+        }
+        return compacted[0];
+    }
+    
+    /**
+     * Switch a database created before incremental vacuum to it; rewrites the whole file, so only
+     * for when the application is not running
+     * @return true if the database was converted
+     */
+    public boolean enableIncrementalVacuum() throws SQLException {
+        try (Connection conn = Main.getDatabaseManager().openConnection();
+             Statement stmt = conn.createStatement()) {
+            if (autoVacuumMode(conn) == AUTO_VACUUM_INCREMENTAL) {
+                return false;
+            }
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            stmt.execute("VACUUM");
+            return autoVacuumMode(conn) == AUTO_VACUUM_INCREMENTAL;
+        }
+    }
+    
+    /**
+     * Write the stock level as of the cutoff of every item whose latest snapshot is older: that
+     * snapshot, or zero, plus the movements up to the cutoff. The recorded stock is not consulted, so
+     * a drift in it is still found by stock verification afterwards.
+     * @return the number of items snapshotted
+     */
+    private int snapshot(Connection conn, LocalDate cutoffDate, String cutoff) throws SQLException, IOException {
+        Map<Integer, Long> balances = new HashMap<>();
+        Map<Integer, Long> changes = new HashMap<>();
+        
+        // Archiving moves movements from the main database into the archived months; wait for it so
+        // none are counted twice or missed
+        synchronized (Main.getSalesArchive()) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(LATEST_SQL)) {
+                while (rs.next()) {
+                    if (rs.getString("as_of").compareTo(cutoff) < 0) {
+                        balances.put(rs.getInt("inventory_item_id"), rs.getLong("balance"));
+                    }
+                }
+            }
+            
+            Main.getSalesArchive().forEachSegment(conn, StockLedger.replayStart(conn), cutoffDate.plusDays(1), schema -> {
+                try (PreparedStatement stmt = conn.prepareStatement(FOLD_SQL.formatted(schema))) {
+                    stmt.setString(1, cutoff);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            changes.merge(rs.getInt("inventory_item_id"), rs.getLong("change"), Long::sum);
+                        }
+                    }
+                }
+            });
+        }
+        // Items first snapshotted now start from zero
+        changes.forEach((itemId, change) -> balances.merge(itemId, change, Long::sum));
+        
+        conn.setAutoCommit(false);
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO stock_snapshots (inventory_item_id, as_of, balance) VALUES (?, ?, ?)")) {
+            for (Map.Entry<Integer, Long> entry : balances.entrySet()) {
+                stmt.setInt(1, entry.getKey());
+                stmt.setString(2, cutoff);
+                stmt.setLong(3, entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        return balances.size();
+    }
+    
+    /**
+     * Fold the movements of one schema before the cutoff into the daily totals, one batch per transaction
+     */
+    private int compact(Connection conn, String schema, String cutoff) throws SQLException {
+        int compacted = 0;
+        
+        while (!Thread.currentThread().isInterrupted()) {
+            int lastId;
+            try (PreparedStatement stmt = conn.prepareStatement(BATCH_END_SQL.formatted(schema))) {
+                stmt.setString(1, cutoff);
+                stmt.setInt(2, BATCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next() || rs.getInt(2) == 0) {
+                        break;
+                    }
+                    lastId = rs.getInt(1);
+                }
+            }
+            
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(SUMMARIZE_SQL.formatted(schema))) {
+                    stmt.setString(1, cutoff);
+                    stmt.setInt(2, lastId);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "DELETE FROM " + schema + ".stock_movements WHERE date_created < ? AND id <= ?")) {
+                    stmt.setString(1, cutoff);
+                    stmt.setInt(2, lastId);
+                    compacted += stmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            pause();
+        }
+        
+        if (compacted > 0 && !"main".equals(schema)) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "UPDATE sales_partitions SET stock_movements = (SELECT COUNT(*) FROM " + schema
+                            + ".stock_movements) WHERE file_name = ?")) {
+                stmt.setString(1, schema + ".db");
+                stmt.executeUpdate();
+            }
+            // Nothing else writes to an archived month, so its free pages are released in one go
+            vacuumStep(conn, schema, freePages(conn, schema));
+        }
+        return compacted;
+    }
+    
+    /**
+     * Release the free pages of the main database a few at a time, each step a short write transaction
+     * @return the number of pages released
+     */
+    private long reclaimSpace(Connection conn) throws SQLException {
+        if (autoVacuumMode(conn) != AUTO_VACUUM_INCREMENTAL) {
+            logger.info("Database predates incremental vacuum; free pages are reused but not released "
+                    + "until it is converted with CompactStockMovements");
+            return 0;
+        }
+        
+        long released = 0;
+        long free;
+        while (!Thread.currentThread().isInterrupted() && (free = freePages(conn, "main")) > 0) {
+            vacuumStep(conn, "main", Math.min(free, VACUUM_PAGES_PER_STEP));
+            long after = freePages(conn, "main");
+            if (after >= free) {
+                break;
+            }
+            released += free - after;
+            pause();
+        }
+        return released;
+    }
+    
+    /**
+     * Release free pages of a schema in one transaction
+     */
+    private void vacuumStep(Connection conn, String schema, long pages) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            // The pragma frees one page per step and the driver steps once per execute
+            try (PreparedStatement stmt = conn.prepareStatement("PRAGMA " + schema + ".incremental_vacuum(1)")) {
+                for (long i = 0; i < pages; i++) {
+                    stmt.execute();
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+    
+    private long freePages(Connection conn, String schema) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + schema + ".freelist_count")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+    
+    private int autoVacuumMode(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+    
+    private void pause() {
+        try {
+            Thread.sleep(BATCH_PAUSE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
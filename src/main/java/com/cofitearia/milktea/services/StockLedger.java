@@ -0,0 +1,49 @@
+package com.cofitearia.milktea.services;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+/**
+ * The stock ledger: each item's latest snapshot plus the stock movements recorded since
+ * Snapshots are only ever folded from the ledger itself, never taken from inventory_items, so the
+ * ledger stays independent of the recorded stock it is checked against.
+ */
+final class StockLedger {
+    
+    // ADJUSTMENT quantities are signed corrections
+    static final String SIGNED_QUANTITY = "CASE movement_type WHEN 'OUT' THEN -quantity ELSE quantity END";
+    
+    // Common table expression "latest": the most recent snapshot of each item that has one
+    static final String LATEST_SNAPSHOTS = """
+        latest AS (
+            SELECT s.inventory_item_id, s.as_of, s.balance
+            FROM main.stock_snapshots s
+            WHERE s.as_of = (SELECT MAX(as_of) FROM main.stock_snapshots WHERE inventory_item_id = s.inventory_item_id)
+        )""";
+    
+    // Items without a snapshot have no movements from before they were created
+    private static final String REPLAY_START_SQL = """
+        WITH %s
+        SELECT MIN(COALESCE(l.as_of, ii.date_created, ''))
+        FROM inventory_items ii
+        LEFT JOIN latest l ON l.inventory_item_id = ii.id
+        """.formatted(LATEST_SNAPSHOTS);
+    
+    private StockLedger() {
+    }
+    
+    /**
+     * First day any item's ledger has to be replayed from, or null when the whole history is needed
+     */
+    static LocalDate replayStart(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(REPLAY_START_SQL)) {
+            String start = rs.next() ? rs.getString(1) : null;
+            // Stored in UTC like the archived months, so the date part picks the first month needed
+            return start == null || start.length() < 10 ? null : LocalDate.parse(start.substring(0, 10));
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.models.StockDiscrepancy;
+import com.cofitearia.milktea.models.StockVerificationResult;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stock ledger verification
+ * Replays each item's stock from its latest snapshot plus the movements recorded since, in the main
+ * database and the archived months, and compares it with inventory_items.current_stock. Items without
+ * a snapshot are replayed from zero. Items are checked in ranges of IDs, several ranges at once on
+ * connections of their own; optionally the recorded stock of every disagreeing item is set to the
+ * ledger value. Databases created before the ledger was complete start it from their stock levels at
+ * upgrade.
+ */
+public class StockVerificationService {
+    private static final Logger logger = Logger.getLogger(StockVerificationService.class.getName());
+    
+    private static final int MAX_THREADS = 4;
+    private static final int ITEMS_PER_TASK = 2048;
+    
+    // %s is the schema of the stock movements: main or an attached archive month
+    private static final String REPLAY_SQL = """
+        WITH %s
+        SELECT m.inventory_item_id, SUM(%s) AS change, COUNT(*) AS movements
+        FROM %%s.stock_movements m
+        LEFT JOIN latest l ON l.inventory_item_id = m.inventory_item_id
+        WHERE m.inventory_item_id BETWEEN ? AND ? AND m.date_created >= COALESCE(l.as_of, '')
+        GROUP BY m.inventory_item_id
+        """.formatted(StockLedger.LATEST_SNAPSHOTS, StockLedger.SIGNED_QUANTITY);
+    
+    // Recorded stock and the movements in the main database are read in one statement, so checkouts
+    // cannot fall between them
+    private static final String MAIN_REPLAY_SQL = """
+        WITH %s
+        SELECT ii.id, p.name, ii.current_stock, COALESCE(l.balance, 0) AS balance,
+               COALESCE(m.change, 0) AS change, COALESCE(m.movements, 0) AS movements
+        FROM inventory_items ii
+        LEFT JOIN products p ON p.id = ii.product_id
+        LEFT JOIN latest l ON l.inventory_item_id = ii.id
+        LEFT JOIN (
+            SELECT m.inventory_item_id, SUM(%s) AS change, COUNT(*) AS movements
+            FROM main.stock_movements m
+            LEFT JOIN latest l ON l.inventory_item_id = m.inventory_item_id
+            WHERE m.inventory_item_id BETWEEN ? AND ? AND m.date_created >= COALESCE(l.as_of, '')
+            GROUP BY m.inventory_item_id
+        ) m ON m.inventory_item_id = ii.id
+        WHERE ii.id BETWEEN ? AND ?
+        """.formatted(StockLedger.LATEST_SNAPSHOTS, StockLedger.SIGNED_QUANTITY);
+    
+    /**
+     * Totals of one range of items
+     */
+    private record Range(int items, long movements, List<StockDiscrepancy> discrepancies) {
+    }
+    
+    /**
+     * Replay the stock ledger of every item and report where it disagrees with the recorded stock
+     * @param rebuild set the recorded stock of disagreeing items to the ledger value; an item whose
+     *                stock changed while it was being checked is left alone
+     */
+    public StockVerificationResult verify(boolean rebuild) {
+        long start = System.nanoTime();
+        List<Range> ranges = new ArrayList<>();
+        
+        // Compaction replaces movements with snapshots and archiving moves them between files; wait
+        // for both so no movement is counted twice or missed
+        synchronized (Main.getStockCompactionService()) {
+            synchronized (Main.getSalesArchive()) {
+                List<Callable<Range>> tasks = new ArrayList<>();
+                LocalDate from;
+                
+                try (Connection conn = Main.getDatabaseManager().openConnection()) {
+                    from = StockLedger.replayStart(conn);
+                    List<Integer> ids = itemIds(conn);
+                    for (int i = 0; i < ids.size(); i += ITEMS_PER_TASK) {
+                        int first = ids.get(i);
+                        int last = ids.get(Math.min(i + ITEMS_PER_TASK, ids.size()) - 1);
+                        tasks.add(() -> replay(first, last, from));
+                    }
+                } catch (SQLException e) {
+                    logger.severe("Error reading inventory items to verify: " + e.getMessage());
+                    return failed(start);
+                }
+                
+                ExecutorService pool = Executors.newFixedThreadPool(
+                        Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()), runnable -> {
+                    Thread thread = new Thread(runnable, "stock-verification");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                try {
+                    for (Future<Range> future : pool.invokeAll(tasks)) {
+                        ranges.add(future.get());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.warning("Stock verification interrupted");
+                    return failed(start);
+                } catch (ExecutionException e) {
+                    logger.severe("Error replaying stock movements: " + e.getCause().getMessage());
+                    return failed(start);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+        }
+        
+        int items = 0;
+        long movements = 0;
+        List<StockDiscrepancy> discrepancies = new ArrayList<>();
+        for (Range range : ranges) {
+            items += range.items();
+            movements += range.movements();
+            discrepancies.addAll(range.discrepancies());
+        }
+        discrepancies.sort(Comparator.comparingInt(StockDiscrepancy::getItemId));
+        
+        int corrected = 0;
+        if (rebuild && !discrepancies.isEmpty()) {
+            try {
+                corrected = rebuildStock(discrepancies);
+            } catch (SQLException e) {
+                logger.severe("Error rebuilding stock from the ledger: " + e.getMessage());
+            }
+        }
+        
+        StockVerificationResult result = new StockVerificationResult(true, items, movements, discrepancies,
+                corrected, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (discrepancies.isEmpty()) {
+            logger.info(result.toString());
+        } else {
+            logger.warning(result.toString());
+        }
+        return result;
+    }
+    
+    /**
+     * Replay the items with IDs in a range on a connection of its own
+     */
+    private Range replay(int firstId, int lastId, LocalDate from) throws SQLException, IOException {
+        Map<Integer, long[]> archived = new HashMap<>();
+        List<StockDiscrepancy> discrepancies = new ArrayList<>();
+        int[] items = {0};
+        long[] movements = {0};
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            // The main database comes last, after every archived month
+            Main.getSalesArchive().forEachSegment(conn, from, null, schema -> {
+                if (!"main".equals(schema)) {
+                    try (PreparedStatement stmt = conn.prepareStatement(REPLAY_SQL.formatted(schema))) {
+                        stmt.setInt(1, firstId);
+                        stmt.setInt(2, lastId);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                long[] totals = archived.computeIfAbsent(rs.getInt("inventory_item_id"), id -> new long[2]);
+                                totals[0] += rs.getLong("change");
+                                totals[1] += rs.getLong("movements");
+                            }
+                        }
+                    }
+                    return;
+                }
+                
+                try (PreparedStatement stmt = conn.prepareStatement(MAIN_REPLAY_SQL)) {
+                    stmt.setInt(1, firstId);
+                    stmt.setInt(2, lastId);
+                    stmt.setInt(3, firstId);
+                    stmt.setInt(4, lastId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            int itemId = rs.getInt("id");
+                            long[] older = archived.getOrDefault(itemId, new long[2]);
+                            long ledger = rs.getLong("balance") + rs.getLong("change") + older[0];
+                            int replayed = (int) (rs.getLong("movements") + older[1]);
+                            int recorded = rs.getInt("current_stock");
+                            if (ledger != recorded) {
+                                discrepancies.add(new StockDiscrepancy(itemId, rs.getString("name"), recorded, ledger, replayed));
+                            }
+                            items[0]++;
+                            movements[0] += replayed;
+                        }
+                    }
+                }
+            });
+        }
+        return new Range(items[0], movements[0], discrepancies);
+    }
+    
+    /**
+     * Set the recorded stock of each item to its ledger value, in one transaction
+     * @return the number of items corrected
+     */
+    private int rebuildStock(List<StockDiscrepancy> discrepancies) throws SQLException {
+        String sql = """
+            UPDATE inventory_items SET current_stock = ?, date_modified = CURRENT_TIMESTAMP
+            WHERE id = ? AND current_stock = ?
+            """;
+        List<Integer> correctedIds = new ArrayList<>();
+        
+        try (Connection conn = Main.getDatabaseManager().openConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (StockDiscrepancy discrepancy : discrepancies) {
+                    stmt.setLong(1, discrepancy.getLedgerStock());
+                    stmt.setInt(2, discrepancy.getItemId());
+                    stmt.setInt(3, discrepancy.getRecordedStock());
+                    stmt.addBatch();
+                }
+                int[] updated = stmt.executeBatch();
+                for (int i = 0; i < updated.length; i++) {
+                    if (updated[i] > 0) {
+                        correctedIds.add(discrepancies.get(i).getItemId());
+                    } else {
+                        logger.warning("Stock of item ID " + discrepancies.get(i).getItemId()
+                                + " changed while it was verified; not corrected");
+                    }
+                }
+                conn.commit();
+            } catch (Throwable e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        
+        InventoryService inventoryService = new InventoryService();
+        for (int itemId : correctedIds) {
+            inventoryService.publishStockChange(itemId);
+        }
+        return correctedIds.size();
+    }
+    
+    private List<Integer> itemIds(Connection conn) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id FROM inventory_items ORDER BY id")) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+    
+    private StockVerificationResult failed(long start) {
+        return new StockVerificationResult(false, 0, 0, List.of(), 0,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
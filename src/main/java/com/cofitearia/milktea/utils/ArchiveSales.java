@@ -0,0 +1,33 @@
+package com.cofitearia.milktea.utils;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.services.SalesArchive;
+
+/**
+ * Move closed months of sales into the monthly archive files without starting the application
+ * Usage: ArchiveSales [database file] [months kept in the main database]
+ */
+public class ArchiveSales {
+    
+    public static void main(String[] args) {
+        DatabaseManager databaseManager = args.length > 0
+                ? new DatabaseManager("jdbc:sqlite:" + args[0])
+                : new DatabaseManager();
+        Main.setDatabaseManager(databaseManager);
+        SalesArchive salesArchive = Main.getSalesArchive();
+        int archived;
+        
+        try {
+            databaseManager.initializeDatabase();
+            salesArchive.setHotMonths(args.length > 1
+                    ? Integer.parseInt(args[1])
+                    : Integer.parseInt(databaseManager.getSystemSetting("sales_hot_months", "2")));
+            archived = salesArchive.archiveClosedMonths();
+        } finally {
+            databaseManager.closeConnection();
+        }
+        
+        System.out.println("Archived " + archived + " months to " + salesArchive.getDirectory());
+    }
+}
@@ -0,0 +1,37 @@
+package com.cofitearia.milktea.utils;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.models.BackupResult;
+import com.cofitearia.milktea.services.BackupService;
+
+/**
+ * Back up the database once without starting the application, e.g. from a scheduled task
+ * Usage: BackupDatabase [database file] [backups to keep]
+ */
+public class BackupDatabase {
+    
+    public static void main(String[] args) {
+        DatabaseManager databaseManager = args.length > 0
+                ? new DatabaseManager("jdbc:sqlite:" + args[0])
+                : new DatabaseManager();
+        Main.setDatabaseManager(databaseManager);
+        BackupService backupService = new BackupService();
+        BackupResult result;
+        
+        try {
+            databaseManager.initializeDatabase();
+            backupService.setPolicy(24, args.length > 1
+                    ? Integer.parseInt(args[1])
+                    : Integer.parseInt(databaseManager.getSystemSetting("backup_keep_count", "7")));
+            result = backupService.backupNow();
+        } finally {
+            databaseManager.closeConnection();
+        }
+        
+        System.out.println(result);
+        if (!result.isSuccessful()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.cofitearia.milktea.utils;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.models.Product;
+import com.cofitearia.milktea.models.Sale;
+import com.cofitearia.milktea.models.SaleItem;
+import com.cofitearia.milktea.services.ProductService;
+import com.cofitearia.milktea.services.SaleJournal;
+import com.cofitearia.milktea.services.SalesService;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checkout latency benchmark
+ * Runs 20-line orders through SalesService against a scratch copy of the sample database
+ * With --journal, orders go through the sale journal and the time until each is confirmed is measured
+ * Usage: CheckoutBenchmark [iterations] [--journal]
+ */
+public class CheckoutBenchmark {
+    private static final int LINES_PER_ORDER = 20;
+    private static final int WARMUP_ORDERS = 50;
+    
+    public static void main(String[] args) throws IOException, SQLException, InterruptedException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        boolean journaled = args.length > 1 && "--journal".equals(args[1]);
+        
+        // Keep per-sale info logging out of the timings
+        Logger.getLogger("com.cofitearia.milktea").setLevel(Level.WARNING);
+        
+        Path dbFile = Files.createTempFile("checkout-benchmark", ".db");
+        DatabaseManager databaseManager = new DatabaseManager("jdbc:sqlite:" + dbFile);
+        Main.setDatabaseManager(databaseManager);
+        
+        try {
+            databaseManager.initializeDatabase();
+            
+            // Enough stock that no order is rejected
+            try (Connection conn = databaseManager.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("UPDATE inventory_items SET current_stock = 1000000000");
+            }
+            
+            List<Product> products = new ProductService().getAllProducts().stream()
+                    .filter(product -> !"Ingredients".equals(product.getCategory()))
+                    .toList();
+            SalesService salesService = new SalesService();
+            
+            for (int i = 0; i < WARMUP_ORDERS; i++) {
+                salesService.processSale(buildOrder(products, i));
+            }
+            
+            SaleJournal journal = Main.getSaleJournal();
+            if (journaled && !journal.start()) {
+                throw new IllegalStateException("Sale journal could not be opened");
+            }
+            
+            long[] nanos = new long[iterations];
+            for (int i = 0; i < iterations; i++) {
+                Sale sale = buildOrder(products, WARMUP_ORDERS + i);
+                long start = System.nanoTime();
+                if (!salesService.submitSale(sale)) {
+                    throw new IllegalStateException("Order " + i + " was rejected");
+                }
+                nanos[i] = System.nanoTime() - start;
+            }
+            
+            if (journaled) {
+                long start = System.nanoTime();
+                while (journal.getBacklog() > 0) {
+                    Thread.sleep(10);
+                }
+                System.out.printf("Journal caught up %.0f ms after the last confirmation%n",
+                        (System.nanoTime() - start) / 1_000_000.0);
+                journal.shutdown();
+            }
+            
+            Arrays.sort(nanos);
+            System.out.println("=== Checkout benchmark: " + iterations + " orders of " + LINES_PER_ORDER + " lines"
+                    + (journaled ? ", journaled" : "") + " ===");
+            System.out.printf("mean %.3f ms%n", Arrays.stream(nanos).average().orElse(0) / 1_000_000);
+            System.out.printf("p50  %.3f ms%n", percentile(nanos, 0.50));
+            System.out.printf("p95  %.3f ms%n", percentile(nanos, 0.95));
+            System.out.printf("p99  %.3f ms%n", percentile(nanos, 0.99));
+            System.out.printf("max  %.3f ms%n", nanos[nanos.length - 1] / 1_000_000.0);
+        } finally {
+            databaseManager.closeConnection();
+            Files.deleteIfExists(dbFile);
+            Files.deleteIfExists(dbFile.resolveSibling(dbFile.getFileName() + ".sales-journal"));
+        }
+    }
+    
+    /**
+     * Build an order cycling through the menu, so recipes and shared ingredients overlap
+     */
+    private static Sale buildOrder(List<Product> products, int orderNumber) {
+        Sale sale = new Sale(null);
+        sale.setTransactionNumber("BENCH" + orderNumber); // Millisecond numbers collide at benchmark speed
+        for (int line = 0; line < LINES_PER_ORDER; line++) {
+            Product product = products.get((orderNumber + line) % products.size());
+            sale.addItem(new SaleItem(product, 1 + line % 3, product.getPrice()));
+        }
+        sale.setTax(sale.getSubtotal().multiply(new BigDecimal("0.12")));
+        return sale;
+    }
+    
+    private static double percentile(long[] sorted, double fraction) {
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,39 @@
+package com.cofitearia.milktea.utils;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.services.StockCompactionService;
+
+import java.sql.SQLException;
+
+/**
+ * Compact old stock movements without starting the application
+ * Databases created before incremental vacuum are converted first, which rewrites the whole file once.
+ * Usage: CompactStockMovements [database file] [days of movements kept]
+ */
+public class CompactStockMovements {
+    
+    public static void main(String[] args) throws SQLException {
+        DatabaseManager databaseManager = args.length > 0
+                ? new DatabaseManager("jdbc:sqlite:" + args[0])
+                : new DatabaseManager();
+        Main.setDatabaseManager(databaseManager);
+        StockCompactionService compactionService = Main.getStockCompactionService();
+        int compacted;
+        
+        try {
+            databaseManager.initializeDatabase();
+            compactionService.setRetentionDays(args.length > 1
+                    ? Integer.parseInt(args[1])
+                    : Integer.parseInt(databaseManager.getSystemSetting("stock_movement_retention_days", "90")));
+            if (compactionService.enableIncrementalVacuum()) {
+                System.out.println("Converted the database to incremental vacuum");
+            }
+            compacted = compactionService.compactNow();
+        } finally {
+            databaseManager.closeConnection();
+        }
+        
+        System.out.println("Compacted " + compacted + " stock movements");
+    }
+}
@@ -0,0 +1,103 @@
+package com.cofitearia.milktea.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming CSV reader
+ * Reads one record at a time, so files of any size are parsed in constant memory. Follows RFC 4180:
+ * fields may be quoted, quotes inside quoted fields are doubled, and quoted fields may span lines.
+ */
+public class CsvReader implements Closeable {
+    private final Reader reader;
+    private final char[] buffer = new char[1 << 16];
+    private int position;
+    private int limit;
+    private int line = 1;
+    private int recordLine;
+    
+    public CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+    
+    /**
+     * Read the next record
+     * @return its fields, or null at the end of the input
+     */
+    public String[] readRecord() throws IOException {
+        if (!fill()) {
+            return null;
+        }
+        recordLine = line;
+        
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStart = true;
+        
+        while (fill()) {
+            char c = buffer[position++];
+            if (quoted) {
+                if (c == '"') {
+                    if (fill() && buffer[position] == '"') {
+                        field.append('"');
+                        position++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append(c);
+                }
+            } else if (c == '"' && fieldStart) {
+                quoted = true;
+                fieldStart = false;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStart = true;
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r' && fill() && buffer[position] == '\n') {
+                    position++;
+                }
+                line++;
+                break;
+            } else {
+                field.append(c);
+                fieldStart = false;
+            }
+        }
+        
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+    
+    /**
+     * Line on which the record last returned started, counting from 1
+     */
+    public int getRecordLine() {
+        return recordLine;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+    
+    private boolean fill() throws IOException {
+        while (position >= limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit < 0) {
+                limit = 0;
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package com.cofitearia.milktea.utils;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.models.ImportResult;
+import com.cofitearia.milktea.services.HistoricSalesImportService;
+
+import java.nio.file.Path;
+
+/**
+ * Import historic sales from a previous POS without starting the application
+ * Run it again with the same file to resume an import that was interrupted.
+ * Usage: ImportHistoricSales <csv file> [database file]
+ */
+public class ImportHistoricSales {
+    
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: ImportHistoricSales <csv file> [database file]");
+            System.exit(2);
+        }
+        
+        DatabaseManager databaseManager = args.length > 1
+                ? new DatabaseManager("jdbc:sqlite:" + args[1])
+                : new DatabaseManager();
+        Main.setDatabaseManager(databaseManager);
+        ImportResult result;
+        
+        try {
+            databaseManager.initializeDatabase();
+            result = new HistoricSalesImportService().importFile(Path.of(args[0]), (lines, bytesDone, totalBytes, linesPerSecond) ->
+                    System.out.printf("%5.1f%%  %,d lines  %,.0f lines/s%n", 100.0 * bytesDone / Math.max(totalBytes, 1), lines, linesPerSecond));
+        } finally {
+            databaseManager.closeConnection();
+        }
+        
+        System.out.println(result);
+        for (String error : result.getErrorSamples()) {
+            System.out.println("  " + error);
+        }
+        if (!result.isCompleted()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.cofitearia.milktea.utils;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.models.ImportResult;
+import com.cofitearia.milktea.services.ProductImportService;
+
+import java.nio.file.Path;
+
+/**
+ * Import products and their inventory from a CSV file without starting the application
+ * Usage: ImportProducts <csv file> [database file]
+ */
+public class ImportProducts {
+    
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: ImportProducts <csv file> [database file]");
+            System.exit(2);
+        }
+        
+        DatabaseManager databaseManager = args.length > 1
+                ? new DatabaseManager("jdbc:sqlite:" + args[1])
+                : new DatabaseManager();
+        Main.setDatabaseManager(databaseManager);
+        ImportResult result;
+        
+        try {
+            databaseManager.initializeDatabase();
+            result = new ProductImportService().importCsv(Path.of(args[0]));
+        } finally {
+            databaseManager.closeConnection();
+        }
+        
+        System.out.println(result);
+        for (String error : result.getErrorSamples()) {
+            System.out.println("  " + error);
+        }
+        if (!result.isCompleted()) {
+            System.exit(1);
+        }
+    }
+}
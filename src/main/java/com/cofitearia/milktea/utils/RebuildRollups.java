@@ -0,0 +1,35 @@
+package com.cofitearia.milktea.utils;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.services.RollupService;
+
+/**
+ * Rebuild the sales rollup tables from the raw sales, e.g. after sales were corrected by hand
+ * Usage: RebuildRollups [database file]
+ */
+public class RebuildRollups {
+    
+    public static void main(String[] args) {
+        DatabaseManager databaseManager = args.length > 0
+                ? new DatabaseManager("jdbc:sqlite:" + args[0])
+                : new DatabaseManager();
+        Main.setDatabaseManager(databaseManager);
+        boolean rebuilt;
+        
+        try {
+            databaseManager.initializeDatabase();
+            rebuilt = new RollupService().rebuild();
+            if (rebuilt) {
+                System.out.println(databaseManager.getDatabaseStats());
+            }
+        } finally {
+            databaseManager.closeConnection();
+        }
+        
+        if (!rebuilt) {
+            System.err.println("Rebuilding the sales rollups failed; see the log for details");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.cofitearia.milktea.utils;
+
+import com.cofitearia.milktea.Main;
+import com.cofitearia.milktea.database.DatabaseManager;
+import com.cofitearia.milktea.models.StockDiscrepancy;
+import com.cofitearia.milktea.models.StockVerificationResult;
+import com.cofitearia.milktea.services.StockVerificationService;
+
+import java.util.Arrays;
+
+/**
+ * Check every item's recorded stock against its stock ledger without starting the application
+ * With --rebuild the recorded stock of disagreeing items is set to the ledger value.
+ * Usage: VerifyStock [database file] [--rebuild]
+ */
+public class VerifyStock {
+    
+    public static void main(String[] args) {
+        boolean rebuild = Arrays.asList(args).contains("--rebuild");
+        String[] files = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+        DatabaseManager databaseManager = files.length > 0
+                ? new DatabaseManager("jdbc:sqlite:" + files[0])
+                : new DatabaseManager();
+        Main.setDatabaseManager(databaseManager);
+        StockVerificationResult result;
+        
+        try {
+            databaseManager.initializeDatabase();
+            result = new StockVerificationService().verify(rebuild);
+        } finally {
+            databaseManager.closeConnection();
+        }
+        
+        for (StockDiscrepancy discrepancy : result.getDiscrepancies()) {
+            System.out.println(discrepancy);
+        }
+        System.out.println(result);
+        if (!result.isCompleted() || result.getItemsCorrected() < result.getDiscrepancies().size()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.cofitearia.milktea.services;
+
+import com.cofitearia.milktea.database.DatabaseManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The stock alert queries must keep matching their partial indexes, or every alert refresh goes
+ * back to scanning the whole inventory
+ */
+class InventoryAlertQueryPlanTest {
+    @TempDir
+    Path directory;
+    
+    private DatabaseManager databaseManager;
+    
+    @BeforeEach
+    void createDatabase() {
+        databaseManager = new DatabaseManager("jdbc:sqlite:" + directory.resolve("inventory.db"));
+        databaseManager.initializeDatabase();
+    }
+    
+    @AfterEach
+    void closeDatabase() {
+        databaseManager.closeConnection();
+    }
+    
+    @Test
+    void lowStockQueryUsesItsPartialIndex() {
+        assertUsesIndex(InventoryService.LOW_STOCK_SQL, "idx_inventory_low_stock");
+    }
+    
+    @Test
+    void criticalStockQueryUsesItsPartialIndex() {
+        assertUsesIndex(InventoryService.CRITICAL_STOCK_SQL, "idx_inventory_critical_stock");
+    }
+    
+    @Test
+    void expiredItemsQueryUsesItsPartialIndex() {
+        assertUsesIndex(InventoryService.EXPIRED_ITEMS_SQL, "idx_inventory_expiration");
+    }
+    
+    private void assertUsesIndex(String sql, String index) {
+        List<String> plan = databaseManager.explainQueryPlan(sql);
+        assertTrue(plan.stream().anyMatch(step -> step.contains("USING INDEX " + index)),
+                () -> "Expected a scan of " + index + " but the plan was " + String.join(" | ", plan));
+    }
+}